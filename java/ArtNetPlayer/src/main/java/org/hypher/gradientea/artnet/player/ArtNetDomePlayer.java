@@ -1,22 +1,45 @@
 package org.hypher.gradientea.artnet.player;
 
 import fr.azelart.artnetstack.server.ArtNetServer;
-import fr.azelart.artnetstack.utils.ArtNetPacketEncoder;
 import org.hypher.gradientea.transport.shared.DomeAnimationFrame;
 import org.hypher.gradientea.transport.shared.DomeAnimationTransport;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 /**
+ * Plays dome frames over Art-Net. Each universe has a preallocated ArtDmx packet which is patched in place with the
+ * sequence number and channel data for every frame, and all packets are sent through a single long-lived
+ * {@link DatagramChannel}, so displaying a frame doesn't allocate. Universes whose data hasn't changed since they were
+ * last sent are skipped, apart from a periodic keep-alive; see {@link DmxChangeFilter}.
+ *
  * @author Yona Appletree (yona@concentricsky.com)
  */
 public class ArtNetDomePlayer implements DomeAnimationTransport {
+	private static final byte[] ART_NET_ID = new byte[] { 'A', 'r', 't', '-', 'N', 'e', 't', 0 };
+	private static final int OP_DMX = 0x5000;
+	private static final int PROTOCOL_VERSION = 14;
+
+	private static final int SEQUENCE_OFFSET = 12;
+	private static final int DATA_OFFSET = 18;
+	private static final int DMX_CHANNELS = 512;
+
 	protected ArtNetServer server;
 	protected DmxDomeMapping mapping;
 
 	protected int[][] dmxBuffer;
 
+	protected DatagramChannel channel;
+	protected InetSocketAddress targetAddress;
+	protected ByteBuffer[] packetBuffers;
+	protected byte[] channelBytes = new byte[DMX_CHANNELS];
+	protected int sequence = 0;
+
+	protected DmxChangeFilter changeFilter = new DmxChangeFilter();
+
 	public ArtNetDomePlayer(final DmxDomeMapping mapping) {
 		this.mapping = mapping;
 	}
@@ -31,29 +54,83 @@ public class ArtNetDomePlayer implements DomeAnimationTransport {
 	) throws IOException {
 		server = new ArtNetServer(listenAddress, broadcastAddress, port);
 		server.start();
+
+		targetAddress = new InetSocketAddress(broadcastAddress, port);
+		channel = DatagramChannel.open();
+		channel.socket().setBroadcast(true);
 	}
 
 	@Override
 	public void displayFrame(final DomeAnimationFrame frame) {
 		if (dmxBuffer == null) {
 			dmxBuffer = mapping.allocateBuffer();
+			packetBuffers = new ByteBuffer[dmxBuffer.length];
+
+			for (int i=0; i<packetBuffers.length; i++) {
+				packetBuffers[i] = allocateArtDmxPacket(i + mapping.getFirstUniverse());
+			}
 		}
 
 		mapping.map(frame.getFacePixelData(), frame.getVertexPixelData(), dmxBuffer);
 
+		// Sequence 0 tells the node not to reorder, so wrap from 255 back to 1
+		sequence = sequence >= 255 ? 1 : sequence + 1;
+
 		try {
 			for (int i=0; i<dmxBuffer.length; i++) {
-				server.sendPacket(ArtNetPacketEncoder.encodeArtDmxPacket(
-					i + mapping.getFirstUniverse(),
-					0,
-					dmxBuffer[i]
-				));
+				sendUniverse(i, packetBuffers[i], dmxBuffer[i]);
 			}
 		} catch (IOException e) {
 			System.err.println("Failed to send frame because of " + e.getClass().getName() + ": " + e.getMessage());
 		}
 	}
 
+	protected void sendUniverse(
+		final int universeIndex,
+		final ByteBuffer packet,
+		final int[] universeData
+	) throws IOException {
+		for (int c=0; c<DMX_CHANNELS; c++) {
+			channelBytes[c] = (byte) universeData[c];
+		}
+
+		if (! changeFilter.shouldSend(universeIndex, channelBytes, 0, DMX_CHANNELS)) {
+			return;
+		}
+
+		packet.put(SEQUENCE_OFFSET, (byte) sequence);
+		packet.position(DATA_OFFSET);
+		packet.put(channelBytes);
+
+		packet.clear();
+		channel.send(packet, targetAddress);
+
+		changeFilter.markSent(universeIndex, channelBytes, 0, DMX_CHANNELS);
+	}
+
+	/**
+	 * Builds a complete ArtDmx packet for the given universe in a direct buffer. Only the sequence number and channel
+	 * data change from frame to frame.
+	 */
+	protected static ByteBuffer allocateArtDmxPacket(final int universe) {
+		ByteBuffer packet = ByteBuffer.allocateDirect(DATA_OFFSET + DMX_CHANNELS);
+
+		packet.put(ART_NET_ID);
+		packet.put((byte) (OP_DMX & 0xFF));            // OpCode (low byte first)
+		packet.put((byte) (OP_DMX >> 8));
+		packet.put((byte) (PROTOCOL_VERSION >> 8));    // Protocol version (high byte first)
+		packet.put((byte) (PROTOCOL_VERSION & 0xFF));
+		packet.put((byte) 0);                          // Sequence
+		packet.put((byte) 0);                          // Physical
+		packet.put((byte) (universe & 0xFF));          // SubUni
+		packet.put((byte) ((universe >> 8) & 0x7F));   // Net
+		packet.put((byte) (DMX_CHANNELS >> 8));        // Length (high byte first)
+		packet.put((byte) (DMX_CHANNELS & 0xFF));
+
+		packet.clear();
+		return packet;
+	}
+
 	//endregion
 
 	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -64,5 +141,9 @@ public class ArtNetDomePlayer implements DomeAnimationTransport {
 	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 	//region// Getters and Setters
 
+	public DmxChangeFilter getChangeFilter() {
+		return changeFilter;
+	}
+
 	//endregion
 }
@@ -0,0 +1,152 @@
+package org.hypher.gradientea.artnet.player;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a DMX universe needs to be transmitted by comparing it against the last copy that was sent. Unchanged
+ * universes are suppressed, except that every universe is re-sent at least once per keep-alive interval so that nodes
+ * don't time out and blank their outputs.
+ *
+ * <p>Callers check a universe with {@link #shouldSend}, and record it with {@link #markSent} only once it has actually
+ * been sent, so a failed send is retried on the next frame rather than suppressed until the keep-alive.</p>
+ *
+ * <p>Universes are identified by an index, which may be either the actual universe number or an offset into an
+ * output's universe range. Storage is kept per universe seen, so sparse or large universe numbers cost nothing extra;
+ * offsets below 128 are also looked up without allocating.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class DmxChangeFilter {
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS = 1000;
+
+	private boolean enabled = true;
+	private long keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_KEEP_ALIVE_MILLIS);
+
+	private final Map<Integer, SentUniverse> sentUniverses = Maps.newHashMap();
+
+	private long sentCount = 0;
+	private long suppressedCount = 0;
+
+	/**
+	 * Checks whether the given universe data should be sent: it differs from what was last sent for that universe, or
+	 * the keep-alive interval has run out. Nothing is recorded; call {@link #markSent} once the data has been sent.
+	 */
+	public boolean shouldSend(
+		final int universe,
+		final byte[] data,
+		final int offset,
+		final int length
+	) {
+		final SentUniverse sent = sentUniverses.get(universe);
+
+		if (enabled
+			&& sent != null
+			&& sent.data != null
+			&& System.nanoTime() - sent.nanos < keepAliveNanos
+			&& rangeEquals(sent.data, sent.length, data, offset, length)
+		) {
+			suppressedCount ++;
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Records the given universe data as the last data successfully sent for that universe.
+	 */
+	public void markSent(
+		final int universe,
+		final byte[] data,
+		final int offset,
+		final int length
+	) {
+		SentUniverse sent = sentUniverses.get(universe);
+		if (sent == null) {
+			sent = new SentUniverse();
+			sentUniverses.put(universe, sent);
+		}
+
+		if (sent.data == null || sent.data.length < length) {
+			sent.data = new byte[length];
+		}
+
+		System.arraycopy(data, offset, sent.data, 0, length);
+		sent.length = length;
+		sent.nanos = System.nanoTime();
+
+		sentCount ++;
+	}
+
+	/**
+	 * Forgets all previously sent data so that the next frame is sent in full.
+	 */
+	public void reset() {
+		for (SentUniverse sent : sentUniverses.values()) {
+			sent.data = null;
+		}
+	}
+
+	private static boolean rangeEquals(
+		final byte[] a,
+		final int aLength,
+		final byte[] b,
+		final int bOffset,
+		final int bLength
+	) {
+		if (aLength != bLength) return false;
+
+		for (int i=0; i<aLength; i++) {
+			if (a[i] != b[bOffset + i]) return false;
+		}
+
+		return true;
+	}
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param enabled If false, every universe is sent on every frame.
+	 */
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public long getKeepAliveMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(keepAliveNanos);
+	}
+
+	/**
+	 * @param keepAliveMillis The longest time an unchanged universe will go without being re-sent.
+	 */
+	public void setKeepAliveMillis(final long keepAliveMillis) {
+		this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveMillis);
+	}
+
+	public long getSentCount() {
+		return sentCount;
+	}
+
+	public long getSuppressedCount() {
+		return suppressedCount;
+	}
+
+	//endregion
+
+	/**
+	 * The last data sent for one universe, and when.
+	 */
+	private static class SentUniverse {
+		byte[] data;
+		int length;
+		long nanos;
+	}
+}
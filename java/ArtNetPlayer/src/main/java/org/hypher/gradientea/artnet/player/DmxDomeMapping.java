@@ -14,6 +14,7 @@ import org.hypher.gradientea.transport.shared.DomeAnimationFrame;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -101,6 +102,21 @@ public class DmxDomeMapping {
 
 	private boolean exponentialScaling = false;
 
+	/**
+	 * Compiled routing tables. Each route is a pair of ints: the index into the source pixel data, followed by the
+	 * target universe index and 0-based channel packed as {@code (universeIndex << 9) | channel}.
+	 */
+	private int[] faceRoutes = new int[0];
+	private int[] vertexRoutes = new int[0];
+
+	/**
+	 * Maps an 8-bit source value to its DMX value, with intensity limits and exponential scaling already applied.
+	 */
+	private int[] intensityTable = new int[256];
+
+	private static final int ROUTE_UNIVERSE_SHIFT = 9;
+	private static final int ROUTE_CHANNEL_MASK = (1 << ROUTE_UNIVERSE_SHIFT) - 1;
+
 	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 	//region// Interface Methods
 
@@ -151,6 +167,8 @@ public class DmxDomeMapping {
 //		for (int i=0; i<vertexCount; i++) {
 //			System.out.println("Vertex " + i + ": " + Objects.firstNonNull(vertexMapping.get(i), "NOT MAPPED"));
 //		}
+
+		compileRoutes();
 	}
 
 	public int[][] allocateBuffer() {
@@ -163,69 +181,121 @@ public class DmxDomeMapping {
 		int[][] dmxData
 	) {
 		for (int[] universeBuffer : dmxData) {
-			for (int i=0; i<universeBuffer.length; i++) {
-				universeBuffer[i] = 0;
-			}
+			Arrays.fill(universeBuffer, 0);
 		}
 
-		for (int dataIndex=0, faceIndex=0; dataIndex<facePixelData.length-2; dataIndex+=3, faceIndex++) {
-			if (faceMapping.containsKey(faceIndex)) {
-				DmxAddress dmxAddress = faceMapping.get(faceIndex);
+		route(facePixelData, faceRoutes, dmxData);
+		route(vertexPixelData, vertexRoutes, dmxData);
 
-				colorOrder.mapFromRgb(
-					facePixelData,
-					dataIndex,
+		return dmxData;
+	}
 
-					dmxData[dmxAddress.universe-firstUniverse],
-					dmxAddress.channel-1, // DMX is 1-based, but java arrays aren't
+	//endregion
 
-					intensityMin,
-					intensityMax,
 
-					exponentialScaling
-				);
-			} else {
-				// Oh well... we don't have a mapping for this pixel.
-			}
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Internal Methods
+
+	/**
+	 * Copies each routed channel of {@code source} into the DMX buffers. Routes are sorted by source index, so the
+	 * first route past the last complete RGB triple ends the loop.
+	 */
+	private void route(
+		final byte[] source,
+		final int[] routes,
+		final int[][] dmxData
+	) {
+		final int[] table = intensityTable;
+		final int sourceLimit = source.length - source.length % 3;
+
+		for (int r=0; r<routes.length; r+=2) {
+			final int sourceIndex = routes[r];
+			if (sourceIndex >= sourceLimit) break;
+
+			final int target = routes[r+1];
+			dmxData[target >>> ROUTE_UNIVERSE_SHIFT][target & ROUTE_CHANNEL_MASK] = table[source[sourceIndex] & 0xFF];
 		}
+	}
 
-		for (int dataIndex=0, vertexIndex=0; dataIndex<vertexPixelData.length; dataIndex+=3, vertexIndex++) {
-			if (vertexMapping.containsKey(vertexIndex)) {
-				for (DmxAddress dmxAddress : vertexMapping.get(vertexIndex)) {
-//				System.out.println(
-//					"Vertex " + vertexIndex + ": rgb(" +
-//						vertexPixelData[dataIndex] + "," +
-//						vertexPixelData[dataIndex+1] + "," +
-//						vertexPixelData[dataIndex+2] + "," +
-//					")"
-//				);
-
-					vertexColorOrder.mapFromRgb(
-						vertexPixelData,
-						dataIndex,
-
-						dmxData[dmxAddress.universe-firstUniverse],
-						dmxAddress.channel-1, // DMX is 1-based, but java arrays aren't
-
-						intensityMin,
-						intensityMax,
-
-						exponentialScaling
-					);
-				}
-			} else {
-				// Oh well... we don't have a mapping for this pixel.
+	/**
+	 * Flattens the face and vertex mappings into routing tables and builds the intensity lookup table, so that
+	 * {@link #map(byte[], byte[], int[][])} doesn't need to do any hashing, boxing or floating point math.
+	 */
+	private void compileRoutes() {
+		intensityTable = new int[256];
+		for (int value=0; value<256; value++) {
+			intensityTable[value] = scaleValue(value, intensityMin, intensityMax, exponentialScaling);
+		}
+
+		int[] routes = new int[faceMapping.size() * 6];
+		int routeCount = 0;
+		for (int faceIndex=0; faceIndex<pixelCount; faceIndex++) {
+			DmxAddress dmxAddress = faceMapping.get(faceIndex);
+			if (dmxAddress != null) {
+				Preconditions.checkState(colorOrder != null, "A face mapping requires " + METADATA_HARDWARE_COLOR_ORDER);
+				routeCount = addRoutes(routes, routeCount, faceIndex * 3, dmxAddress, colorOrder);
+			}
+		}
+		faceRoutes = Arrays.copyOf(routes, routeCount);
+
+		routes = new int[vertexMapping.size() * 6];
+		routeCount = 0;
+		for (int vertexIndex=0; vertexIndex<vertexCount; vertexIndex++) {
+			for (DmxAddress dmxAddress : vertexMapping.get(vertexIndex)) {
+				Preconditions.checkState(vertexColorOrder != null, "A vertex mapping requires " + METADATA_HARDWARE_VERTEX_COLOR_ORDER);
+				routeCount = addRoutes(routes, routeCount, vertexIndex * 3, dmxAddress, vertexColorOrder);
 			}
 		}
+		vertexRoutes = Arrays.copyOf(routes, routeCount);
+	}
 
-		return dmxData;
+	private int addRoutes(
+		final int[] routes,
+		int routeCount,
+		final int dataIndex,
+		final DmxAddress dmxAddress,
+		final ColorChannelOrder order
+	) {
+		final int universeIndex = dmxAddress.universe - firstUniverse;
+		final int channelIndex = dmxAddress.channel - 1; // DMX is 1-based, but java arrays aren't
+
+		routes[routeCount++] = dataIndex;
+		routes[routeCount++] = routeTarget(universeIndex, channelIndex + order.redOffset, dmxAddress);
+
+		routes[routeCount++] = dataIndex + 1;
+		routes[routeCount++] = routeTarget(universeIndex, channelIndex + order.greenOffset, dmxAddress);
+
+		routes[routeCount++] = dataIndex + 2;
+		routes[routeCount++] = routeTarget(universeIndex, channelIndex + order.blueOffset, dmxAddress);
+
+		return routeCount;
 	}
 
-	//endregion
+	/**
+	 * Packs a universe and channel into a route target, making sure the channel can't spill into the next universe.
+	 */
+	private static int routeTarget(final int universeIndex, final int channelIndex, final DmxAddress dmxAddress) {
+		Preconditions.checkState(
+			channelIndex >= 0 && channelIndex <= ROUTE_CHANNEL_MASK,
+			"Color channel " + (channelIndex + 1) + " of " + dmxAddress + " is outside the universe"
+		);
 
+		return (universeIndex << ROUTE_UNIVERSE_SHIFT) | channelIndex;
+	}
 
-	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-	//region// Internal Methods
+	protected static int scaleValue(
+		int value,
+		int intensityMin,
+		int intensityMax,
+		boolean exponential
+	) {
+		if (exponential) {
+			value = (int) DomeMath.exponentialScale(value, 255);
+		}
+
+		value = (int) (intensityMin + (value/255d) * (intensityMax-intensityMin));
+		return value;
+	}
 
 	private void handleMetadata(String key, String value) {
 		if (key.equals(METADATA_SHORT_NAME)) {
@@ -414,34 +484,6 @@ public class DmxDomeMapping {
 			this.redOffset = redOffset;
 			this.blueOffset = blueOffset;
 		}
-
-		public void mapFromRgb(
-			byte[] rgbInput,
-			int rgbIndex,
-			int[] output,
-			int outputIndex,
-			int intensityMin,
-			int intensityMax,
-			boolean exponential
-		) {
-			output[outputIndex+redOffset] = scaleValue(rgbInput[rgbIndex] & 0xFF, intensityMin, intensityMax, exponential);
-			output[outputIndex+greenOffset] = scaleValue(rgbInput[rgbIndex+1] & 0xFF, intensityMin, intensityMax, exponential);
-			output[outputIndex+blueOffset] = scaleValue(rgbInput[rgbIndex+2] & 0xFF, intensityMin, intensityMax, exponential);
-		}
-
-		protected int scaleValue(
-			int value,
-			int intensityMin,
-			int intensityMax,
-			boolean exponential
-		) {
-			if (exponential) {
-				value = (int) DomeMath.exponentialScale(value, 255);
-			}
-
-			value = (int) (intensityMin + (value/255d) * (intensityMax-intensityMin));
-			return value;
-		}
 	}
 
 }
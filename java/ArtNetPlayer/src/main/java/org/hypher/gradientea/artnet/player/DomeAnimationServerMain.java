@@ -1,6 +1,7 @@
 package org.hypher.gradientea.artnet.player;
 
 import fr.azelart.artnetstack.constants.Constants;
+import org.hypher.gradientea.transport.shared.DomeAnimationFramePool;
 
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -16,7 +17,15 @@ public class DomeAnimationServerMain {
 	 */
 	public static final short DOME_PORT = 2314;
 
+	/**
+	 * System property which, when true, turns on {@link DomeAnimationFramePool#setDebugEnabled(boolean) detection} of
+	 * frames used after they are released.
+	 */
+	public static final String FRAME_POOL_DEBUG_PROPERTY = "gradientea.framePoolDebug";
+
 	public static void main(String[] args) throws IOException {
+		DomeAnimationFramePool.setDebugEnabled(Boolean.getBoolean(FRAME_POOL_DEBUG_PROPERTY));
+
 		for (int i=0; i<args.length; i+=2) {
 			String domeMappingFilename = args[i + 1];
 
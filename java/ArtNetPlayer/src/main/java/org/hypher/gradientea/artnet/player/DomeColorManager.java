@@ -99,9 +99,18 @@ public class DomeColorManager {
 		private DomePaletteSpec spec;
 		private Color[] colors;
 
+		/**
+		 * The packed RGB value of {@link #getColor(float)} for each of the 256 levels {@code i/255f}.
+		 */
+		private final int[] rgbLookupTable = new int[256];
+
 		public DomePalette(final DomePaletteSpec spec, final Color[] colors) {
 			this.spec = spec;
 			this.colors = colors;
+
+			for (int i=0; i<rgbLookupTable.length; i++) {
+				rgbLookupTable[i] = getColor(i / 255f).getRGB() & 0xFFFFFF;
+			}
 		}
 
 		public DomePaletteSpec getSpec() {
@@ -115,6 +124,13 @@ public class DomeColorManager {
 		public Color getColor(float i) {
 			return colors[Math.min(colors.length-1, (int)((i%1f) * colors.length))];
 		}
+
+		/**
+		 * @return The packed RGB value of the color for a level from 0 to 255, the same as {@code getColor(level/255f)}.
+		 */
+		public int getRgb(final int level) {
+			return rgbLookupTable[level];
+		}
 	}
 
 	public static class DomePaletteSpec {
@@ -0,0 +1,108 @@
+package org.hypher.gradientea.artnet.player;
+
+import org.hypher.gradientea.transport.shared.DomeAnimationFrame;
+import org.hypher.gradientea.transport.shared.DomeAnimationFramePool;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free queue of face-only frames for exactly one producer thread and one consumer thread. Slots are
+ * recycled, so once a frame has been written its arrays are reused for every later frame of the same length.
+ *
+ * <p>The producer calls {@link #claim(int)}, fills in the returned array and then calls {@link #publish()}. The
+ * consumer calls {@link #peek()}, uses the frame and then calls {@link #release()}, after which the slot may be
+ * overwritten. A consumer that needs a frame for longer {@link DomeAnimationFrame#retain() retains} it, and the
+ * slot then moves on to a fresh frame from the pool rather than overwriting it.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class DomeFrameRingBuffer {
+	private final DomeAnimationFrame[] slots;
+	private final DomeAnimationFramePool framePool;
+
+	/** The index of the next frame to be consumed. Only written by the consumer. */
+	private final AtomicLong head = new AtomicLong();
+
+	/** The index of the next frame to be produced. Only written by the producer. */
+	private final AtomicLong tail = new AtomicLong();
+
+	public DomeFrameRingBuffer(final int capacity) {
+		this.slots = new DomeAnimationFrame[capacity];
+		this.framePool = new DomeAnimationFramePool(capacity);
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Producer Methods
+
+	/**
+	 * Claims the next free slot for a frame with the given amount of face data.
+	 *
+	 * @return The face data array to fill in, or null if the buffer is full.
+	 */
+	public byte[] claim(final int faceLength) {
+		final long index = tail.get();
+		if (index - head.get() >= slots.length) {
+			return null;
+		}
+
+		final int slot = (int) (index % slots.length);
+		final DomeAnimationFrame frame = slots[slot];
+		if (frame == null || frame.getReferenceCount() > 1 || frame.getFacePixelData().length != faceLength) {
+			if (frame != null) frame.release();
+			slots[slot] = framePool.acquire(faceLength, 0);
+		}
+
+		return slots[slot].getFacePixelData();
+	}
+
+	/**
+	 * Makes the most recently claimed frame available to the consumer.
+	 */
+	public void publish() {
+		tail.lazySet(tail.get() + 1);
+	}
+
+	//endregion
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Consumer Methods
+
+	/**
+	 * @return The oldest published frame, or null if the buffer is empty.
+	 */
+	public DomeAnimationFrame peek() {
+		final long index = head.get();
+		if (index == tail.get()) {
+			return null;
+		}
+
+		return slots[(int) (index % slots.length)];
+	}
+
+	/**
+	 * Returns the frame from the last {@link #peek()} to the producer.
+	 */
+	public void release() {
+		head.lazySet(head.get() + 1);
+	}
+
+	//endregion
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	/**
+	 * @return The number of published frames waiting to be consumed. May be slightly stale when called from a thread
+	 * other than the producer or consumer.
+	 */
+	public int size() {
+		final long consumed = head.get();
+		return (int) (tail.get() - consumed);
+	}
+
+	public int capacity() {
+		return slots.length;
+	}
+
+	//endregion
+}
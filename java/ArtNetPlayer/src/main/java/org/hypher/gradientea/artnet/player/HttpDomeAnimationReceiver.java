@@ -1,6 +1,5 @@
 package org.hypher.gradientea.artnet.player;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -11,16 +10,19 @@ import org.hypher.gradientea.geometry.shared.GeodesicDomeSpec;
 import org.hypher.gradientea.transport.shared.DomeAnimationFrame;
 import org.hypher.gradientea.transport.shared.DomeAnimationTransport;
 
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.InetSocketAddress;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * A simple HTTP server which can receive animation frames from POST requests and play them back on the dome
@@ -30,30 +32,58 @@ import java.util.regex.Pattern;
  * The server expects a POST of plain text where each line represents a frame. Each color value should be hex encoded
  * and zero-padded. No spacing or other characters are supported. The number of values must be divisible by three.
  *
+ * <h3>Binary Format</h3>
+ * If the request has a {@code Content-Type} of {@value #BINARY_CONTENT_TYPE}, the body is instead a sequence of raw
+ * frames, each preceded by its length in bytes as a 16-bit big-endian unsigned integer. The body may be compressed
+ * with a {@code Content-Encoding} of {@code gzip} or {@code deflate}. Binary frames are read straight into the frame
+ * buffer, which makes this the better choice for uploading long pre-rendered shows.
+ *
  * <h3>Frame Rate</h3>
- * The frame rate of the data may be specified with a the GET parameter {@code fps}. The default is 30 fps. This frame
- * rate is stored globally and will affect all frames currently in the buffer.
+ * The frame rate of the data may be specified with a the GET parameter {@code fps}, which may be fractional. The
+ * default is 30 fps. This frame rate is stored globally and will affect all frames currently in the buffer. Frames are
+ * played against absolute nanosecond deadlines, so the cadence doesn't drift with the time spent displaying each frame.
  *
  * <h3>Response &amp; Buffering</h3>
  * The response of the call will be the estimated number of milliseconds until the current animation buffer is empty.
- * If the animation buffer is already empty, the return value will be negative and indicate when the last frame was
- * played. Clients should attempt to keep data in the buffer but not overflow the maximum of {@value #BUFFER_SIZE}
- * buffered frames.
+ * The {@code X-Buffer-Depth}, {@code X-Buffer-Capacity} and {@code X-Buffer-Underruns} response headers report the
+ * number of buffered frames, the maximum of {@value #BUFFER_SIZE}, and how many times playback has run out of frames.
+ * Clients should attempt to keep data in the buffer but not overflow it. If a request contains more frames than there
+ * is room for, the frames that fit are kept, the rest are dropped, and the response is a 429 with a
+ * {@code Retry-After} header giving the number of seconds until there will be room for them and an
+ * {@code X-Frames-Accepted} header giving the number of frames that were kept.
  *
  * @author Yona Appletree (yona@concentricsky.com)
  */
 public class HttpDomeAnimationReceiver {
 
 	public final static int BUFFER_SIZE = 1000;
+	public final static String BINARY_CONTENT_TYPE = "application/octet-stream";
+
+	private static final byte[] HEX_VALUES = new byte[128];
+	static {
+		Arrays.fill(HEX_VALUES, (byte) -1);
+		for (int i=0; i<10; i++) HEX_VALUES['0' + i] = (byte) i;
+		for (int i=0; i<6; i++) {
+			HEX_VALUES['a' + i] = (byte) (10 + i);
+			HEX_VALUES['A' + i] = (byte) (10 + i);
+		}
+	}
 
-	private int fps = 30;
-	private List<byte[]> buffer = Collections.<byte[]>synchronizedList(Lists.<byte[]>newLinkedList());
-	private long lastFramePlayed = System.currentTimeMillis();
+	private volatile double fps = 30;
+	private final DomeFrameRingBuffer buffer = new DomeFrameRingBuffer(BUFFER_SIZE);
+	private final Object producerLock = new Object();
 	private HttpServer server;
 
 	private DomeAnimationTransport animationTransport;
 	private Thread playerThread;
-	private volatile long lastFrameDisplayed;
+
+	private volatile long underrunCount = 0;
+
+	// Upload state, only used while holding producerLock
+	private final byte[] readBuffer = new byte[8192];
+	private byte[] lineBuffer = new byte[1024];
+	private int uploadAccepted;
+	private int uploadRejected;
 
 
 	public HttpDomeAnimationReceiver(final DomeAnimationTransport animationTransport) {
@@ -79,25 +109,7 @@ public class HttpDomeAnimationReceiver {
 		playerThread = new Thread(new Runnable() {
 			@Override
 			public void run() {
-				while (server != null) {
-					lastFrameDisplayed = System.currentTimeMillis();
-
-					// Send a frame
-					synchronized (buffer) {
-						if (! buffer.isEmpty()) {
-							animationTransport.displayFrame(new DomeAnimationFrame(
-								buffer.remove(0)
-							));
-						}
-					}
-
-					// Wait for the next frame
-					try {
-						Thread.sleep(Math.max(0,
-							1000/fps - (System.currentTimeMillis() - lastFrameDisplayed)
-						));
-					} catch (InterruptedException e) {}
-				}
+				playFrames();
 			}
 		});
 		playerThread.setDaemon(true);
@@ -120,23 +132,54 @@ public class HttpDomeAnimationReceiver {
 		public void handle(final HttpExchange exchange) throws IOException {
 			try {
 				if (exchange.getRequestURI().getQuery() != null) {
-					Matcher fpsMatcher = Pattern.compile("fps=(\\d+)").matcher(exchange.getRequestURI().getQuery());
+					Matcher fpsMatcher = Pattern.compile("fps=(\\d+(?:\\.\\d+)?)").matcher(exchange.getRequestURI().getQuery());
 
 					if (fpsMatcher.find()) {
-						fps = Integer.parseInt(fpsMatcher.group(1));
+						final double requestedFps = Double.parseDouble(fpsMatcher.group(1));
+						if (requestedFps > 0) {
+							fps = requestedFps;
+						}
 					}
 				}
 
-				BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody()));
+				final int accepted;
+				final int rejected;
+
+				// The ring buffer only supports a single producer, which the default executor guarantees, but the lock
+				// keeps it safe if a multi-threaded executor is ever configured
+				synchronized (producerLock) {
+					uploadAccepted = 0;
+					uploadRejected = 0;
+
+					final InputStream body = decodedBody(exchange);
+					final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
 
-				for (String line; (line= reader.readLine()) != null;) {
-					buffer.add(parseFrame(line));
+					if (contentType != null && contentType.startsWith(BINARY_CONTENT_TYPE)) {
+						readBinaryFrames(body);
+					} else {
+						readHexFrames(body);
+					}
+
+					accepted = uploadAccepted;
+					rejected = uploadRejected;
 				}
 
-				byte[] response = String.valueOf((int) (buffer.size() * (1000.0 / fps))).getBytes();
+				final int depth = buffer.size();
+				byte[] response = String.valueOf((int) (depth * (1000.0 / fps))).getBytes();
 
 				exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-				exchange.sendResponseHeaders(200, response.length);
+				exchange.getResponseHeaders().add("X-Buffer-Depth", String.valueOf(depth));
+				exchange.getResponseHeaders().add("X-Buffer-Capacity", String.valueOf(buffer.capacity()));
+				exchange.getResponseHeaders().add("X-Buffer-Underruns", String.valueOf(underrunCount));
+
+				if (rejected > 0) {
+					exchange.getResponseHeaders().add("Retry-After", String.valueOf((int) Math.ceil(rejected / fps)));
+					exchange.getResponseHeaders().add("X-Frames-Accepted", String.valueOf(accepted));
+					exchange.sendResponseHeaders(429, response.length);
+				} else {
+					exchange.sendResponseHeaders(200, response.length);
+				}
+
 				exchange.getResponseBody().write(response);
 				exchange.getResponseBody().close();
 			} catch (Exception e) {
@@ -181,14 +224,158 @@ public class HttpDomeAnimationReceiver {
 		}
 	};
 
-	private byte[] parseFrame(final String line) {
-		byte[] data = new byte[line.length()/2];
+	/**
+	 * Plays buffered frames at the current frame rate. Each frame is due a fixed period after the previous deadline
+	 * rather than after the previous frame finished, so time spent displaying doesn't accumulate as drift. If the
+	 * player falls more than a frame behind, the schedule is reset instead of bursting to catch up.
+	 */
+	private void playFrames() {
+		long deadline = System.nanoTime();
+		boolean playing = false;
+
+		while (server != null) {
+			final DomeAnimationFrame frame = buffer.peek();
+
+			if (frame != null) {
+				animationTransport.displayFrame(frame);
+				buffer.release();
+				playing = true;
+			} else if (playing) {
+				underrunCount ++;
+				playing = false;
+			}
+
+			// Wait for the next frame
+			final long periodNanos = (long) (1e9 / fps);
+			deadline += periodNanos;
+
+			long remaining = deadline - System.nanoTime();
+			if (remaining < -periodNanos) {
+				deadline = System.nanoTime();
+				continue;
+			}
 
-		for (int i=0; i<data.length; i++) {
-			data[i] = (byte) Integer.parseInt(line.substring(i*2,i*2+2), 16);
+			while (remaining > 0) {
+				LockSupport.parkNanos(remaining);
+				remaining = deadline - System.nanoTime();
+			}
 		}
+	}
 
-		return data;
+	private static InputStream decodedBody(final HttpExchange exchange) throws IOException {
+		final String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+
+		if (encoding == null || encoding.equalsIgnoreCase("identity")) {
+			return exchange.getRequestBody();
+		} else if (encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")) {
+			return new GZIPInputStream(exchange.getRequestBody());
+		} else if (encoding.equalsIgnoreCase("deflate")) {
+			return new InflaterInputStream(exchange.getRequestBody());
+		} else {
+			throw new IOException("Unsupported Content-Encoding: " + encoding);
+		}
+	}
+
+	/**
+	 * Reads length-prefixed binary frames directly into the frame buffer. Frames that don't fit are read and dropped.
+	 */
+	private void readBinaryFrames(final InputStream in) throws IOException {
+		while (true) {
+			final int high = in.read();
+			if (high < 0) break;
+
+			final int low = in.read();
+			if (low < 0) throw new EOFException("Truncated frame length");
+
+			final int length = high<<8 | low;
+			final byte[] frameData = uploadRejected == 0 ? buffer.claim(length) : null;
+
+			if (frameData == null) {
+				for (int remaining = length; remaining > 0; ) {
+					remaining -= readFully(in, readBuffer, Math.min(remaining, readBuffer.length));
+				}
+				uploadRejected ++;
+			} else {
+				readFully(in, frameData, length);
+				buffer.publish();
+				uploadAccepted ++;
+			}
+		}
+	}
+
+	private static int readFully(final InputStream in, final byte[] data, final int length) throws IOException {
+		for (int offset = 0; offset < length; ) {
+			final int count = in.read(data, offset, length - offset);
+			if (count < 0) throw new EOFException("Truncated frame");
+			offset += count;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Decodes hex text frames, one per line, without creating any strings. A trailing odd digit on a line is ignored.
+	 */
+	private void readHexFrames(final InputStream in) throws IOException {
+		int length = 0;
+		int highNibble = -1;
+		boolean lineStarted = false;
+		boolean skipLineFeed = false;
+
+		for (int count; (count = in.read(readBuffer)) > 0; ) {
+			for (int i=0; i<count; i++) {
+				final int c = readBuffer[i];
+
+				if (c == '\n' || c == '\r') {
+					if (c == '\n' && skipLineFeed) {
+						skipLineFeed = false;
+						continue;
+					}
+
+					offerFrame(lineBuffer, length);
+					length = 0;
+					highNibble = -1;
+					lineStarted = false;
+					skipLineFeed = c == '\r';
+					continue;
+				}
+
+				skipLineFeed = false;
+				lineStarted = true;
+
+				final int nibble = c >= 0 ? HEX_VALUES[c] : -1;
+				if (nibble < 0) {
+					throw new IOException("Invalid hex character '" + (char) (c & 0xFF) + "'");
+				}
+
+				if (highNibble < 0) {
+					highNibble = nibble;
+				} else {
+					if (length == lineBuffer.length) {
+						lineBuffer = Arrays.copyOf(lineBuffer, lineBuffer.length * 2);
+					}
+
+					lineBuffer[length++] = (byte) (highNibble<<4 | nibble);
+					highNibble = -1;
+				}
+			}
+		}
+
+		if (lineStarted) {
+			offerFrame(lineBuffer, length);
+		}
+	}
+
+	private void offerFrame(final byte[] data, final int length) {
+		final byte[] frameData = uploadRejected == 0 ? buffer.claim(length) : null;
+
+		if (frameData == null) {
+			uploadRejected ++;
+		} else {
+			System.arraycopy(data, 0, frameData, 0, length);
+			buffer.publish();
+			uploadAccepted ++;
+		}
 	}
 
 	//endregion
@@ -196,5 +383,20 @@ public class HttpDomeAnimationReceiver {
 	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 	//region// Getters and Setters
 
+	public double getFps() {
+		return fps;
+	}
+
+	public int getBufferDepth() {
+		return buffer.size();
+	}
+
+	/**
+	 * @return The number of times playback has run out of buffered frames.
+	 */
+	public long getUnderrunCount() {
+		return underrunCount;
+	}
+
 	//endregion
 }
@@ -1,107 +1,125 @@
 package org.hypher.gradientea.artnet.player;
 
 import org.hypher.gradientea.transport.shared.DomeAnimationFrame;
+import org.hypher.gradientea.transport.shared.DomeAnimationFramePool;
 import org.hypher.gradientea.transport.shared.DomeAnimationTransport;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
 
 /**
- * A simple animation receiver which accepts simple UDP packets and treats them as dome data.
+ * A simple animation receiver which accepts simple UDP packets and treats them as dome data. Two wire formats are
+ * accepted; all multi-byte values are unsigned and big-endian.
  *
- * Each packet is expected to start with the magic DWORD 'dome', followed by the length of the frame as a 16-bit
- * unsigned integer.
+ * <p><b>Version 1</b>: Each frame starts with a packet beginning with the magic DWORD 'DOME', followed by the dome
+ * identifier as a single byte and the lengths of the face and vertex data as 16-bit integers. Any data that doesn't
+ * fit in the first packet follows in subsequent packets without a header, so a single lost packet corrupts the frame.
+ * </p>
+ *
+ * <p><b>Version 2</b>: Each frame is split into fragments which are sent in their own packets, each with a
+ * {@value #V2_HEADER_LENGTH} byte header:</p>
+ * <pre>
+ *   0  'DOM2'
+ *   4  dome identifier (8 bits)
+ *   5  flags, currently zero (8 bits)
+ *   6  frame sequence number (32 bits, wrapping)
+ *  10  fragment index (16 bits)
+ *  12  fragment count (16 bits)
+ *  14  face data length (16 bits)
+ *  16  vertex data length (16 bits)
+ *  18  offset of this fragment's payload in the face data followed by the vertex data (32 bits)
+ * </pre>
+ * <p>Fragments may arrive in any order. Frames are reassembled in a few slots and delivered in sequence order; once a
+ * frame has been delivered, any older frame still being assembled is abandoned and fragments for it are counted as
+ * late. Senders start from a random sequence number, and a sequence number that goes backwards by a long way, or at
+ * all after {@value #RESTART_IDLE_MILLIS}ms without a delivered frame, is taken to mean the sender restarted.</p>
+ *
+ * <p>Packets are received into a single reused buffer and copied straight into the face and vertex arrays of frames
+ * from a {@link DomeAnimationFramePool}, so steady-state reception doesn't allocate. Each frame is released back to
+ * the pool once {@link DomeAnimationTransport#displayFrame(DomeAnimationFrame)} returns, so a transport that keeps a
+ * frame must {@link DomeAnimationFrame#retain() retain} it. Malformed packets are counted and dropped rather than
+ * thrown.</p>
  *
  * @author Yona Appletree (yona@concentricsky.com)
  */
 public class UdpDomeAnimationReceiver {
+	public static final int DEFAULT_FRAME_POOL_SIZE = 4;
+
+	public static final int V1_HEADER_LENGTH = 9;
+	public static final int V2_HEADER_LENGTH = 22;
+
+	/**
+	 * A sequence number this far behind the last delivered frame is taken to mean the sender has restarted, rather than
+	 * that the packet is late.
+	 */
+	private static final int SEQUENCE_RESTART_THRESHOLD = 1024;
+
+	/**
+	 * After this long without delivering a frame, a sequence number that isn't newer than the last delivered one is
+	 * taken to mean the sender has restarted, however close it is.
+	 */
+	public static final int RESTART_IDLE_MILLIS = 1000;
+
+	private static final int ASSEMBLY_SLOTS = 3;
+	private static final int MAX_DATAGRAM_LENGTH = 65536;
+	private static final DomeIdentifier[] DOME_IDENTIFIERS = DomeIdentifier.values();
 
 	private DomeAnimationTransport animationTransport;
-	private DatagramSocket socket;
+	private DatagramChannel channel;
 	private Thread receiveThread;
 
+	private int framePoolSize = DEFAULT_FRAME_POOL_SIZE;
+
+	private DomeAnimationFramePool framePool;
+
+	private DomeAnimationFrame v1Frame;
+	private int v1ReceivedLength;
+
+	private FrameAssembly[] assemblies;
+	private boolean hasDeliveredSequence;
+	private int lastDeliveredSequence;
+	private long lastDeliveredNanos;
+
+	private volatile long receivedFrameCount = 0;
+	private volatile long abandonedFrameCount = 0;
+	private volatile long malformedPacketCount = 0;
+	private volatile long lostFragmentCount = 0;
+	private volatile long lateFragmentCount = 0;
+	private volatile long duplicateFragmentCount = 0;
+	private volatile DomeIdentifier lastDomeIdentifier = DomeIdentifier.Unknown;
+
 	public UdpDomeAnimationReceiver(final DomeAnimationTransport animationTransport) {
 		this.animationTransport = animationTransport;
 	}
 
-	public void start() throws SocketException {
+	public void start() throws IOException {
 		start(DomeAnimationServerMain.DOME_PORT);
 	}
 
-	public void start(int port) throws SocketException {
+	public void start(int port) throws IOException {
 		stop();
 
-		socket = new DatagramSocket(port);
+		final DatagramChannel channel = DatagramChannel.open();
+		channel.socket().bind(new InetSocketAddress(port));
+
+		framePool = new DomeAnimationFramePool(framePoolSize + ASSEMBLY_SLOTS);
+
+		v1Frame = null;
+
+		assemblies = new FrameAssembly[ASSEMBLY_SLOTS];
+		for (int i=0; i<assemblies.length; i++) {
+			assemblies[i] = new FrameAssembly();
+		}
+		hasDeliveredSequence = false;
+
+		this.channel = channel;
 		receiveThread = new Thread(new Runnable() {
 			@Override
 			public void run() {
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-				byte[] packetBuffer = new byte[4096];
-				DatagramPacket packet = new DatagramPacket(packetBuffer, 0, packetBuffer.length);
-
-				Integer expectedDataLength = null;
-
-				int expectedFaceLength=0, expectedVertexLength=0;
-
-				int currentLength = 0;
-				DomeIdentifier domeIdentifier = DomeIdentifier.Unknown;
-
-				while (socket != null) {
-					try {
-						socket.receive(packet);
-
-						if (expectedDataLength == null) {
-							// new frame
-							if (packet.getLength() >= 8) {
-								if (packetBuffer[0] == 'D'
-									&& packetBuffer[1] == 'O'
-									&& packetBuffer[2] == 'M'
-									&& packetBuffer[3] == 'E'
-								) {
-									domeIdentifier = DomeIdentifier.values()[packetBuffer[4]];
-
-									expectedFaceLength = (packetBuffer[5]&0xFF)<<8 | packetBuffer[6]&0xFF;
-									expectedVertexLength = (packetBuffer[7]&0xFF)<<8 | packetBuffer[8]&0xFF;
-									expectedDataLength = expectedFaceLength + expectedVertexLength;
-
-									baos.write(packet.getData(), 9, packet.getLength()-9);
-									currentLength += packet.getLength()-9;
-								} else {
-									throw new IOException("Initial packet did not start with 'DOME'");
-								}
-							} else {
-								throw new IOException("Initial packet was less than 7 bytes long; could not read magic or length");
-							}
-						} else {
-							baos.write(packet.getData(), 0, packet.getLength());
-							currentLength += packet.getLength();
-						}
-
-						if (expectedDataLength != null && currentLength >= expectedDataLength) {
-							final byte[] allData = baos.toByteArray();
-							final byte[] faceData = new byte[expectedFaceLength];
-							final byte[] vertexData = new byte[expectedVertexLength];
-
-							System.arraycopy(allData, 0, faceData, 0, expectedFaceLength);
-							System.arraycopy(allData, expectedFaceLength, vertexData, 0, expectedVertexLength);
-
-							animationTransport.displayFrame(new DomeAnimationFrame(
-								faceData,
-								vertexData
-							));
-
-							baos.reset();
-							currentLength = 0;
-							expectedDataLength = null;
-						}
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				}
+				receiveLoop(channel);
 			}
 		});
 
@@ -111,14 +129,312 @@ public class UdpDomeAnimationReceiver {
 		System.out.println("Started UDP Dome Animation server on port " + port);
 	}
 
-	private void stop() {
-		if (socket != null) {
-			socket.close();
-			socket = null;
+	public void stop() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			channel = null;
 			receiveThread = null;
 		}
 	}
 
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	private void receiveLoop(final DatagramChannel channel) {
+		final ByteBuffer packetBuffer = ByteBuffer.allocate(MAX_DATAGRAM_LENGTH);
+		final byte[] packetData = packetBuffer.array();
+
+		while (channel.isOpen()) {
+			try {
+				packetBuffer.clear();
+				channel.receive(packetBuffer);
+			} catch (ClosedChannelException e) {
+				break;
+			} catch (IOException e) {
+				e.printStackTrace();
+				continue;
+			}
+
+			final int packetLength = packetBuffer.position();
+
+			if (v1Frame != null) {
+				// Version 1 continuation packets have no header, so anything received mid-frame is frame data
+				receiveV1Data(packetData, 0, packetLength);
+			} else if (hasMagic(packetData, packetLength, '2')) {
+				receiveV2Fragment(packetData, packetLength);
+			} else if (hasMagic(packetData, packetLength, 'E')) {
+				receiveV1Header(packetData, packetLength);
+			} else {
+				malformedPacketCount ++;
+			}
+		}
+	}
+
+	private void receiveV1Header(final byte[] packetData, final int packetLength) {
+		if (packetLength < V1_HEADER_LENGTH || (packetData[4]&0xFF) >= DOME_IDENTIFIERS.length) {
+			malformedPacketCount ++;
+			return;
+		}
+
+		lastDomeIdentifier = DOME_IDENTIFIERS[packetData[4]&0xFF];
+
+		v1Frame = framePool.acquire(readShort(packetData, 5), readShort(packetData, 7));
+		v1ReceivedLength = 0;
+
+		receiveV1Data(packetData, V1_HEADER_LENGTH, packetLength - V1_HEADER_LENGTH);
+	}
+
+	private void receiveV1Data(final byte[] packetData, final int offset, final int length) {
+		final int frameLength = v1Frame.getFacePixelData().length + v1Frame.getVertexPixelData().length;
+		final int count = Math.min(length, frameLength - v1ReceivedLength);
+
+		copyPayload(packetData, offset, count, v1Frame, v1ReceivedLength);
+		v1ReceivedLength += count;
+
+		if (v1ReceivedLength >= frameLength) {
+			final DomeAnimationFrame frame = v1Frame;
+			v1Frame = null;
+
+			deliver(frame);
+		}
+	}
+
+	private void receiveV2Fragment(final byte[] packetData, final int packetLength) {
+		if (packetLength < V2_HEADER_LENGTH || (packetData[4]&0xFF) >= DOME_IDENTIFIERS.length) {
+			malformedPacketCount ++;
+			return;
+		}
+
+		final int sequence = readInt(packetData, 6);
+		final int fragmentIndex = readShort(packetData, 10);
+		final int fragmentCount = readShort(packetData, 12);
+		final int faceLength = readShort(packetData, 14);
+		final int vertexLength = readShort(packetData, 16);
+		final int payloadOffset = readInt(packetData, 18);
+		final int payloadLength = packetLength - V2_HEADER_LENGTH;
+
+		if (fragmentIndex >= fragmentCount
+			|| payloadOffset < 0
+			|| payloadOffset > faceLength + vertexLength - payloadLength
+		) {
+			malformedPacketCount ++;
+			return;
+		}
+
+		if (hasDeliveredSequence) {
+			final int age = lastDeliveredSequence - sequence;
+			final boolean idle = System.nanoTime() - lastDeliveredNanos > RESTART_IDLE_MILLIS * 1000000L;
+
+			if (age >= SEQUENCE_RESTART_THRESHOLD || (age >= 0 && idle)) {
+				// The sender restarted its sequence, so forget everything in progress
+				for (FrameAssembly assembly : assemblies) {
+					if (assembly.active) abandon(assembly);
+				}
+				hasDeliveredSequence = false;
+			} else if (age == 0) {
+				duplicateFragmentCount ++;
+				return;
+			} else if (age > 0) {
+				lateFragmentCount ++;
+				return;
+			}
+		}
+
+		lastDomeIdentifier = DOME_IDENTIFIERS[packetData[4]&0xFF];
+
+		final FrameAssembly assembly = findAssembly(sequence, fragmentCount, faceLength, vertexLength);
+		if (assembly == null) {
+			lateFragmentCount ++;
+			return;
+		}
+
+		if (assembly.fragmentReceived[fragmentIndex]) {
+			duplicateFragmentCount ++;
+			return;
+		}
+
+		assembly.fragmentReceived[fragmentIndex] = true;
+		assembly.receivedFragments ++;
+		copyPayload(packetData, V2_HEADER_LENGTH, payloadLength, assembly.frame, payloadOffset);
+
+		if (assembly.receivedFragments == assembly.fragmentCount) {
+			final DomeAnimationFrame frame = assembly.frame;
+			assembly.clear();
+
+			lastDeliveredSequence = sequence;
+			lastDeliveredNanos = System.nanoTime();
+			hasDeliveredSequence = true;
+
+			// Frames are delivered in order, so anything older that is still incomplete will never be shown
+			abandonAssemblies(sequence);
+
+			deliver(frame);
+		}
+	}
+
+	/**
+	 * Finds the assembly slot for the given frame, starting a new one if needed. If all slots are busy, the oldest frame
+	 * is abandoned to make room, unless the new frame is older than all of them, in which case null is returned.
+	 */
+	private FrameAssembly findAssembly(
+		final int sequence,
+		final int fragmentCount,
+		final int faceLength,
+		final int vertexLength
+	) {
+		FrameAssembly free = null;
+		FrameAssembly oldest = null;
+
+		for (FrameAssembly assembly : assemblies) {
+			if (! assembly.active) {
+				free = assembly;
+			} else if (assembly.sequence == sequence) {
+				if (assembly.fragmentCount != fragmentCount
+					|| assembly.frame.getFacePixelData().length != faceLength
+					|| assembly.frame.getVertexPixelData().length != vertexLength
+				) {
+					// The sender changed the frame layout mid-frame; start over with the new one
+					abandon(assembly);
+					free = assembly;
+					break;
+				}
+				return assembly;
+			} else if (oldest == null || assembly.sequence - oldest.sequence < 0) {
+				oldest = assembly;
+			}
+		}
+
+		if (free == null) {
+			if (sequence - oldest.sequence < 0) {
+				return null;
+			}
+
+			abandon(oldest);
+			free = oldest;
+		}
+
+		free.begin(sequence, fragmentCount, framePool.acquire(faceLength, vertexLength));
+		return free;
+	}
+
+	/**
+	 * Abandons every frame being assembled that is older than the given sequence number.
+	 */
+	private void abandonAssemblies(final int sequence) {
+		for (FrameAssembly assembly : assemblies) {
+			if (assembly.active && assembly.sequence - sequence < 0) {
+				abandon(assembly);
+			}
+		}
+	}
+
+	private void abandon(final FrameAssembly assembly) {
+		lostFragmentCount += assembly.fragmentCount - assembly.receivedFragments;
+		abandonedFrameCount ++;
+		assembly.frame.release();
+		assembly.clear();
+	}
+
+	private void deliver(final DomeAnimationFrame frame) {
+		receivedFrameCount ++;
+
+		try {
+			animationTransport.displayFrame(frame);
+		} finally {
+			frame.release();
+		}
+	}
+
+	private static boolean hasMagic(final byte[] data, final int length, final char versionByte) {
+		return length >= 4
+			&& data[0] == 'D'
+			&& data[1] == 'O'
+			&& data[2] == 'M'
+			&& data[3] == versionByte;
+	}
+
+	private static int readShort(final byte[] data, final int offset) {
+		return (data[offset]&0xFF)<<8 | data[offset+1]&0xFF;
+	}
+
+	private static int readInt(final byte[] data, final int offset) {
+		return (data[offset]&0xFF)<<24
+			| (data[offset+1]&0xFF)<<16
+			| (data[offset+2]&0xFF)<<8
+			| data[offset+3]&0xFF;
+	}
+
+	/**
+	 * Copies a payload into the frame at the given position, where positions run through the face data and then the
+	 * vertex data. The caller is responsible for making sure the payload fits.
+	 */
+	private static void copyPayload(
+		final byte[] source,
+		final int sourceOffset,
+		final int length,
+		final DomeAnimationFrame frame,
+		final int framePosition
+	) {
+		final byte[] faceData = frame.getFacePixelData();
+		final byte[] vertexData = frame.getVertexPixelData();
+
+		int position = framePosition;
+		int offset = sourceOffset;
+		int remaining = length;
+
+		if (position < faceData.length) {
+			final int count = Math.min(remaining, faceData.length - position);
+			System.arraycopy(source, offset, faceData, position, count);
+			position += count;
+			offset += count;
+			remaining -= count;
+		}
+
+		if (remaining > 0) {
+			System.arraycopy(source, offset, vertexData, position - faceData.length, remaining);
+		}
+	}
+
+	/**
+	 * A slot in which a single version 2 frame is reassembled from its fragments.
+	 */
+	private static class FrameAssembly {
+		boolean active;
+		int sequence;
+		int fragmentCount;
+		int receivedFragments;
+		boolean[] fragmentReceived = new boolean[0];
+		DomeAnimationFrame frame;
+
+		void begin(final int sequence, final int fragmentCount, final DomeAnimationFrame frame) {
+			this.active = true;
+			this.sequence = sequence;
+			this.fragmentCount = fragmentCount;
+			this.receivedFragments = 0;
+			this.frame = frame;
+
+			if (fragmentReceived.length < fragmentCount) {
+				fragmentReceived = new boolean[fragmentCount];
+			} else {
+				for (int i=0; i<fragmentCount; i++) {
+					fragmentReceived[i] = false;
+				}
+			}
+		}
+
+		void clear() {
+			active = false;
+			frame = null;
+		}
+	}
+
+	//endregion
+
 	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 	//region// Generated Methods
 
@@ -127,5 +443,54 @@ public class UdpDomeAnimationReceiver {
 	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 	//region// Getters and Setters
 
+	public int getFramePoolSize() {
+		return framePoolSize;
+	}
+
+	/**
+	 * Sets the number of released frames, beyond those being assembled, that the receiver keeps for reuse. Takes
+	 * effect the next time the receiver is started.
+	 */
+	public void setFramePoolSize(final int framePoolSize) {
+		this.framePoolSize = Math.max(1, framePoolSize);
+	}
+
+	public long getReceivedFrameCount() {
+		return receivedFrameCount;
+	}
+
+	/**
+	 * @return The number of version 2 frames that were given up on before all their fragments arrived.
+	 */
+	public long getAbandonedFrameCount() {
+		return abandonedFrameCount;
+	}
+
+	public long getMalformedPacketCount() {
+		return malformedPacketCount;
+	}
+
+	/**
+	 * @return The number of fragments that never arrived for abandoned frames.
+	 */
+	public long getLostFragmentCount() {
+		return lostFragmentCount;
+	}
+
+	/**
+	 * @return The number of fragments that arrived after their frame was delivered or abandoned.
+	 */
+	public long getLateFragmentCount() {
+		return lateFragmentCount;
+	}
+
+	public long getDuplicateFragmentCount() {
+		return duplicateFragmentCount;
+	}
+
+	public DomeIdentifier getLastDomeIdentifier() {
+		return lastDomeIdentifier;
+	}
+
 	//endregion
 }
@@ -1,5 +1,6 @@
 package org.hypher.gradientea.artnet.player;
 
+import com.google.common.base.Preconditions;
 import org.hypher.gradientea.transport.shared.DomeAnimationFrame;
 import org.hypher.gradientea.transport.shared.DomeAnimationTransport;
 
@@ -10,17 +11,38 @@ import java.net.InetAddress;
 import java.net.PortUnreachableException;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.Random;
 
 /**
- * A client for the {@link UdpDomeAnimationReceiver}.
+ * A client for the {@link UdpDomeAnimationReceiver}. By default frames are sent using version 1 of the protocol, one
+ * datagram per frame, which every receiver understands. Version 2 splits frames into sequenced fragments no larger
+ * than {@link #getMaxPacketSize()}, and can be turned on for a dome whose receiver supports it, either with
+ * {@link #setProtocolVersion(int)} or for every client with the {@link #PROTOCOL_VERSION_PROPERTY} system property.
  *
  * @author Yona Appletree (yona@concentricsky.com)
  */
 public class UdpDomeClient implements DomeAnimationTransport {
 
+	public static final int DEFAULT_MAX_PACKET_SIZE = 1400;
+
+	/**
+	 * System property giving the protocol version new clients send with, 1 or 2. Defaults to 1.
+	 */
+	public static final String PROTOCOL_VERSION_PROPERTY = "gradientea.udpProtocolVersion";
+
 	private DatagramSocket socket;
 	private DomeIdentifier domeIdentifier = DomeIdentifier.Unknown;
 
+	private int protocolVersion = checkProtocolVersion(Integer.getInteger(PROTOCOL_VERSION_PROPERTY, 1));
+	private int maxPacketSize = DEFAULT_MAX_PACKET_SIZE;
+	/**
+	 * Starts at random, so that after a restart the receiver doesn't take the new frames for late copies of old ones.
+	 */
+	private int nextSequence = new Random().nextInt();
+
+	private byte[] packetBuffer = new byte[0];
+	private DatagramPacket packet;
+
 	public void connect(String host) throws SocketException, UnknownHostException {
 		connect(host, DomeAnimationServerMain.DOME_PORT);
 	}
@@ -28,8 +50,11 @@ public class UdpDomeClient implements DomeAnimationTransport {
 	public void connect(String host, int port) throws UnknownHostException, SocketException {
 		disconnect();
 
+		final InetAddress address = InetAddress.getByName(host);
+
 		socket = new DatagramSocket();
-		socket.connect(InetAddress.getByName(host), port);
+		socket.connect(address, port);
+		packet = new DatagramPacket(packetBuffer, 0, address, port);
 	}
 
 	public DomeIdentifier getDomeIdentifier() {
@@ -40,6 +65,36 @@ public class UdpDomeClient implements DomeAnimationTransport {
 		this.domeIdentifier = domeIdentifier;
 	}
 
+	public int getProtocolVersion() {
+		return protocolVersion;
+	}
+
+	/**
+	 * @param protocolVersion 1 (the default) to send each frame as a single datagram, which receivers that predate
+	 *                        version 2 need, or 2 to send sequenced fragments.
+	 */
+	public void setProtocolVersion(final int protocolVersion) {
+		this.protocolVersion = checkProtocolVersion(protocolVersion);
+	}
+
+	private static int checkProtocolVersion(final int protocolVersion) {
+		Preconditions.checkArgument(protocolVersion == 1 || protocolVersion == 2, "Unknown protocol version " + protocolVersion);
+		return protocolVersion;
+	}
+
+	public int getMaxPacketSize() {
+		return maxPacketSize;
+	}
+
+	/**
+	 * @param maxPacketSize The largest datagram sent with protocol version 2, including the header. Should be kept
+	 *                      under the path MTU so that fragments aren't also fragmented at the IP layer.
+	 */
+	public void setMaxPacketSize(final int maxPacketSize) {
+		Preconditions.checkArgument(maxPacketSize > UdpDomeAnimationReceiver.V2_HEADER_LENGTH, "maxPacketSize is too small");
+		this.maxPacketSize = maxPacketSize;
+	}
+
 	private void disconnect() {
 		if (socket != null) {
 			socket.disconnect();
@@ -53,10 +108,28 @@ public class UdpDomeClient implements DomeAnimationTransport {
 	public void displayFrame(final DomeAnimationFrame frame) {
 		if (socket == null) return;
 
-		byte[] faceData = frame.getFacePixelData();
-		byte[] vertexData = frame.getVertexPixelData();
+		try {
+			if (protocolVersion == 1) {
+				sendV1Frame(frame.getFacePixelData(), frame.getVertexPixelData());
+			} else {
+				sendV2Frame(frame.getFacePixelData(), frame.getVertexPixelData());
+			}
+		}
+		catch (IOException e) {
+			if (e instanceof PortUnreachableException) {
+				if ((frameIndex++)%100 == 0) {
+					System.err.println("Dome server at " + socket.getInetAddress() + " not available");
+				}
+			} else {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void sendV1Frame(final byte[] faceData, final byte[] vertexData) throws IOException {
+		final int packetLength = UdpDomeAnimationReceiver.V1_HEADER_LENGTH + faceData.length + vertexData.length;
+		final byte[] buffer = packetBuffer(packetLength);
 
-		byte[] buffer = new byte[faceData.length + vertexData.length + 9];
 		buffer[0] = 'D';
 		buffer[1] = 'O';
 		buffer[2] = 'M';
@@ -73,18 +146,74 @@ public class UdpDomeClient implements DomeAnimationTransport {
 		System.arraycopy(faceData, 0, buffer, 9, faceData.length);
 		System.arraycopy(vertexData, 0, buffer, 9 + faceData.length, vertexData.length);
 
-		DatagramPacket packet = new DatagramPacket(buffer, 0, buffer.length);
-		try {
+		packet.setData(buffer, 0, packetLength);
+		socket.send(packet);
+	}
+
+	private void sendV2Frame(final byte[] faceData, final byte[] vertexData) throws IOException {
+		final int headerLength = UdpDomeAnimationReceiver.V2_HEADER_LENGTH;
+		final int payloadSize = maxPacketSize - headerLength;
+		final int totalLength = faceData.length + vertexData.length;
+		final int fragmentCount = Math.max(1, (totalLength + payloadSize - 1) / payloadSize);
+
+		final byte[] buffer = packetBuffer(maxPacketSize);
+		final int sequence = nextSequence++;
+
+		buffer[0] = 'D';
+		buffer[1] = 'O';
+		buffer[2] = 'M';
+		buffer[3] = '2';
+
+		buffer[4] = (byte) (domeIdentifier.ordinal());
+		buffer[5] = 0;
+
+		writeInt(buffer, 6, sequence);
+		writeShort(buffer, 12, fragmentCount);
+		writeShort(buffer, 14, faceData.length);
+		writeShort(buffer, 16, vertexData.length);
+
+		for (int fragment=0; fragment<fragmentCount; fragment++) {
+			final int offset = fragment * payloadSize;
+			final int length = Math.min(payloadSize, totalLength - offset);
+
+			writeShort(buffer, 10, fragment);
+			writeInt(buffer, 18, offset);
+
+			// The payload runs through the face data and on into the vertex data
+			int position = headerLength;
+			if (offset < faceData.length) {
+				final int count = Math.min(length, faceData.length - offset);
+				System.arraycopy(faceData, offset, buffer, position, count);
+				position += count;
+			}
+
+			final int remaining = headerLength + length - position;
+			if (remaining > 0) {
+				System.arraycopy(vertexData, offset + (position - headerLength) - faceData.length, buffer, position, remaining);
+			}
+
+			packet.setData(buffer, 0, headerLength + length);
 			socket.send(packet);
 		}
-		catch (IOException e) {
-			if (e instanceof PortUnreachableException) {
-				if ((frameIndex++)%100 == 0) {
-					System.err.println("Dome server at " + socket.getInetAddress() + " not available");
-				}
-			} else {
-				e.printStackTrace();
-			}
+	}
+
+	private byte[] packetBuffer(final int length) {
+		if (packetBuffer.length < length) {
+			packetBuffer = new byte[length];
 		}
+
+		return packetBuffer;
+	}
+
+	private static void writeShort(final byte[] buffer, final int offset, final int value) {
+		buffer[offset] = (byte) (value >> 8);
+		buffer[offset+1] = (byte) value;
+	}
+
+	private static void writeInt(final byte[] buffer, final int offset, final int value) {
+		buffer[offset] = (byte) (value >> 24);
+		buffer[offset+1] = (byte) (value >> 16);
+		buffer[offset+2] = (byte) (value >> 8);
+		buffer[offset+3] = (byte) value;
 	}
 }
@@ -1,12 +1,14 @@
 package org.hypher.gradientea.artnet.player.animations;
 
+import com.google.common.base.Preconditions;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.hypher.gradientea.animation.shared.color.HsbColor;
 import org.hypher.gradientea.animation.shared.color.PixelColor;
-import org.hypher.gradientea.animation.shared.color.RgbColor;
 import org.hypher.gradientea.geometry.shared.GeoFace;
 import org.hypher.gradientea.geometry.shared.GeoVector3;
 import org.hypher.gradientea.geometry.shared.GeodesicSphereGeometry;
@@ -18,11 +20,20 @@ import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Ellipse2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
 import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.lang.Math.*;
 
@@ -31,22 +42,58 @@ import static java.lang.Math.*;
 */
 public class DomeImageMapper {
 	public final static int POLYGON_SPACE_SIZE = 100;
+	public final static double DEFAULT_ROTATION_RADIANS = Math.PI/2.2;
 
-	private static ExecutorService executor = Executors.newCachedThreadPool();
+	/**
+	 * The number of sides of the polygons that stand in for vertex circles in {@link SamplingMode#AREA}.
+	 */
+	private final static int VERTEX_SHAPE_SEGMENTS = 24;
+
+	public enum SamplingMode {
+		/**
+		 * Averages one image pixel per cell of the {@link #POLYGON_SPACE_SIZE} grid that falls inside a face or vertex.
+		 */
+		POINT,
+
+		/**
+		 * Averages every image pixel a face or vertex overlaps, weighted by the overlapping area. Smoother on low
+		 * resolution images and independent of the polygon space grid.
+		 */
+		AREA
+	}
+
+	/**
+	 * Runs layout rebuilds requested by {@link #setRotationRadians}, so they never hold up the threads mapping images.
+	 */
+	private static ExecutorService executor = Executors.newCachedThreadPool(
+		new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Dome Image Mapper %d").build()
+	);
 
 	private GradienTeaDomeGeometry geometry;
 	private List<GeoFace> lightedFaces;
 	private List<GeoVector3> lightedVertices;
-	private short[][] polySpaceFaceMask = new short[POLYGON_SPACE_SIZE][POLYGON_SPACE_SIZE];
-	private short[][] polySpaceVertexMask = new short[POLYGON_SPACE_SIZE][POLYGON_SPACE_SIZE];
 
-	private Map<GeoFace,Polygon> facePolygonMap = Maps.newHashMap();
-	private Map<GeoVector3,Ellipse2D> vertexShapeMap = Maps.newHashMap();
+	/**
+	 * The shapes and masks for the current rotation. Replaced as a whole when a rebuild completes, so readers take a
+	 * reference once and work with a consistent snapshot.
+	 */
+	private volatile Layout layout;
+	private final Object layoutLock = new Object();
+	private final AtomicBoolean rebuildScheduled = new AtomicBoolean(false);
+
+	private volatile SamplingMode samplingMode = SamplingMode.POINT;
+
+	/**
+	 * The size of the last mapped image, so a rebuild can prepare a sample table for it ahead of time.
+	 */
+	private volatile int lastImageWidth = 0;
+	private volatile int lastImageHeight = 0;
 
-	private int[][] faceRgbSums;
-	private int[][] vertexRgbSums;
+	private final int[] faceAverages;
+	private final int[] vertexAverages;
+	private final int[] pixelSamples = new int[4];
 
-	private double rotationRadians = Math.PI/2.2;
+	private volatile double rotationRadians = DEFAULT_ROTATION_RADIANS;
 
 	/**
 	 * The amount to scale the vertex circles when drawing overlays and data
@@ -60,28 +107,83 @@ public class DomeImageMapper {
 		lightedFaces = ImmutableList.copyOf(geometry.getLightedFaces());
 		lightedVertices = ImmutableList.copyOf(geometry.getLightedVertices());
 
-		buildPixelFaceMap();
+		faceAverages = new int[lightedFaces.size() * 3];
+		vertexAverages = new int[lightedVertices.size() * 3];
+
+		layout = buildLayout(rotationRadians);
 	}
 
 	public double getRotationRadians() {
 		return rotationRadians;
 	}
 
+	/**
+	 * Changes the rotation of the projection. The new masks, and a sample table for the last mapped image size, are
+	 * built on a background thread and swapped in when complete; until then images keep mapping with the previous
+	 * rotation. Changes made while a rebuild is running are coalesced into one more rebuild for the latest value.
+	 */
 	public void setRotationRadians(final double rotationRadians) {
 		this.rotationRadians = rotationRadians;
 
-		buildPixelFaceMap();
+		if (rebuildScheduled.compareAndSet(false, true)) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					rebuildScheduled.set(false);
+
+					try {
+						rebuildLayout();
+					}
+					catch (RuntimeException e) {
+						System.err.println("Failed to rebuild the dome image mapping: " + e.getMessage());
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+	}
+
+	public SamplingMode getSamplingMode() {
+		return samplingMode;
+	}
+
+	public void setSamplingMode(final SamplingMode samplingMode) {
+		this.samplingMode = samplingMode;
+	}
+
+	private void rebuildLayout() {
+		synchronized (layoutLock) {
+			final double rotation = rotationRadians;
+			if (layout.rotationRadians == rotation) return;
+
+			final Layout newLayout = buildLayout(rotation);
+
+			if (lastImageWidth > 0 && lastImageHeight > 0) {
+				newLayout.sampleTable = buildSampleTable(newLayout, lastImageWidth, lastImageHeight, samplingMode);
+			}
+
+			layout = newLayout;
+			overlayCache.invalidateAll();
+		}
 	}
 
-	private synchronized void buildPixelFaceMap() {
-		faceRgbSums = new int[lightedFaces.size()][4];
-		vertexRgbSums = new int[lightedVertices.size()][4];
+	private Layout buildLayout(final double rotationRadians) {
+		final Map<GeoFace,Polygon> facePolygonMap = Maps.newHashMap();
+		final Map<GeoVector3,Ellipse2D> vertexShapeMap = Maps.newHashMap();
+		final List<double[]> faceShapes = Lists.newArrayList();
+		final List<double[]> vertexShapes = Lists.newArrayList();
 
 		for (GeoFace face : lightedFaces) {
 			double[] a = mercator(face.getA(), rotationRadians);
 			double[] b = mercator(face.getB(), rotationRadians);
 			double[] c = mercator(face.getC(), rotationRadians);
 
+			faceShapes.add(new double[] {
+				a[0]+0.5, a[1]+0.5,
+				b[0]+0.5, b[1]+0.5,
+				c[0]+0.5, c[1]+0.5
+			});
+
 			facePolygonMap.put(
 				face,
 				new Polygon(
@@ -104,6 +206,16 @@ public class DomeImageMapper {
 		for (GeoVector3 vertex : lightedVertices) {
 			double[] xyVertex = mercator(vertex, rotationRadians);
 
+			// The circle drawn for a vertex is vertexRadius across
+			final double[] shape = new double[VERTEX_SHAPE_SEGMENTS * 2];
+			for (int i=0; i<VERTEX_SHAPE_SEGMENTS; i++) {
+				final double angle = 2 * PI * i / VERTEX_SHAPE_SEGMENTS;
+
+				shape[i*2] = xyVertex[0] + 0.5 + cos(angle) * geometry.getVertexRadius() / 2;
+				shape[i*2+1] = xyVertex[1] + 0.5 + sin(angle) * geometry.getVertexRadius() / 2;
+			}
+			vertexShapes.add(shape);
+
 			vertexShapeMap.put(
 				vertex,
 				new Ellipse2D.Double(
@@ -115,100 +227,364 @@ public class DomeImageMapper {
 			);
 		}
 
-		for (int x=0; x<POLYGON_SPACE_SIZE; x++) {
-			for (int y=0; y<POLYGON_SPACE_SIZE; y++) {
+		// Shapes are painted in reverse so that, where they overlap, a cell ends up belonging to the lowest indexed one
+		final short[][] polySpaceFaceMask = newMask();
+		for (int i=lightedFaces.size()-1; i>=0; i--) {
+			paintMask(polySpaceFaceMask, facePolygonMap.get(lightedFaces.get(i)), i);
+		}
 
-				for (int i=0; i<lightedFaces.size(); i++) {
-					if (facePolygonMap.get(lightedFaces.get(i)).contains(x, y)) {
-						polySpaceFaceMask[x][y] = (short) i;
-						break;
-					}
+		final short[][] polySpaceVertexMask = newMask();
+		for (int i=lightedVertices.size()-1; i>=0; i--) {
+			paintMask(polySpaceVertexMask, vertexShapeMap.get(lightedVertices.get(i)), i);
+		}
 
-					polySpaceFaceMask[x][y] = -1;
-				}
+		return new Layout(
+			rotationRadians,
+			facePolygonMap,
+			vertexShapeMap,
+			faceShapes,
+			vertexShapes,
+			polySpaceFaceMask,
+			polySpaceVertexMask
+		);
+	}
 
-				for (int i=0; i<lightedVertices.size(); i++) {
-					if (vertexShapeMap.get(lightedVertices.get(i)).contains(x, y)) {
-						polySpaceVertexMask[x][y] = (short) i;
-						break;
-					}
+	private static short[][] newMask() {
+		final short[][] mask = new short[POLYGON_SPACE_SIZE][POLYGON_SPACE_SIZE];
 
-					polySpaceVertexMask[x][y] = -1;
+		for (short[] column : mask) {
+			Arrays.fill(column, (short) -1);
+		}
+
+		return mask;
+	}
+
+	/**
+	 * Assigns every cell whose corner lies inside the shape to the given index, testing only the cells within the
+	 * shape's bounding box.
+	 */
+	private static void paintMask(final short[][] mask, final Shape shape, final int index) {
+		final Rectangle bounds = shape.getBounds();
+
+		final int minX = max(0, bounds.x);
+		final int minY = max(0, bounds.y);
+		final int maxX = min(POLYGON_SPACE_SIZE - 1, bounds.x + bounds.width);
+		final int maxY = min(POLYGON_SPACE_SIZE - 1, bounds.y + bounds.height);
+
+		for (int x=minX; x<=maxX; x++) {
+			for (int y=minY; y<=maxY; y++) {
+				if (shape.contains(x, y)) {
+					mask[x][y] = (short) index;
 				}
 			}
 		}
 	}
 
+	/**
+	 * Maps the image onto the canvas by averaging the pixels under each face and vertex. The pixel offsets and weights
+	 * for each face and vertex are computed once per image size and sampling mode, and packed int and interleaved
+	 * byte rasters are read straight from their backing arrays.
+	 */
 	public synchronized void drawImage(
 		final BufferedImage image,
 		final DomePixelCanvas canvas
 	) {
-		final int[] pixelArgb = new int[4];
-		final Raster data = image.getData();
+		checkCanvas(canvas);
 
 		final int imageWidth = image.getWidth();
 		final int imageHeight = image.getHeight();
 
-		zeroArray(faceRgbSums);
-		zeroArray(vertexRgbSums);
+		final Layout currentLayout = layout;
+		final SamplingMode currentSamplingMode = samplingMode;
+
+		SampleTable sampleTable = currentLayout.sampleTable;
+		if (sampleTable == null
+			|| sampleTable.imageWidth != imageWidth
+			|| sampleTable.imageHeight != imageHeight
+			|| sampleTable.samplingMode != currentSamplingMode) {
+
+			sampleTable = buildSampleTable(currentLayout, imageWidth, imageHeight, currentSamplingMode);
+			currentLayout.sampleTable = sampleTable;
+		}
+
+		lastImageWidth = imageWidth;
+		lastImageHeight = imageHeight;
+
+		final SampleGroups faces = sampleTable.faces;
+		final SampleGroups vertices = sampleTable.vertices;
+
+		final WritableRaster raster = image.getRaster();
+		final DataBuffer dataBuffer = raster.getDataBuffer();
+		final SampleModel sampleModel = raster.getSampleModel();
+
+		final boolean untranslated = raster.getSampleModelTranslateX() == 0
+			&& raster.getSampleModelTranslateY() == 0
+			&& sampleModel.getNumBands() >= 3;
+
+		if (untranslated
+			&& dataBuffer instanceof DataBufferInt
+			&& sampleModel instanceof SinglePixelPackedSampleModel
+			&& ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride() == imageWidth) {
+
+			final int[] pixels = ((DataBufferInt) dataBuffer).getData();
+			final int pixelOffset = dataBuffer.getOffset();
+			final SinglePixelPackedSampleModel packedModel = (SinglePixelPackedSampleModel) sampleModel;
+
+			averagePacked(pixels, pixelOffset, packedModel, faces, faceAverages);
+			averagePacked(pixels, pixelOffset, packedModel, vertices, vertexAverages);
+		} else if (untranslated
+			&& dataBuffer instanceof DataBufferByte
+			&& dataBuffer.getNumBanks() == 1
+			&& sampleModel instanceof PixelInterleavedSampleModel
+			&& ((PixelInterleavedSampleModel) sampleModel).getScanlineStride()
+				== imageWidth * ((PixelInterleavedSampleModel) sampleModel).getPixelStride()) {
+
+			final byte[] samples = ((DataBufferByte) dataBuffer).getData();
+			final int sampleOffset = dataBuffer.getOffset();
+			final PixelInterleavedSampleModel interleavedModel = (PixelInterleavedSampleModel) sampleModel;
+
+			averageInterleaved(samples, sampleOffset, interleavedModel, faces, faceAverages);
+			averageInterleaved(samples, sampleOffset, interleavedModel, vertices, vertexAverages);
+		} else {
+			averageRaster(raster, imageWidth, faces, faceAverages);
+			averageRaster(raster, imageWidth, vertices, vertexAverages);
+		}
+
+		for (int i=0; i<lightedFaces.size(); i++) {
+			if (faces.totals[i] > 0) {
+				canvas.drawFace(
+					i,
+					faceAverages[i*3],
+					faceAverages[i*3+1],
+					faceAverages[i*3+2]
+				);
+			}
+		}
+
+		for (int i=0; i<lightedVertices.size(); i++) {
+			if (vertices.totals[i] > 0) {
+				canvas.drawVertex(
+					i,
+					vertexAverages[i*3] * 2,
+					vertexAverages[i*3+1] * 2,
+					vertexAverages[i*3+2] * 2
+				);
+			}
+		}
+	}
+
+	/**
+	 * Canvases are addressed by face and vertex index, so they must be for the same geometry as the mapper.
+	 */
+	private void checkCanvas(final DomePixelCanvas canvas) {
+		Preconditions.checkArgument(
+			canvas.getFaceCount() == lightedFaces.size() && canvas.getVertexCount() == lightedVertices.size(),
+			"The canvas is for a different dome than this mapper"
+		);
+	}
+
+	private SampleTable buildSampleTable(
+		final Layout layout,
+		final int imageWidth,
+		final int imageHeight,
+		final SamplingMode samplingMode
+	) {
+		return samplingMode == SamplingMode.AREA
+			? buildAreaSampleTable(layout, imageWidth, imageHeight)
+			: buildPointSampleTable(layout, imageWidth, imageHeight);
+	}
+
+	/**
+	 * Builds the {@link SamplingMode#POINT} table for an image of the given size from the polygon space masks. Each
+	 * polygon space cell contributes one sample of weight one, so small images sample some pixels more than once,
+	 * exactly as reading the image cell by cell would.
+	 */
+	private SampleTable buildPointSampleTable(final Layout layout, final int imageWidth, final int imageHeight) {
+		final short[][] polySpaceFaceMask = layout.polySpaceFaceMask;
+		final short[][] polySpaceVertexMask = layout.polySpaceVertexMask;
+
+		final int[] faceStarts = new int[lightedFaces.size() + 1];
+		final int[] vertexStarts = new int[lightedVertices.size() + 1];
+
+		for (int x=0; x<POLYGON_SPACE_SIZE; x++) {
+			for (int y=0; y<POLYGON_SPACE_SIZE; y++) {
+				if (polySpaceFaceMask[x][y] >= 0) faceStarts[polySpaceFaceMask[x][y] + 1] ++;
+				if (polySpaceVertexMask[x][y] >= 0) vertexStarts[polySpaceVertexMask[x][y] + 1] ++;
+			}
+		}
+
+		for (int i=1; i<faceStarts.length; i++) faceStarts[i] += faceStarts[i-1];
+		for (int i=1; i<vertexStarts.length; i++) vertexStarts[i] += vertexStarts[i-1];
+
+		final int[] faceOffsets = new int[faceStarts[faceStarts.length-1]];
+		final int[] vertexOffsets = new int[vertexStarts[vertexStarts.length-1]];
+
+		final int[] faceCursors = Arrays.copyOf(faceStarts, faceStarts.length - 1);
+		final int[] vertexCursors = Arrays.copyOf(vertexStarts, vertexStarts.length - 1);
 
 		for (int x=0; x<POLYGON_SPACE_SIZE; x++) {
 			for (int y=0; y<POLYGON_SPACE_SIZE; y++) {
-				int faceIndex = polySpaceFaceMask[x][y];
-				int vertexIndex = polySpaceVertexMask[x][y];
+				final int faceIndex = polySpaceFaceMask[x][y];
+				final int vertexIndex = polySpaceVertexMask[x][y];
 
 				if (faceIndex >= 0 || vertexIndex >= 0) {
-					data.getPixel((int)polyToScaled(x, imageWidth), (int)polyToScaled(y, imageHeight), pixelArgb);
-				}
+					final int offset = (int) polyToScaled(y, imageHeight) * imageWidth + (int) polyToScaled(x, imageWidth);
 
-				if (faceIndex >= 0) {
-					faceRgbSums[faceIndex][0] += pixelArgb[0];
-					faceRgbSums[faceIndex][1] += pixelArgb[1];
-					faceRgbSums[faceIndex][2] += pixelArgb[2];
-					faceRgbSums[faceIndex][3] ++;
+					if (faceIndex >= 0) faceOffsets[faceCursors[faceIndex] ++] = offset;
+					if (vertexIndex >= 0) vertexOffsets[vertexCursors[vertexIndex] ++] = offset;
 				}
+			}
+		}
 
-				if (vertexIndex >= 0) {
-					vertexRgbSums[vertexIndex][0] += pixelArgb[0];
-					vertexRgbSums[vertexIndex][1] += pixelArgb[1];
-					vertexRgbSums[vertexIndex][2] += pixelArgb[2];
-					vertexRgbSums[vertexIndex][3] ++;
-				}
+		return new SampleTable(
+			imageWidth,
+			imageHeight,
+			SamplingMode.POINT,
+			SampleGroups.unweighted(faceStarts, faceOffsets),
+			SampleGroups.unweighted(vertexStarts, vertexOffsets)
+		);
+	}
+
+	/**
+	 * Builds the {@link SamplingMode#AREA} table for an image of the given size by clipping each face triangle and
+	 * vertex circle against every image pixel it overlaps, weighting each pixel by the area it shares with the shape.
+	 * The shapes come straight from the projection rather than the polygon space grid, so the weights stay exact at any
+	 * image size; vertex circles are approximated by polygons.
+	 */
+	private SampleTable buildAreaSampleTable(final Layout layout, final int imageWidth, final int imageHeight) {
+		return new SampleTable(
+			imageWidth,
+			imageHeight,
+			SamplingMode.AREA,
+			SampleGroups.coverage(scaleShapes(layout.faceShapes, imageWidth, imageHeight), imageWidth, imageHeight),
+			SampleGroups.coverage(scaleShapes(layout.vertexShapes, imageWidth, imageHeight), imageWidth, imageHeight)
+		);
+	}
+
+	/**
+	 * @return Copies of the given shapes, scaled from the unit square up to image pixels.
+	 */
+	private static List<double[]> scaleShapes(final List<double[]> shapes, final int imageWidth, final int imageHeight) {
+		final List<double[]> scaled = Lists.newArrayListWithCapacity(shapes.size());
+
+		for (double[] shape : shapes) {
+			final double[] scaledShape = new double[shape.length];
+
+			for (int i=0; i<shape.length; i+=2) {
+				scaledShape[i] = shape[i] * imageWidth;
+				scaledShape[i+1] = shape[i+1] * imageHeight;
 			}
+
+			scaled.add(scaledShape);
 		}
 
-		for (int i=0; i<lightedFaces.size(); i++) {
-			if (faceRgbSums[i][3] > 0) {
-				canvas.draw(
-					lightedFaces.get(i),
-					new RgbColor(
-						faceRgbSums[i][0] / faceRgbSums[i][3],
-						faceRgbSums[i][1] / faceRgbSums[i][3],
-						faceRgbSums[i][2] / faceRgbSums[i][3]
-					)
-				);
+		return scaled;
+	}
+
+	private static void averagePacked(
+		final int[] pixels,
+		final int pixelOffset,
+		final SinglePixelPackedSampleModel model,
+		final SampleGroups groups,
+		final int[] averages
+	) {
+		final int[] masks = model.getBitMasks();
+		final int[] shifts = model.getBitOffsets();
+
+		final int redMask = masks[0], greenMask = masks[1], blueMask = masks[2];
+		final int redShift = shifts[0], greenShift = shifts[1], blueShift = shifts[2];
+
+		final int[] starts = groups.starts;
+		final int[] offsets = groups.offsets;
+		final int[] weights = groups.weights;
+
+		for (int i=0; i<groups.totals.length; i++) {
+			final int total = groups.totals[i];
+			if (total == 0) continue;
+
+			int red = 0, green = 0, blue = 0;
+			for (int j=starts[i]; j<starts[i+1]; j++) {
+				final int pixel = pixels[pixelOffset + offsets[j]];
+				final int weight = weights[j];
+
+				red += ((pixel & redMask) >>> redShift) * weight;
+				green += ((pixel & greenMask) >>> greenShift) * weight;
+				blue += ((pixel & blueMask) >>> blueShift) * weight;
 			}
+
+			averages[i*3] = red / total;
+			averages[i*3+1] = green / total;
+			averages[i*3+2] = blue / total;
 		}
+	}
 
-		for (int i=0; i<lightedVertices.size(); i++) {
-			if (vertexRgbSums[i][3] > 0) {
-				canvas.draw(
-					lightedVertices.get(i),
-					new RgbColor(
-						(vertexRgbSums[i][0] / vertexRgbSums[i][3]) * 2,
-						(vertexRgbSums[i][1] / vertexRgbSums[i][3]) * 2,
-						(vertexRgbSums[i][2] / vertexRgbSums[i][3]) * 2
-					)
-				);
+	private static void averageInterleaved(
+		final byte[] samples,
+		final int sampleOffset,
+		final PixelInterleavedSampleModel model,
+		final SampleGroups groups,
+		final int[] averages
+	) {
+		final int pixelStride = model.getPixelStride();
+		final int[] bandOffsets = model.getBandOffsets();
+
+		final int redOffset = sampleOffset + bandOffsets[0];
+		final int greenOffset = sampleOffset + bandOffsets[1];
+		final int blueOffset = sampleOffset + bandOffsets[2];
+
+		final int[] starts = groups.starts;
+		final int[] offsets = groups.offsets;
+		final int[] weights = groups.weights;
+
+		for (int i=0; i<groups.totals.length; i++) {
+			final int total = groups.totals[i];
+			if (total == 0) continue;
+
+			int red = 0, green = 0, blue = 0;
+			for (int j=starts[i]; j<starts[i+1]; j++) {
+				final int index = offsets[j] * pixelStride;
+				final int weight = weights[j];
+
+				red += (samples[redOffset + index] & 0xFF) * weight;
+				green += (samples[greenOffset + index] & 0xFF) * weight;
+				blue += (samples[blueOffset + index] & 0xFF) * weight;
 			}
+
+			averages[i*3] = red / total;
+			averages[i*3+1] = green / total;
+			averages[i*3+2] = blue / total;
 		}
 	}
 
-	private void zeroArray(final int[][] array) {
-		for (int i=0; i<array.length; i++) {
-			for (int j=0; j<array[i].length; j++) {
-				array[i][j] = 0;
+	/**
+	 * Fallback for image types without a directly readable layout.
+	 */
+	private void averageRaster(
+		final Raster raster,
+		final int imageWidth,
+		final SampleGroups groups,
+		final int[] averages
+	) {
+		final int[] starts = groups.starts;
+		final int[] offsets = groups.offsets;
+		final int[] weights = groups.weights;
+
+		for (int i=0; i<groups.totals.length; i++) {
+			final int total = groups.totals[i];
+			if (total == 0) continue;
+
+			int red = 0, green = 0, blue = 0;
+			for (int j=starts[i]; j<starts[i+1]; j++) {
+				raster.getPixel(offsets[j] % imageWidth, offsets[j] / imageWidth, pixelSamples);
+
+				red += pixelSamples[0] * weights[j];
+				green += pixelSamples[1] * weights[j];
+				blue += pixelSamples[2] * weights[j];
 			}
+
+			averages[i*3] = red / total;
+			averages[i*3+1] = green / total;
+			averages[i*3+2] = blue / total;
 		}
 	}
 
@@ -231,6 +607,8 @@ public class DomeImageMapper {
 		int imageWidth = (drawWidth + maskSizeIntervalPx - drawWidth % maskSizeIntervalPx);
 		int imageHeight = (drawHeight + maskSizeIntervalPx - drawHeight % maskSizeIntervalPx);
 
+		final Layout layout = this.layout;
+
 		String key = imageWidth + "," + imageHeight + "," + drawLabels + "," + drawVertices;
 		BufferedImage overlayImage = overlayCache.getIfPresent(key);
 
@@ -264,7 +642,7 @@ public class DomeImageMapper {
 			final FontMetrics fontMetrics = imageG.getFontMetrics();
 			int textHeight = fontMetrics.getHeight();
 
-			for (Map.Entry<GeoFace, Polygon> entry : facePolygonMap.entrySet()) {
+			for (Map.Entry<GeoFace, Polygon> entry : layout.facePolygonMap.entrySet()) {
 				Polygon originalPolygon = entry.getValue();
 				Polygon imageSpacePolygon = new Polygon(
 					new int[] {
@@ -303,7 +681,7 @@ public class DomeImageMapper {
 			}
 
 			if (drawVertices) {
-				for (Map.Entry<GeoVector3, Ellipse2D> entry : vertexShapeMap.entrySet()) {
+				for (Map.Entry<GeoVector3, Ellipse2D> entry : layout.vertexShapeMap.entrySet()) {
 					Ellipse2D polySpaceCircle = entry.getValue();
 					Ellipse2D imageSpaceCircle = new Ellipse2D.Double(
 						x + polyToScaled(polySpaceCircle.getX(), imageWidth),
@@ -359,14 +737,15 @@ public class DomeImageMapper {
 		boolean drawVertices,
 		float opacity
 	) {
-		final Map<GeoFace, PixelColor> faceColorMap = pixelCanvas.getFaceColorMap();
-		final Map<GeoVector3, PixelColor> vertexColorMap = pixelCanvas.getVertexColorMap();
+		checkCanvas(pixelCanvas);
+
+		final Layout layout = this.layout;
 
-		for (Map.Entry<GeoFace, Polygon> entry : facePolygonMap.entrySet()) {
-			final PixelColor pixelColor = faceColorMap.get(entry.getKey());
+		for (int i=0; i<lightedFaces.size(); i++) {
+			final PixelColor pixelColor = pixelCanvas.getFaceColor(i);
 
 			if (pixelColor != null && !pixelColor.isBlack()) {
-				Polygon originalPolygon = entry.getValue();
+				Polygon originalPolygon = layout.facePolygonMap.get(lightedFaces.get(i));
 				Polygon imageSpacePolygon = new Polygon(
 					new int[] {
 						x + (int) polyToScaled(originalPolygon.xpoints[0], drawWidth),
@@ -394,10 +773,10 @@ public class DomeImageMapper {
 		}
 
 		if (drawVertices) {
-			for (Map.Entry<GeoVector3, Ellipse2D> entry : vertexShapeMap.entrySet()) {
-				final PixelColor pixelColor = vertexColorMap.get(entry.getKey());
+			for (int i=0; i<lightedVertices.size(); i++) {
+				final PixelColor pixelColor = pixelCanvas.getVertexColor(i);
 				if (pixelColor != null && !pixelColor.isBlack()) {
-					Ellipse2D polySpaceCircle = entry.getValue();
+					Ellipse2D polySpaceCircle = layout.vertexShapeMap.get(lightedVertices.get(i));
 					final double ellipsePxWidth = polyToScaled(polySpaceCircle.getWidth(), drawWidth);
 					final double ellipsePxHeight = polyToScaled(polySpaceCircle.getWidth(), drawHeight);
 
@@ -491,4 +870,263 @@ public class DomeImageMapper {
 		result[0] = newX + cx;
 		result[1] = newY + cy;
 	}
+
+	/**
+	 * The polygon space shapes and masks for one rotation.
+	 */
+	private static class Layout {
+		private final double rotationRadians;
+
+		private final Map<GeoFace,Polygon> facePolygonMap;
+		private final Map<GeoVector3,Ellipse2D> vertexShapeMap;
+
+		/**
+		 * The exact face triangles and vertex circles, as x,y pairs in the unit square, in lighted face and vertex order.
+		 */
+		private final List<double[]> faceShapes;
+		private final List<double[]> vertexShapes;
+
+		private final short[][] polySpaceFaceMask;
+		private final short[][] polySpaceVertexMask;
+
+		/**
+		 * The sample table for the most recently mapped image size and sampling mode.
+		 */
+		private volatile SampleTable sampleTable;
+
+		private Layout(
+			final double rotationRadians,
+			final Map<GeoFace, Polygon> facePolygonMap,
+			final Map<GeoVector3, Ellipse2D> vertexShapeMap,
+			final List<double[]> faceShapes,
+			final List<double[]> vertexShapes,
+			final short[][] polySpaceFaceMask,
+			final short[][] polySpaceVertexMask
+		) {
+			this.rotationRadians = rotationRadians;
+			this.facePolygonMap = facePolygonMap;
+			this.vertexShapeMap = vertexShapeMap;
+			this.faceShapes = faceShapes;
+			this.vertexShapes = vertexShapes;
+			this.polySpaceFaceMask = polySpaceFaceMask;
+			this.polySpaceVertexMask = polySpaceVertexMask;
+		}
+	}
+
+	private static class SampleTable {
+		private final int imageWidth;
+		private final int imageHeight;
+		private final SamplingMode samplingMode;
+
+		private final SampleGroups faces;
+		private final SampleGroups vertices;
+
+		private SampleTable(
+			final int imageWidth,
+			final int imageHeight,
+			final SamplingMode samplingMode,
+			final SampleGroups faces,
+			final SampleGroups vertices
+		) {
+			this.imageWidth = imageWidth;
+			this.imageHeight = imageHeight;
+			this.samplingMode = samplingMode;
+			this.faces = faces;
+			this.vertices = vertices;
+		}
+	}
+
+	/**
+	 * Weighted pixel offsets ({@code y*imageWidth + x}) for a list of faces or vertices, packed into flat arrays. The
+	 * samples for item {@code i} are {@code offsets[starts[i]]} up to {@code offsets[starts[i+1]]}, and its average is
+	 * the weighted sum of those pixels divided by {@code totals[i]}.
+	 */
+	private static class SampleGroups {
+		/**
+		 * The fixed-point weight of a shape's entire area. Large enough for sub-percent precision on shapes covering
+		 * tens of thousands of pixels, small enough that a weighted sum of 8-bit samples cannot overflow an int.
+		 */
+		private static final int AREA_WEIGHT_SCALE = 1 << 22;
+
+		private final int[] starts;
+		private final int[] offsets;
+		private final int[] weights;
+		private final int[] totals;
+
+		private SampleGroups(final int[] starts, final int[] offsets, final int[] weights, final int[] totals) {
+			this.starts = starts;
+			this.offsets = offsets;
+			this.weights = weights;
+			this.totals = totals;
+		}
+
+		static SampleGroups unweighted(final int[] starts, final int[] offsets) {
+			final int[] weights = new int[offsets.length];
+			Arrays.fill(weights, 1);
+
+			final int[] totals = new int[starts.length - 1];
+			for (int i=0; i<totals.length; i++) {
+				totals[i] = starts[i+1] - starts[i];
+			}
+
+			return new SampleGroups(starts, offsets, weights, totals);
+		}
+
+		/**
+		 * @param shapes Polygons in image pixel coordinates, as interleaved x and y values.
+		 */
+		static SampleGroups coverage(final List<double[]> shapes, final int imageWidth, final int imageHeight) {
+			final int[] starts = new int[shapes.size() + 1];
+			final int[] totals = new int[shapes.size()];
+
+			int[] offsets = new int[256];
+			int[] weights = new int[256];
+			int sampleCount = 0;
+
+			int[] shapeOffsets = new int[64];
+			double[] shapeAreas = new double[64];
+
+			for (int i=0; i<shapes.size(); i++) {
+				final double[] shape = shapes.get(i);
+				final int pointCount = shape.length / 2;
+
+				final double[] row = new double[(pointCount + 2) * 2];
+				final double[] clipped = new double[(pointCount + 4) * 2];
+				final double[] scratch = new double[(pointCount + 4) * 2];
+
+				int shapeSampleCount = 0;
+				double shapeArea = 0;
+
+				final int minY = max(0, (int) floor(minCoordinate(shape, 1)));
+				final int maxY = min(imageHeight - 1, (int) ceil(maxCoordinate(shape, 1)) - 1);
+
+				for (int y=minY; y<=maxY; y++) {
+					int rowCount = clip(shape, pointCount, scratch, 1, y, true);
+					rowCount = clip(scratch, rowCount, row, 1, y + 1, false);
+					if (rowCount < 3) continue;
+
+					final int minX = max(0, (int) floor(minCoordinate(row, rowCount, 0)));
+					final int maxX = min(imageWidth - 1, (int) ceil(maxCoordinate(row, rowCount, 0)) - 1);
+
+					for (int x=minX; x<=maxX; x++) {
+						int cellCount = clip(row, rowCount, scratch, 0, x, true);
+						cellCount = clip(scratch, cellCount, clipped, 0, x + 1, false);
+
+						final double area = area(clipped, cellCount);
+						if (area <= 0) continue;
+
+						if (shapeSampleCount == shapeOffsets.length) {
+							shapeOffsets = Arrays.copyOf(shapeOffsets, shapeSampleCount * 2);
+							shapeAreas = Arrays.copyOf(shapeAreas, shapeSampleCount * 2);
+						}
+
+						shapeOffsets[shapeSampleCount] = y * imageWidth + x;
+						shapeAreas[shapeSampleCount] = area;
+						shapeSampleCount ++;
+						shapeArea += area;
+					}
+				}
+
+				if (sampleCount + shapeSampleCount > offsets.length) {
+					offsets = Arrays.copyOf(offsets, (sampleCount + shapeSampleCount) * 2);
+					weights = Arrays.copyOf(weights, (sampleCount + shapeSampleCount) * 2);
+				}
+
+				for (int j=0; j<shapeSampleCount; j++) {
+					final int weight = (int) Math.round(shapeAreas[j] / shapeArea * AREA_WEIGHT_SCALE);
+
+					if (weight > 0) {
+						offsets[sampleCount] = shapeOffsets[j];
+						weights[sampleCount] = weight;
+						sampleCount ++;
+						totals[i] += weight;
+					}
+				}
+
+				starts[i+1] = sampleCount;
+			}
+
+			return new SampleGroups(
+				starts,
+				Arrays.copyOf(offsets, sampleCount),
+				Arrays.copyOf(weights, sampleCount),
+				totals
+			);
+		}
+
+		/**
+		 * Clips a polygon against one side of an axis-aligned line (Sutherland-Hodgman).
+		 *
+		 * @param axis 0 to clip against {@code x = bound}, 1 for {@code y = bound}.
+		 * @param keepAbove Whether to keep the part of the polygon above the bound rather than below it.
+		 * @return The number of points written to {@code out}.
+		 */
+		private static int clip(
+			final double[] in,
+			final int count,
+			final double[] out,
+			final int axis,
+			final double bound,
+			final boolean keepAbove
+		) {
+			int outCount = 0;
+
+			for (int i=0; i<count; i++) {
+				final int j = (i + 1) % count;
+
+				final double a = in[i*2 + axis];
+				final double b = in[j*2 + axis];
+
+				final boolean aInside = keepAbove ? a >= bound : a <= bound;
+				final boolean bInside = keepAbove ? b >= bound : b <= bound;
+
+				if (aInside) {
+					out[outCount*2] = in[i*2];
+					out[outCount*2+1] = in[i*2+1];
+					outCount ++;
+				}
+
+				if (aInside != bInside) {
+					final double t = (bound - a) / (b - a);
+
+					out[outCount*2] = in[i*2] + (in[j*2] - in[i*2]) * t;
+					out[outCount*2+1] = in[i*2+1] + (in[j*2+1] - in[i*2+1]) * t;
+					outCount ++;
+				}
+			}
+
+			return outCount;
+		}
+
+		private static double area(final double[] points, final int count) {
+			double twiceArea = 0;
+
+			for (int i=0; i<count; i++) {
+				final int j = (i + 1) % count;
+				twiceArea += points[i*2] * points[j*2+1] - points[j*2] * points[i*2+1];
+			}
+
+			return abs(twiceArea) / 2;
+		}
+
+		private static double minCoordinate(final double[] points, final int axis) {
+			return minCoordinate(points, points.length / 2, axis);
+		}
+
+		private static double minCoordinate(final double[] points, final int count, final int axis) {
+			double result = Double.POSITIVE_INFINITY;
+			for (int i=0; i<count; i++) result = Math.min(result, points[i*2 + axis]);
+			return result;
+		}
+
+		private static double maxCoordinate(final double[] points, final int axis) {
+			return maxCoordinate(points, points.length / 2, axis);
+		}
+
+		private static double maxCoordinate(final double[] points, final int count, final int axis) {
+			double result = Double.NEGATIVE_INFINITY;
+			for (int i=0; i<count; i++) result = Math.max(result, points[i*2 + axis]);
+			return result;
+		}
+	}
 }
@@ -1,5 +1,6 @@
 package org.hypher.gradientea.artnet.player.animations;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import org.hypher.gradientea.animation.shared.color.HsbColor;
 import org.hypher.gradientea.animation.shared.color.PixelColor;
@@ -9,69 +10,182 @@ import org.hypher.gradientea.geometry.shared.GeoFace;
 import org.hypher.gradientea.geometry.shared.GeoVector3;
 import org.hypher.gradientea.geometry.shared.GradienTeaDomeGeometry;
 import org.hypher.gradientea.transport.shared.DomeAnimationFrame;
+import org.hypher.gradientea.transport.shared.DomeAnimationFramePool;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
+ * Colors for the lighted faces and vertices of a dome, stored as RGB values in flat arrays indexed by the order of
+ * {@link GradienTeaDomeGeometry#getLightedFaces()} and {@link GradienTeaDomeGeometry#getLightedVertices()}. The
+ * index-based methods draw without allocating; the {@link GeoFace}, {@link GeoVector3} and {@link PixelColor} methods
+ * look up the index and convert the color.
+ *
+ * <p>Values are on a 0-255 scale and are not clamped, matching what {@link RgbColor} allows.</p>
+ *
  * @author Yona Appletree (yona@concentricsky.com)
  */
 public class DomePixelCanvas {
 	private PixelCompositor compositor;
 	private GradienTeaDomeGeometry geometry;
-	private Map<GeoFace, PixelColor> faceColorMap = Maps.newHashMap();
-	private Map<GeoVector3, PixelColor> vertexColorMap = Maps.newHashMap();
+
+	private final List<GeoFace> lightedFaces;
+	private final List<GeoVector3> lightedVertices;
+
+	/**
+	 * Index lookups by identity, since callers almost always pass the geometry's own instances, with lookups by
+	 * equality as the fallback.
+	 */
+	private final Map<GeoFace, Integer> faceIdentityIndexes = new IdentityHashMap<GeoFace, Integer>();
+	private final Map<GeoFace, Integer> faceIndexes = Maps.newHashMap();
+	private final Map<GeoVector3, Integer> vertexIdentityIndexes = new IdentityHashMap<GeoVector3, Integer>();
+	private final Map<GeoVector3, Integer> vertexIndexes = Maps.newHashMap();
+
+	private final float[] faceRgb;
+	private final float[] vertexRgb;
+	private final boolean[] faceDrawn;
+	private final boolean[] vertexDrawn;
+
+	private final DomeAnimationFramePool framePool = new DomeAnimationFramePool(2);
+	private DomeAnimationFrame frame;
 
 	public DomePixelCanvas(final PixelCompositor compositor, final GradienTeaDomeGeometry geometry) {
 		this.compositor = compositor;
 		this.geometry = geometry;
+
+		this.lightedFaces = ImmutableList.copyOf(geometry.getLightedFaces());
+		this.lightedVertices = ImmutableList.copyOf(geometry.getLightedVertices());
+
+		for (int i=0; i<lightedFaces.size(); i++) {
+			faceIdentityIndexes.put(lightedFaces.get(i), i);
+			faceIndexes.put(lightedFaces.get(i), i);
+		}
+
+		for (int i=0; i<lightedVertices.size(); i++) {
+			vertexIdentityIndexes.put(lightedVertices.get(i), i);
+			vertexIndexes.put(lightedVertices.get(i), i);
+		}
+
+		this.faceRgb = new float[lightedFaces.size() * 3];
+		this.vertexRgb = new float[lightedVertices.size() * 3];
+		this.faceDrawn = new boolean[lightedFaces.size()];
+		this.vertexDrawn = new boolean[lightedVertices.size()];
+
+		this.frame = framePool.acquire(faceRgb.length, vertexRgb.length);
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	public int getFaceCount() {
+		return faceDrawn.length;
+	}
+
+	public int getVertexCount() {
+		return vertexDrawn.length;
+	}
+
+	/**
+	 * Draws a color onto the face with the given index in {@link GradienTeaDomeGeometry#getLightedFaces()},
+	 * compositing it with any color already drawn there.
+	 */
+	public void drawFace(final int index, final float red, final float green, final float blue) {
+		composite(faceRgb, index, faceDrawn[index], red, green, blue);
+		faceDrawn[index] = true;
 	}
 
+	/**
+	 * Draws a color onto the vertex with the given index in {@link GradienTeaDomeGeometry#getLightedVertices()},
+	 * compositing it with any color already drawn there.
+	 */
+	public void drawVertex(final int index, final float red, final float green, final float blue) {
+		composite(vertexRgb, index, vertexDrawn[index], red, green, blue);
+		vertexDrawn[index] = true;
+	}
+
+	public boolean isFaceDrawn(final int index) {
+		return faceDrawn[index];
+	}
+
+	public float getFaceRed(final int index) {
+		return faceRgb[index*3];
+	}
+
+	public float getFaceGreen(final int index) {
+		return faceRgb[index*3+1];
+	}
+
+	public float getFaceBlue(final int index) {
+		return faceRgb[index*3+2];
+	}
+
+	public boolean isVertexDrawn(final int index) {
+		return vertexDrawn[index];
+	}
+
+	public float getVertexRed(final int index) {
+		return vertexRgb[index*3];
+	}
+
+	public float getVertexGreen(final int index) {
+		return vertexRgb[index*3+1];
+	}
+
+	public float getVertexBlue(final int index) {
+		return vertexRgb[index*3+2];
+	}
+
+	/**
+	 * @return The color of the face with the given index, or null if nothing has been drawn on it.
+	 */
+	public PixelColor getFaceColor(final int index) {
+		return faceDrawn[index] ? new RgbColor(faceRgb[index*3], faceRgb[index*3+1], faceRgb[index*3+2]) : null;
+	}
+
+	/**
+	 * @return The color of the vertex with the given index, or null if nothing has been drawn on it.
+	 */
+	public PixelColor getVertexColor(final int index) {
+		return vertexDrawn[index] ? new RgbColor(vertexRgb[index*3], vertexRgb[index*3+1], vertexRgb[index*3+2]) : null;
+	}
+
+	/**
+	 * Scales the brightness of every face.
+	 */
 	public void scaleBrightness(double percentage) {
-		for (Map.Entry<GeoFace, PixelColor> entry : faceColorMap.entrySet()) {
-			if (entry.getValue() instanceof RgbColor) {
-				RgbColor value = (RgbColor) entry.getValue();
-				entry.setValue(new RgbColor(
-					value.getRed() * percentage,
-					value.getGreen() * percentage,
-					value.getBlue() * percentage
-				));
-			} else {
-				HsbColor value = (HsbColor) entry.getValue();
-				entry.setValue(new HsbColor(
-					value.getHue(),
-					value.getSaturation(),
-					value.getBrightness() * percentage
-				));
-			}
+		for (int i=0; i<faceRgb.length; i++) {
+			faceRgb[i] *= percentage;
 		}
 	}
 
 	public void draw(GeoFace face, PixelColor color) {
-		if (faceColorMap.containsKey(face)) {
-			faceColorMap.put(
-				face,
-				compositor.composite(
-					faceColorMap.get(face),
-					color
-				)
-			);
-		} else {
-			faceColorMap.put(face, color);
+		final Integer index = indexOf(faceIdentityIndexes, faceIndexes, face);
+
+		if (index != null) {
+			if (color instanceof RgbColor) {
+				final RgbColor rgbColor = (RgbColor) color;
+				drawFace(index, (float) rgbColor.getRed(), (float) rgbColor.getGreen(), (float) rgbColor.getBlue());
+			} else {
+				final int[] rgb = color.asRgb();
+				drawFace(index, rgb[0], rgb[1], rgb[2]);
+			}
 		}
 	}
 
 	public void draw(GeoVector3 face, PixelColor color) {
-		if (vertexColorMap.containsKey(face)) {
-			vertexColorMap.put(
-				face,
-				compositor.composite(
-					vertexColorMap.get(face),
-					color
-				)
-			);
-		} else {
-			vertexColorMap.put(face, color);
+		final Integer index = indexOf(vertexIdentityIndexes, vertexIndexes, face);
+
+		if (index != null) {
+			if (color instanceof RgbColor) {
+				final RgbColor rgbColor = (RgbColor) color;
+				drawVertex(index, (float) rgbColor.getRed(), (float) rgbColor.getGreen(), (float) rgbColor.getBlue());
+			} else {
+				final int[] rgb = color.asRgb();
+				drawVertex(index, rgb[0], rgb[1], rgb[2]);
+			}
 		}
 	}
 
@@ -96,53 +210,119 @@ public class DomePixelCanvas {
 			draw(vertex, color);
 		}
 	}
+
 	public void clear() {
-		faceColorMap.clear();
-		vertexColorMap.clear();
+		Arrays.fill(faceRgb, 0);
+		Arrays.fill(vertexRgb, 0);
+		Arrays.fill(faceDrawn, false);
+		Arrays.fill(vertexDrawn, false);
 	}
 
+	/**
+	 * @return A snapshot of the colors of the faces that have been drawn.
+	 */
 	public Map<GeoFace, PixelColor> getFaceColorMap() {
-		return Collections.unmodifiableMap(faceColorMap);
+		final Map<GeoFace, PixelColor> colors = Maps.newLinkedHashMap();
+
+		for (int i=0; i<lightedFaces.size(); i++) {
+			if (faceDrawn[i]) colors.put(lightedFaces.get(i), getFaceColor(i));
+		}
+
+		return Collections.unmodifiableMap(colors);
 	}
 
+	/**
+	 * @return A snapshot of the colors of the vertices that have been drawn.
+	 */
 	public Map<GeoVector3, PixelColor> getVertexColorMap() {
-		return Collections.unmodifiableMap(vertexColorMap);
+		final Map<GeoVector3, PixelColor> colors = Maps.newLinkedHashMap();
+
+		for (int i=0; i<lightedVertices.size(); i++) {
+			if (vertexDrawn[i]) colors.put(lightedVertices.get(i), getVertexColor(i));
+		}
+
+		return Collections.unmodifiableMap(colors);
 	}
 
+	/**
+	 * Renders the canvas into a frame that is reused by every call, so it is only valid until the next call to
+	 * {@code render()} unless it is {@link DomeAnimationFrame#retain() retained}. A retained frame is left alone and
+	 * the next render goes into a fresh one.
+	 */
 	public DomeAnimationFrame render() {
-		byte[] faceColorData = new byte[geometry.getLightedFaces().size()*3];
-		byte[] vertexColorData = new byte[geometry.getLightedVertices().size()*3];
+		if (frame.getReferenceCount() > 1) {
+			frame.release();
+			frame = framePool.acquire(faceRgb.length, vertexRgb.length);
+		}
 
-		int dataIndex = 0;
-		for (GeoFace face : geometry.getLightedFaces()) {
-			if (faceColorMap.containsKey(face)) {
-				int[] rgb = faceColorMap.get(face).asRgb();
+		renderInto(faceRgb, faceDrawn, frame.getFacePixelData());
+		renderInto(vertexRgb, vertexDrawn, frame.getVertexPixelData());
 
-				faceColorData[dataIndex+0] = (byte) rgb[0];
-				faceColorData[dataIndex+1] = (byte) rgb[1];
-				faceColorData[dataIndex+2] = (byte) rgb[2];
-			}
+		return frame;
+	}
+
+	//endregion
 
-			dataIndex += 3;
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	/**
+	 * Composites a color into the given slot in place. {@link PixelCompositor#REPLACE} and
+	 * {@link PixelCompositor#ADDITIVE} are applied directly; any other compositor goes through color objects.
+	 */
+	private void composite(
+		final float[] rgb,
+		final int index,
+		final boolean drawn,
+		final float red,
+		final float green,
+		final float blue
+	) {
+		final int offset = index * 3;
+
+		if (! drawn || compositor == PixelCompositor.REPLACE) {
+			rgb[offset] = red;
+			rgb[offset+1] = green;
+			rgb[offset+2] = blue;
+		} else if (compositor == PixelCompositor.ADDITIVE) {
+			// Like the additive compositor, each color is truncated to whole values before being added
+			rgb[offset] = (int) rgb[offset] + (int) red;
+			rgb[offset+1] = (int) rgb[offset+1] + (int) green;
+			rgb[offset+2] = (int) rgb[offset+2] + (int) blue;
+		} else {
+			final int[] composited = compositor.composite(
+				new RgbColor(rgb[offset], rgb[offset+1], rgb[offset+2]),
+				new RgbColor(red, green, blue)
+			).asRgb();
+
+			rgb[offset] = composited[0];
+			rgb[offset+1] = composited[1];
+			rgb[offset+2] = composited[2];
 		}
+	}
 
-		dataIndex = 0;
-		for (GeoVector3 vertex : geometry.getLightedVertices()) {
-			if (vertexColorMap.containsKey(vertex)) {
-				int[] rgb = vertexColorMap.get(vertex).asRgb();
+	private static void renderInto(final float[] rgb, final boolean[] drawn, final byte[] data) {
+		for (int i=0; i<drawn.length; i++) {
+			final int offset = i * 3;
 
-				vertexColorData[dataIndex+0] = (byte) rgb[0];
-				vertexColorData[dataIndex+1] = (byte) rgb[1];
-				vertexColorData[dataIndex+2] = (byte) rgb[2];
+			if (drawn[i]) {
+				data[offset] = (byte) (int) rgb[offset];
+				data[offset+1] = (byte) (int) rgb[offset+1];
+				data[offset+2] = (byte) (int) rgb[offset+2];
+			} else {
+				data[offset] = data[offset+1] = data[offset+2] = 0;
 			}
-
-			dataIndex += 3;
 		}
+	}
 
-		return new DomeAnimationFrame(
-			faceColorData,
-			vertexColorData
-		);
+	private static <T> Integer indexOf(
+		final Map<T, Integer> identityIndexes,
+		final Map<T, Integer> equalityIndexes,
+		final T item
+	) {
+		final Integer index = identityIndexes.get(item);
+		return index != null ? index : equalityIndexes.get(item);
 	}
 
+	//endregion
 }
@@ -1,6 +1,7 @@
 package org.hypher.gradientea.artnet.player.controller;
 
 import org.hypher.gradientea.artnet.player.controller.programs.DomeAnimationProgram;
+import org.hypher.gradientea.artnet.player.io.audio.BeatTracker;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -17,4 +18,9 @@ public interface DomeController {
 	void selectProgram(DomeAnimationProgram.ProgramId newProgramId);
 
 	void displayImage(BufferedImage image);
+
+	/**
+	 * @return The tracker following the beat of the audio input, which starts capturing audio when first requested.
+	 */
+	BeatTracker getBeatTracker();
 }
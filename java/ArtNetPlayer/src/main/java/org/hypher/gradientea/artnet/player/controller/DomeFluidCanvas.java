@@ -1,13 +1,24 @@
 package org.hypher.gradientea.artnet.player.controller;
 
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.hypher.gradientea.animation.shared.color.HsbColor;
 import org.hypher.gradientea.artnet.player.DomeColorManager;
 import org.hypher.gradientea.artnet.player.io.osc.OscHelper;
 import org.hypher.gradientea.geometry.shared.math.DomeMath;
 import org.msafluid.MSAFluidSolver2D;
+import org.msafluid.MSAFluidTiming;
+import org.msafluid.ParallelMSAFluidSolver2D;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.hypher.gradientea.geometry.shared.math.DomeMath.TWO_PI;
 import static org.hypher.gradientea.geometry.shared.math.DomeMath.f;
@@ -17,8 +28,61 @@ import static org.hypher.gradientea.geometry.shared.math.DomeMath.f;
  */
 public class DomeFluidCanvas {
 	public static final int DEFAULT_SIZE = 40;
+
+	/**
+	 * System property giving the smallest size at which the fluid is solved on several threads. When it is set the
+	 * solvers aren't timed at all.
+	 */
+	public static final String PARALLEL_MIN_SIZE_PROPERTY = "gradientea.fluid.parallelMinSize";
+
+	/**
+	 * The sizes at which the serial and parallel solvers are compared to pick between them; see
+	 * {@link #calibrateParallelMinSize(ExecutorService)}. Larger sizes are compared when they are first used.
+	 */
+	private static final int[] CALIBRATION_SIZES = {32, 48, 64, 80};
+	private static final long CALIBRATION_WARMUP_NANOS = 50000000L;
+	private static final long CALIBRATION_MEASURE_NANOS = 50000000L;
+
+	/**
+	 * How much faster the parallel solver has to be in calibration before it is used, so that noise in the short
+	 * measurements doesn't pick it when the two are about even.
+	 */
+	private static final double CALIBRATION_MARGIN = 0.9;
+
+	private static final int SOLVER_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Times the solvers in the background, so that choosing one never holds up a frame. Until a size has been timed the
+	 * fluid is solved serially at that size, and the canvas switches over once the result is in.
+	 */
+	private static final ExecutorService calibrationExecutor = Executors.newSingleThreadExecutor(
+		new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Fluid Solver Calibration").build()
+	);
+
+	private static final AtomicBoolean calibrationStarted = new AtomicBoolean(false);
+
+	/**
+	 * The smallest size at which the fluid is solved on several threads, or -1 until calibration has finished.
+	 */
+	private static volatile int parallelMinSize = -1;
+
+	/**
+	 * Whether the parallel solver won at each size above the calibrated ones, if it didn't win at any of those.
+	 */
+	private static final ConcurrentMap<Integer, Boolean> parallelFasterAboveCalibration = Maps.newConcurrentMap();
+	private static final Set<Integer> sizesBeingTimed = Sets.newSetFromMap(Maps.<Integer, Boolean>newConcurrentMap());
+
+	/**
+	 * How long a requested size has to stay the same before the fluid is resized to it, so that dragging the size
+	 * control doesn't build a new solver for every step along the way.
+	 */
+	private static final long RESIZE_DEBOUNCE_NANOS = 250000000L;
+
 	private int currentSize;
+	private volatile int requestedSize;
+	private volatile long sizeRequestedAt;
 	private MSAFluidSolver2D fluidSolver;
+	private ExecutorService solverExecutor;
 	private BufferedImage image;
 
 	public DomeFluidCanvas() {
@@ -35,12 +99,12 @@ public class DomeFluidCanvas {
 			new OscHelper.OscDouble(OscConstants.Control.Fluid.FLUID_SIZE, 16, 80, fluidSolver.getVisc()) {
 				@Override
 				public void applyDouble(final double value) {
-					setSize((int) value);
+					requestSize((int) value);
 				}
 
 				@Override
 				public double getValue() {
-					return currentSize;
+					return requestedSize;
 				}
 			}
 		);
@@ -87,11 +151,15 @@ public class DomeFluidCanvas {
 	}
 
 	public void update(float intensityMultiplier) {
+		applyRequestedSize();
+		applySolverChoice();
 		fluidSolver.update();
 		updateImage(intensityMultiplier);
 	}
 
 	public void update(float intensityMultiplier, DomeColorManager.DomePalette palette) {
+		applyRequestedSize();
+		applySolverChoice();
 		fluidSolver.update();
 		updateImage(intensityMultiplier, palette);
 	}
@@ -100,102 +168,255 @@ public class DomeFluidCanvas {
 		update(2.5f);
 	}
 
+	/**
+	 * Colors each cell from the palette by its brightness, writing straight into the image's pixels.
+	 */
 	private void updateImage(float intensityMultiplier, DomeColorManager.DomePalette palette) {
-		int width = getWidth();
-		int height = getHeight();
-		float frgb[] = new float[3];
-		int rgb[] = new int[3];
+		final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		final float[] r = fluidSolver.r, g = fluidSolver.g, b = fluidSolver.b;
+
+		// The image has a pixel for every cell, in the same row-major order as the solver
+		for (int i=0; i<pixels.length; i++) {
+			final float red = dye(r[i]) * intensityMultiplier;
+			final float green = dye(g[i]) * intensityMultiplier;
+			final float blue = dye(b[i]) * intensityMultiplier;
+
+			final float max = Math.max(Math.max(Math.max(1f, red), green), blue);
+			final int average = Math.max(
+				(int) ((red / max) * 255),
+				Math.max((int) ((green / max) * 255), (int) ((blue / max) * 255))
+			);
 
-		for (int x=0; x<width; x++) {
-			for (int y=0; y<height; y++) {
-				rgbAt(x, y, frgb);
+			pixels[i] = (average << 24) | palette.getRgb(average);
+		}
+	}
 
-				frgb[0] *= intensityMultiplier;
-				frgb[1] *= intensityMultiplier;
-				frgb[2] *= intensityMultiplier;
+	/**
+	 * Colors each cell with its own color, writing straight into the image's pixels.
+	 */
+	private void updateImage(float intensityMultiplier) {
+		final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		final float[] r = fluidSolver.r, g = fluidSolver.g, b = fluidSolver.b;
 
-				float max = DomeMath.max(1f, frgb[0], frgb[1], frgb[2]);
-				rgb[0] = (int) ((frgb[0] / max) * 255);
-				rgb[1] = (int) ((frgb[1] / max) * 255);
-				rgb[2] = (int) ((frgb[2] / max) * 255);
+		for (int i=0; i<pixels.length; i++) {
+			final float red = dye(r[i]) * intensityMultiplier;
+			final float green = dye(g[i]) * intensityMultiplier;
+			final float blue = dye(b[i]) * intensityMultiplier;
 
-				int average = Math.max(rgb[0], Math.max(rgb[1], rgb[2]));
+			final float max = Math.max(Math.max(Math.max(1f, red), green), blue);
+			final int red8 = (int) ((red / max) * 255);
+			final int green8 = (int) ((green / max) * 255);
+			final int blue8 = (int) ((blue / max) * 255);
 
-				Color color = palette.getColor(average / 255f);
+			final int average = Math.max(red8, Math.max(green8, blue8));
 
-				image.setRGB(
-					x,
-					y,
-					(average << 24) | (color.getRed() << 16) | (color.getGreen() << 8) | (color.getBlue() << 0)
-				);
-			}
+			pixels[i] = (average << 24)
+				| ((red8 < 5 ? 0 : red8) << 16)
+				| ((green8 < 5 ? 0 : green8) << 8)
+				| (blue8 < 5 ? 0 : blue8);
 		}
 	}
 
-	private void updateImage(float intensityMultiplier) {
-		int width = getWidth();
-		int height = getHeight();
-		float frgb[] = new float[3];
-		int rgb[] = new int[3];
-
-		for (int x=0; x<width; x++) {
-			for (int y=0; y<height; y++) {
-				rgbAt(x, y, frgb);
-
-				frgb[0] *= intensityMultiplier;
-				frgb[1] *= intensityMultiplier;
-				frgb[2] *= intensityMultiplier;
-
-				float max = DomeMath.max(1f, frgb[0], frgb[1], frgb[2]);
-				rgb[0] = (int) ((frgb[0] / max) * 255);
-				rgb[1] = (int) ((frgb[1] / max) * 255);
-				rgb[2] = (int) ((frgb[2] / max) * 255);
-
-				int average = Math.max(rgb[0], Math.max(rgb[1], rgb[2]));
-
-				rgb[0] = rgb[0] < 5 ? 0 : rgb[0];
-				rgb[1] = rgb[1] < 5 ? 0 : rgb[1];
-				rgb[2] = rgb[2] < 5 ? 0 : rgb[2];
-
-				image.setRGB(
-					x,
-					y,
-					(average << 24) | (rgb[0] << 16) | (rgb[1] << 8) | (rgb[2] << 0)
-				);
-			}
-		}
+	/**
+	 * Clips a dye value to 0-1, treating traces as nothing, as {@link #rgbAt(int, int, float[])} does.
+	 */
+	private static float dye(final float value) {
+		return Math.min(1f, Math.max(0f, value < 0.0001 ? 0.000f : value));
 	}
 
 	public BufferedImage getImage() {
 		return image;
 	}
 
-	private void setSize(final int size) {
+	public int getSize() {
+		return currentSize;
+	}
+
+	/**
+	 * Asks for the fluid to be resized once the requested size has stopped changing. Safe to call from any thread; the
+	 * resize happens in a later {@link #update} call.
+	 */
+	public void requestSize(final int size) {
+		sizeRequestedAt = System.nanoTime();
+		requestedSize = size;
+	}
+
+	private void applyRequestedSize() {
+		final int size = requestedSize;
+
+		if (size != currentSize && System.nanoTime() - sizeRequestedAt >= RESIZE_DEBOUNCE_NANOS) {
+			setSize(size);
+		}
+	}
+
+	/**
+	 * Changes the number of cells along each side of the fluid right away. The current fluid, including anything added
+	 * since the last update, is resampled to the new size so it carries on without a visible jump. Must be called from
+	 * the thread that updates the canvas.
+	 */
+	public void setSize(final int size) {
+		requestedSize = size;
+
 		if (size != currentSize) {
-			float viscosity = 0.00023f;
-			float deltaT = 0.8f;
-			float fadeSpeed = 0.015f;
-
-			if (fluidSolver != null) {
-				viscosity = fluidSolver.getVisc();
-				deltaT = fluidSolver.getDeltaT();
-				fadeSpeed = fluidSolver.getFadeSpeed();
+			this.currentSize = size;
+			replaceSolver(isParallelFaster(size));
+		}
+	}
+
+	/**
+	 * Switches between the serial and parallel solvers when the background timing has settled which is faster at the
+	 * current size.
+	 */
+	private void applySolverChoice() {
+		if (SOLVER_PARALLELISM > 1) {
+			final boolean parallel = isParallelFaster(currentSize);
+
+			if (parallel != (fluidSolver instanceof ParallelMSAFluidSolver2D)) {
+				replaceSolver(parallel);
 			}
+		}
+	}
 
-			this.currentSize = size;
-			fluidSolver = new MSAFluidSolver2D(size, size);
+	/**
+	 * Builds a solver of the current size, carrying over the settings and fluid of the current one.
+	 */
+	private void replaceSolver(final boolean parallel) {
+		final MSAFluidSolver2D previousSolver = fluidSolver;
+		final int size = currentSize;
+
+		fluidSolver = parallel
+			? new ParallelMSAFluidSolver2D(size, size, solverExecutor(), SOLVER_PARALLELISM)
+			: new MSAFluidSolver2D(size, size);
+		fluidSolver.enableRGB(true);
+
+		if (previousSolver != null) {
 			fluidSolver
-				.enableRGB(true)
-				.setVisc(viscosity)
-				.setDeltaT(deltaT)
-				.setFadeSpeed(fadeSpeed);
-
-			this.image = new BufferedImage(
-				fluidSolver.getWidth(),
-				fluidSolver.getHeight(),
-				BufferedImage.TYPE_INT_ARGB
-			);
+				.setVisc(previousSolver.getVisc())
+				.setDeltaT(previousSolver.getDeltaT())
+				.setFadeSpeed(previousSolver.getFadeSpeed())
+				.setSolverIterations(previousSolver.getSolverIterations());
+
+			fluidSolver.resampleFrom(previousSolver);
+		} else {
+			fluidSolver
+				.setVisc(0.00023f)
+				.setDeltaT(0.8f)
+				.setFadeSpeed(0.015f);
+		}
+
+		this.image = new BufferedImage(
+			fluidSolver.getWidth(),
+			fluidSolver.getHeight(),
+			BufferedImage.TYPE_INT_ARGB
+		);
+	}
+
+	public int getSolverIterations() {
+		return fluidSolver.getSolverIterations();
+	}
+
+	public void setSolverIterations(final int solverIterations) {
+		fluidSolver.setSolverIterations(solverIterations);
+	}
+
+	private ExecutorService solverExecutor() {
+		if (solverExecutor == null) {
+			solverExecutor = ParallelMSAFluidSolver2D.newExecutor(SOLVER_PARALLELISM);
+		}
+
+		return solverExecutor;
+	}
+
+	/**
+	 * @return Whether the parallel solver should be used at the given size, as far as is known yet. Never blocks: sizes
+	 * that haven't been timed are solved serially in the meantime. Beyond the calibrated sizes, where the parallel solver
+	 * tends to pull ahead, a size the calibration didn't settle is timed the first time it is used.
+	 */
+	private boolean isParallelFaster(final int size) {
+		if (SOLVER_PARALLELISM <= 1) return false;
+
+		final int minSize = parallelMinSize;
+		if (minSize < 0) {
+			startCalibration(solverExecutor());
+			return false;
 		}
+
+		if (size >= minSize) return true;
+		if (size <= CALIBRATION_SIZES[CALIBRATION_SIZES.length - 1]) return false;
+
+		final Boolean faster = parallelFasterAboveCalibration.get(size);
+		if (faster == null) {
+			startTiming(size, solverExecutor());
+			return false;
+		}
+
+		return faster;
+	}
+
+	private static void startCalibration(final ExecutorService executor) {
+		if (! calibrationStarted.compareAndSet(false, true)) return;
+
+		final Integer configuredMinSize = Integer.getInteger(PARALLEL_MIN_SIZE_PROPERTY);
+		if (configuredMinSize != null) {
+			parallelMinSize = configuredMinSize;
+			return;
+		}
+
+		calibrationExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final int minSize = calibrateParallelMinSize(executor);
+				System.out.println("Solving fluid on " + SOLVER_PARALLELISM + " threads from size " + minSize);
+
+				parallelMinSize = minSize;
+			}
+		});
+	}
+
+	private static void startTiming(final int size, final ExecutorService executor) {
+		if (! sizesBeingTimed.add(size)) return;
+
+		calibrationExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final boolean faster = isParallelClearlyFaster(size, executor);
+				System.out.println("Solving fluid of size " + size + " on " + (faster ? SOLVER_PARALLELISM : 1) + " threads");
+
+				parallelFasterAboveCalibration.put(size, faster);
+			}
+		});
+	}
+
+	/**
+	 * Times the serial and parallel solvers at a few sizes on this machine.
+	 *
+	 * @return The smallest size at which the parallel solver was clearly faster, or {@link Integer#MAX_VALUE} if it
+	 * never was.
+	 */
+	private static int calibrateParallelMinSize(final ExecutorService executor) {
+		for (int size : CALIBRATION_SIZES) {
+			if (isParallelClearlyFaster(size, executor)) {
+				return size;
+			}
+		}
+
+		return Integer.MAX_VALUE;
+	}
+
+	private static boolean isParallelClearlyFaster(final int size, final ExecutorService executor) {
+		final double serialMillis = MSAFluidTiming.measure(
+			new MSAFluidSolver2D(size, size),
+			CALIBRATION_WARMUP_NANOS,
+			CALIBRATION_MEASURE_NANOS
+		);
+
+		final double parallelMillis = MSAFluidTiming.measure(
+			new ParallelMSAFluidSolver2D(size, size, executor, SOLVER_PARALLELISM),
+			CALIBRATION_WARMUP_NANOS,
+			CALIBRATION_MEASURE_NANOS
+		);
+
+		return parallelMillis < serialMillis * CALIBRATION_MARGIN;
 	}
 
 	public int getWidth() {
@@ -9,25 +9,45 @@ import org.hypher.gradientea.geometry.shared.GradienTeaDomeGeometry;
 import org.hypher.gradientea.geometry.shared.GradienTeaDomeSpec;
 
 /**
+ * A single dome being driven by the controller. An output may have several canvases so that one frame can be drawn
+ * while an earlier one is being mapped and sent: programs draw into {@link #getCanvas()}, while {@link #send()} sends
+ * {@link #getOutputCanvas()}. With a single canvas the two are the same.
+ *
 * @author Yona Appletree (yona@concentricsky.com)
 */
 public class DomeOutput {
 	private UdpDomeClient transport;
 	private GradienTeaDomeGeometry geometry;
-	private DomePixelCanvas canvas;
+	private DomePixelCanvas[] canvases;
 	private DomeImageMapper imageMapper;
 
+	private volatile DomePixelCanvas drawCanvas;
+	private volatile DomePixelCanvas outputCanvas;
+
 	private final int portOffset;
 
 	public DomeOutput(
 		final GradienTeaDomeSpec spec,
 		int portOffset
+	) {
+		this(spec, portOffset, 1);
+	}
+
+	public DomeOutput(
+		final GradienTeaDomeSpec spec,
+		int portOffset,
+		int canvasCount
 	) {
 		this.geometry = new GradienTeaDomeGeometry(spec);
 		this.transport = new UdpDomeClient();
-		this.canvas = new DomePixelCanvas(PixelCompositor.REPLACE, geometry);
 		this.imageMapper = new DomeImageMapper(geometry);
 
+		this.canvases = new DomePixelCanvas[canvasCount];
+		for (int i=0; i<canvasCount; i++) {
+			canvases[i] = new DomePixelCanvas(PixelCompositor.REPLACE, geometry);
+		}
+		this.drawCanvas = this.outputCanvas = canvases[0];
+
 		this.portOffset = portOffset;
 	}
 
@@ -51,8 +71,34 @@ public class DomeOutput {
 		return geometry;
 	}
 
+	/**
+	 * @return The canvas for the frame currently being drawn.
+	 */
 	public DomePixelCanvas getCanvas() {
-		return canvas;
+		return drawCanvas;
+	}
+
+	/**
+	 * @return The canvas for the frame currently being mapped and sent.
+	 */
+	public DomePixelCanvas getOutputCanvas() {
+		return outputCanvas;
+	}
+
+	public DomePixelCanvas getCanvas(int index) {
+		return canvases[index];
+	}
+
+	public int getCanvasCount() {
+		return canvases.length;
+	}
+
+	public void selectDrawCanvas(int index) {
+		drawCanvas = canvases[index];
+	}
+
+	public void selectOutputCanvas(int index) {
+		outputCanvas = canvases[index];
 	}
 
 	public DomeImageMapper getImageMapper() {
@@ -60,6 +106,6 @@ public class DomeOutput {
 	}
 
 	public void send() {
-		transport.displayFrame(canvas.render());
+		transport.displayFrame(outputCanvas.render());
 	}
 }
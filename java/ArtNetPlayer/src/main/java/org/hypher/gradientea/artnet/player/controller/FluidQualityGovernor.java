@@ -0,0 +1,210 @@
+package org.hypher.gradientea.artnet.player.controller;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Trades fluid quality for frame rate. The governor watches how much of each frame period the render loop spends
+ * working, and waiting on the output stage while rendering is what holds it up, and steps the {@link DomeFluidCanvas}
+ * through a ladder of {@link QualityLevel}s: down a level when frames have been running close to the budget, and up a
+ * level when there has been plenty of headroom for a while.
+ *
+ * <p>To keep the picture from flickering between two levels, the load has to stay past a threshold for a number of
+ * frames before anything changes, the thresholds for going up and down are far apart, and nothing changes again until
+ * the load has settled at the new level. If raising the quality has to be undone, the governor waits twice as long
+ * before trying again.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class FluidQualityGovernor {
+	/**
+	 * The quality levels, lowest first.
+	 */
+	public static final List<QualityLevel> LEVELS = ImmutableList.of(
+		new QualityLevel(20, 4),
+		new QualityLevel(24, 6),
+		new QualityLevel(32, 8),
+		new QualityLevel(40, 10),
+		new QualityLevel(48, 10),
+		new QualityLevel(64, 10),
+		new QualityLevel(80, 10)
+	);
+
+	/** The fraction of the frame period above which the quality is lowered. */
+	private static final double DOWNGRADE_LOAD = 0.85;
+
+	/** The fraction of the frame period below which the quality is raised. */
+	private static final double UPGRADE_LOAD = 0.5;
+
+	/** How much each frame moves the smoothed load. */
+	private static final double LOAD_SMOOTHING = 0.1;
+
+	private static final int DOWNGRADE_FRAMES = 15;
+	private static final int UPGRADE_FRAMES = 90;
+	private static final int MAX_UPGRADE_FRAMES = 90 * 16;
+
+	/** Frames to wait after a change before the load is trusted again. */
+	private static final int SETTLE_FRAMES = 30;
+
+	private final DomeFluidCanvas fluidCanvas;
+
+	private boolean enabled = false;
+	private int levelIndex;
+
+	/**
+	 * The fluid size the governor last set or saw, which may be off the ladder if it was chosen by hand.
+	 */
+	private int knownSize;
+
+	private double smoothedLoad = 0;
+	private int framesOverloaded = 0;
+	private int framesIdle = 0;
+	private int framesSinceChange = 0;
+	private int upgradeFrames = UPGRADE_FRAMES;
+	private boolean lastChangeWasUpgrade = false;
+
+	public FluidQualityGovernor(final DomeFluidCanvas fluidCanvas) {
+		this.fluidCanvas = fluidCanvas;
+		this.levelIndex = nearestLevel(fluidCanvas.getSize());
+		this.knownSize = fluidCanvas.getSize();
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	/**
+	 * Records how long the render loop took over a frame, including any time spent waiting for the output stage that
+	 * rendering is to blame for, and changes the quality if needed. Must be called from the render thread, between
+	 * frames.
+	 */
+	public void recordFrame(final long frameNanos, final long periodNanos) {
+		if (! enabled) return;
+
+		if (fluidCanvas.getSize() != knownSize) {
+			// The size was changed by hand, so carry on from the level closest to it, keeping the chosen size until
+			// the load calls for a change
+			levelIndex = nearestLevel(fluidCanvas.getSize());
+			knownSize = fluidCanvas.getSize();
+			changed(false);
+		}
+
+		smoothedLoad += ((double) frameNanos / periodNanos - smoothedLoad) * LOAD_SMOOTHING;
+
+		if (++ framesSinceChange < SETTLE_FRAMES) {
+			return;
+		}
+
+		framesOverloaded = smoothedLoad > DOWNGRADE_LOAD ? framesOverloaded + 1 : 0;
+		framesIdle = smoothedLoad < UPGRADE_LOAD ? framesIdle + 1 : 0;
+
+		if (framesOverloaded >= DOWNGRADE_FRAMES && levelIndex > 0) {
+			if (lastChangeWasUpgrade && framesSinceChange < upgradeFrames) {
+				// The last upgrade didn't hold, so be slower to try it again
+				upgradeFrames = Math.min(MAX_UPGRADE_FRAMES, upgradeFrames * 2);
+			}
+
+			levelIndex --;
+			apply();
+			changed(false);
+		} else if (framesIdle >= upgradeFrames && levelIndex < LEVELS.size() - 1) {
+			levelIndex ++;
+			apply();
+			changed(true);
+		} else if (framesSinceChange > MAX_UPGRADE_FRAMES) {
+			// Stable for a long time, so forget about earlier failed upgrades
+			upgradeFrames = UPGRADE_FRAMES;
+		}
+	}
+
+	/**
+	 * @return A description of the current quality for display, such as "4/7: 40 cells, 10 iterations".
+	 */
+	public String describeLevel() {
+		return (levelIndex + 1) + "/" + LEVELS.size() + ": " + getLevel() + (enabled ? "" : " (manual)");
+	}
+
+	//endregion
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	private void apply() {
+		final QualityLevel level = getLevel();
+
+		fluidCanvas.setSize(level.size);
+		fluidCanvas.setSolverIterations(level.solverIterations);
+		knownSize = level.size;
+	}
+
+	private void changed(final boolean upgrade) {
+		framesSinceChange = 0;
+		framesOverloaded = 0;
+		framesIdle = 0;
+		lastChangeWasUpgrade = upgrade;
+	}
+
+	private static int nearestLevel(final int size) {
+		int nearest = 0;
+
+		for (int i=1; i<LEVELS.size(); i++) {
+			if (Math.abs(LEVELS.get(i).size - size) < Math.abs(LEVELS.get(nearest).size - size)) {
+				nearest = i;
+			}
+		}
+
+		return nearest;
+	}
+
+	//endregion
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turns the governor on or off. When turned on it starts from the level closest to the fluid's current size; when
+	 * turned off the quality stays wherever it was.
+	 */
+	public void setEnabled(final boolean enabled) {
+		if (enabled && ! this.enabled) {
+			levelIndex = nearestLevel(fluidCanvas.getSize());
+			apply();
+			changed(false);
+			upgradeFrames = UPGRADE_FRAMES;
+		}
+
+		this.enabled = enabled;
+	}
+
+	public QualityLevel getLevel() {
+		return LEVELS.get(levelIndex);
+	}
+
+	public double getSmoothedLoad() {
+		return smoothedLoad;
+	}
+
+	//endregion
+
+	/**
+	 * A fluid resolution and the number of solver iterations to use with it.
+	 */
+	public static class QualityLevel {
+		public final int size;
+		public final int solverIterations;
+
+		public QualityLevel(final int size, final int solverIterations) {
+			this.size = size;
+			this.solverIterations = solverIterations;
+		}
+
+		@Override
+		public String toString() {
+			return size + " cells, " + solverIterations + " iterations";
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package org.hypher.gradientea.artnet.player.controller;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a render loop on a fixed timestep. Frames are due at multiples of the frame period measured from the first
+ * frame, using {@link System#nanoTime()}, so the time taken to render a frame never pushes later frames back.
+ *
+ * <p>When a frame finishes more than a whole period late, the {@link LatePolicy} decides whether the missed frames are
+ * rendered back-to-back to catch up, or dropped so the loop rejoins the schedule at the next due frame.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class FrameScheduler {
+	public enum LatePolicy {
+		/** Drop missed frames and wait for the next frame on the schedule. */
+		SKIP,
+
+		/** Render missed frames without waiting, up to {@link #getMaxCatchUpFrames()}, then skip the rest. */
+		CATCH_UP
+	}
+
+	private volatile double fps;
+	private volatile LatePolicy latePolicy = LatePolicy.SKIP;
+	private volatile int maxCatchUpFrames = 3;
+
+	private boolean started = false;
+	private long nextDeadline;
+
+	private volatile long frameCount = 0;
+	private volatile long lateFrameCount = 0;
+	private volatile long skippedFrameCount = 0;
+
+	public FrameScheduler(final double fps) {
+		setFps(fps);
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	/**
+	 * Blocks until the next frame is due. Must only be called from the render thread.
+	 */
+	public void awaitNextFrame() {
+		final long period = getPeriodNanos();
+		long now = System.nanoTime();
+
+		if (! started) {
+			started = true;
+			nextDeadline = now;
+		}
+
+		for (long remaining = nextDeadline - now; remaining > 0; remaining = nextDeadline - now) {
+			LockSupport.parkNanos(remaining);
+			now = System.nanoTime();
+		}
+
+		final long due = nextDeadline;
+		final long missedFrames = (now - due) / period;
+
+		if (missedFrames > 0) {
+			lateFrameCount ++;
+
+			if (latePolicy == LatePolicy.SKIP || missedFrames > maxCatchUpFrames) {
+				skippedFrameCount += missedFrames;
+				nextDeadline = due + (missedFrames + 1) * period;
+				frameCount ++;
+				return;
+			}
+		}
+
+		nextDeadline = due + period;
+		frameCount ++;
+	}
+
+	//endregion
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	public double getFps() {
+		return fps;
+	}
+
+	/**
+	 * Changes the target frame rate. Takes effect from the next frame.
+	 */
+	public void setFps(final double fps) {
+		if (fps <= 0) throw new IllegalArgumentException("fps must be positive");
+		this.fps = fps;
+	}
+
+	public long getPeriodNanos() {
+		return (long) (1e9 / fps);
+	}
+
+	public LatePolicy getLatePolicy() {
+		return latePolicy;
+	}
+
+	public void setLatePolicy(final LatePolicy latePolicy) {
+		this.latePolicy = latePolicy;
+	}
+
+	public int getMaxCatchUpFrames() {
+		return maxCatchUpFrames;
+	}
+
+	public void setMaxCatchUpFrames(final int maxCatchUpFrames) {
+		this.maxCatchUpFrames = maxCatchUpFrames;
+	}
+
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return The number of frames that started more than a whole period after they were due.
+	 */
+	public long getLateFrameCount() {
+		return lateFrameCount;
+	}
+
+	/**
+	 * @return The number of scheduled frames that were dropped rather than rendered.
+	 */
+	public long getSkippedFrameCount() {
+		return skippedFrameCount;
+	}
+
+	//endregion
+}
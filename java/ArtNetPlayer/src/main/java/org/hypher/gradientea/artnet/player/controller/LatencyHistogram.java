@@ -0,0 +1,107 @@
+package org.hypher.gradientea.artnet.player.controller;
+
+/**
+ * A fixed-size histogram of durations in nanoseconds, in the style of HdrHistogram. Each power of two is split into
+ * {@value #SUB_BUCKETS} linear buckets, so any recorded value can be recovered to within about 3% while recording
+ * stays a constant-time array increment. Values beyond about 18 minutes are clamped.
+ *
+ * <p>Methods are synchronized; a single render thread records while other threads read.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_VALUE_BITS = 40;
+
+	private final long[] counts = new long[bucketIndex((1L << MAX_VALUE_BITS) - 1) + 1];
+
+	private long totalCount = 0;
+	private long totalNanos = 0;
+	private long maxNanos = 0;
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	public synchronized void record(final long nanos) {
+		final long value = Math.max(0, Math.min(nanos, (1L << MAX_VALUE_BITS) - 1));
+
+		counts[bucketIndex(value)] ++;
+		totalCount ++;
+		totalNanos += value;
+		maxNanos = Math.max(maxNanos, value);
+	}
+
+	/**
+	 * @param percentile A percentile between 0 and 100.
+	 * @return The smallest value which at least the given percentage of recorded values are less than or equal to, or
+	 * zero if nothing has been recorded.
+	 */
+	public synchronized long percentileNanos(final double percentile) {
+		if (totalCount == 0) return 0;
+
+		final long threshold = Math.max(1, (long) Math.ceil(totalCount * Math.min(100, percentile) / 100.0));
+
+		long count = 0;
+		for (int i=0; i<counts.length; i++) {
+			count += counts[i];
+
+			if (count >= threshold) {
+				return Math.min(maxNanos, bucketHighestValue(i));
+			}
+		}
+
+		return maxNanos;
+	}
+
+	public synchronized double meanNanos() {
+		return totalCount == 0 ? 0 : (double) totalNanos / totalCount;
+	}
+
+	public synchronized long maxNanos() {
+		return maxNanos;
+	}
+
+	public synchronized long count() {
+		return totalCount;
+	}
+
+	public synchronized void reset() {
+		for (int i=0; i<counts.length; i++) {
+			counts[i] = 0;
+		}
+
+		totalCount = 0;
+		totalNanos = 0;
+		maxNanos = 0;
+	}
+
+	//endregion
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	private static int bucketIndex(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		final int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		final int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long bucketHighestValue(final int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		final int shift = index / SUB_BUCKETS - 1;
+		final long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	//endregion
+}
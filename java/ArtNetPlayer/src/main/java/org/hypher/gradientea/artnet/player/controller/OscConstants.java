@@ -16,10 +16,27 @@ public interface OscConstants {
 			String FIRE = "/gt/status/controller/fire";
 			String DEBUG = "/gt/status/controller/debug";
 		}
+
+		interface Render {
+			String FPS = "/gt/status/render/fps";
+			String SKIPPED_FRAMES = "/gt/status/render/skipped";
+			String FLUID_QUALITY = "/gt/status/render/fluidQuality";
+
+			/** Followed by the lower-case name of a {@link RenderStats.Stage} */
+			String STAGE_PREFIX = "/gt/status/render/stage/";
+
+			/** Followed by the index of an output */
+			String OUTPUT_PREFIX = "/gt/status/render/output/";
+		}
+
+		interface Audio {
+			String OVERRUNS = "/gt/status/audio/overruns";
+		}
 	}
 
 	interface Control {
 		String OVERALL_BRIGHTNESS = "/gt/control/fluid/intensityMultiplier";
+		String TARGET_FPS = "/gt/control/render/targetFps";
 
 		interface Presets {
 			String OFF = "/gt/control/presets/off";
@@ -37,12 +54,17 @@ public interface OscConstants {
 
 			String SHOW_DOME_OVERLAY_1 = "/gt/control/fluid/overlay/1";
 			String SHOW_DOME_OVERLAY_2 = "/gt/control/fluid/overlay/2";
+
+			String ROTATION_1 = "/gt/control/fluid/rotation/1";
+			String ROTATION_2 = "/gt/control/fluid/rotation/2";
 			String SHOW_OVERLAY_ADDRESSES = "/gt/control/fluid/overlay/addresses";
 			String SHOW_OUTPUT_OVERLAY = "/gt/control/fluid/overlay/output";
 			String SHOW_FLUID_OVERLAY = "/gt/control/fluid/overlay/fluid";
 			String SHOW_VERTICES = "/gt/control/fluid/overlay/vertices";
 			String SHOW_OUTLINE = "/gt/control/fluid/overlay/outline";
 			String BRIGHTNESS_PALETTE = "/gt/control/fluid/brightnessPalette";
+			String AREA_SAMPLING = "/gt/control/fluid/areaSampling";
+			String AUTO_QUALITY = "/gt/control/fluid/autoQuality";
 		}
 
 		interface Music {
@@ -61,6 +83,9 @@ public interface OscConstants {
 			String EMITTER_MOVEMENT = "/gt/control/music/emitterMovement";
 			String SHOW_HISTOGRAM = "/gt/control/music/showHistogram";
 			String SHOW_EMITTERS = "/gt/control/music/showEmitters";
+
+			String BEAT_SYNC = "/gt/control/music/beatSync";
+			String BEAT_LOOKAHEAD = "/gt/control/music/beatLookahead";
 		}
 
 		interface Perlin {
@@ -3,8 +3,10 @@ package org.hypher.gradientea.artnet.player.controller;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 import org.hypher.gradientea.artnet.player.DomeColorManager;
+import org.hypher.gradientea.artnet.player.animations.DomeImageMapper;
 import org.hypher.gradientea.artnet.player.controller.programs.DebugProgram;
 import org.hypher.gradientea.artnet.player.controller.programs.DomeAnimationProgram;
 import org.hypher.gradientea.artnet.player.controller.programs.DoorLightAnimation;
@@ -15,19 +17,35 @@ import org.hypher.gradientea.artnet.player.controller.programs.MusicControlProgr
 import org.hypher.gradientea.artnet.player.controller.programs.OffProgram;
 import org.hypher.gradientea.artnet.player.controller.programs.PerlinNoiseProgram;
 import org.hypher.gradientea.artnet.player.io.ArduinoLedPanelOutput;
+import org.hypher.gradientea.artnet.player.io.GlobalAudioReader;
+import org.hypher.gradientea.artnet.player.io.audio.BeatTracker;
 import org.hypher.gradientea.artnet.player.io.kinect.KinectDisplay;
 import org.hypher.gradientea.artnet.player.io.kinect.KinectInput;
 import org.hypher.gradientea.artnet.player.io.osc.OscHelper;
 import org.hypher.gradientea.geometry.shared.GradienTeaDomeSpecs;
 
+import javax.management.ObjectName;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.VolatileImage;
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static org.hypher.gradientea.artnet.player.io.osc.OscHelper.booleanValue;
 
@@ -35,14 +53,24 @@ import static org.hypher.gradientea.artnet.player.io.osc.OscHelper.booleanValue;
  * Prototype controller for the gradientea dome. Provides the underlying drawing canvases, high-level OSC control,
  * and debug UI.
  *
+ * <p>Rendering is pipelined over three threads. The render thread runs the active program and the fluid simulation
+ * into a {@link PipelineFrame}, the output thread maps that frame onto each dome and sends it, and the preview thread
+ * paints the most recently sent frame into the status window. Frames are recycled through a pair of queues, so the
+ * render thread can work on one frame while the output thread sends the previous one, and the frame rate is bounded
+ * by the slowest stage rather than the sum of them. Everything the preview paints travels in the frame, including the
+ * program's overlay, so painting never waits on the render thread.</p>
+ *
  * @author Yona Appletree (yona@concentricsky.com)
  */
 public class PrototypeController implements Runnable, DomeController {
 	public static final int FPS = 30;
+	public static final int PIPELINE_DEPTH = 4;
+	public static final String RENDER_STATS_OBJECT_NAME = "org.hypher.gradientea:type=RenderStats";
 	public static final File STATE_FILE = new File("/tmp/gradienTeaConfig.xml");
 
 	private String domeControllerHost;
 	private DomeFluidCanvas fluidCanvas;
+	private FluidQualityGovernor fluidGovernor;
 	private List<DomeOutput> outputs = Lists.newArrayList();
 
 	private OscHelper.OscBoolean oscHeartBeat = booleanValue(OscConstants.Status.HEART_BEAT, false);
@@ -65,10 +93,15 @@ public class PrototypeController implements Runnable, DomeController {
 	private OscHelper.OscDouble oscOverallFluidIntensity = OscHelper.doubleValue(OscConstants.Control.OVERALL_BRIGHTNESS, .1, 6, 3);
 
 	private OscHelper.OscBoolean oscBrightnessPalette = OscHelper.booleanValue(OscConstants.Control.Fluid.BRIGHTNESS_PALETTE, true);
+	private OscHelper.OscBoolean oscAreaSampling = OscHelper.booleanValue(OscConstants.Control.Fluid.AREA_SAMPLING, true);
+	private OscHelper.OscBoolean oscAutoQuality = OscHelper.booleanValue(OscConstants.Control.Fluid.AUTO_QUALITY, true);
 
 	private OscHelper.OscBoolean oscShowDome1Overlay = OscHelper.booleanValue(OscConstants.Control.Fluid.SHOW_DOME_OVERLAY_1, true);
 	private OscHelper.OscBoolean oscShowDome2Overlay = OscHelper.booleanValue(OscConstants.Control.Fluid.SHOW_DOME_OVERLAY_2, false);
 
+	private OscHelper.OscDouble oscDome1Rotation = OscHelper.doubleValue(OscConstants.Control.Fluid.ROTATION_1, 0, 2*Math.PI, DomeImageMapper.DEFAULT_ROTATION_RADIANS);
+	private OscHelper.OscDouble oscDome2Rotation = OscHelper.doubleValue(OscConstants.Control.Fluid.ROTATION_2, 0, 2*Math.PI, DomeImageMapper.DEFAULT_ROTATION_RADIANS);
+
 	private OscHelper.OscBoolean oscShowOverlayAddresses = OscHelper.booleanValue(OscConstants.Control.Fluid.SHOW_OVERLAY_ADDRESSES, true);
 	private OscHelper.OscBoolean oscShowOutputOverlay = OscHelper.booleanValue(OscConstants.Control.Fluid.SHOW_OUTPUT_OVERLAY, true);
 	private OscHelper.OscBoolean oscShowFluidOverlay = OscHelper.booleanValue(OscConstants.Control.Fluid.SHOW_FLUID_OVERLAY, true);
@@ -83,8 +116,40 @@ public class PrototypeController implements Runnable, DomeController {
 
 	private long frameCounter = 0;
 
+	private FrameScheduler scheduler = new FrameScheduler(FPS);
+	private RenderStats renderStats;
+	private long stageStart;
+	private long lastStatsPublished = System.nanoTime();
+
+	private OscHelper.OscDouble oscTargetFps = OscHelper.doubleValue(OscConstants.Control.TARGET_FPS, 10, 60, FPS);
+	private double appliedOscTargetFps = Double.NaN;
+	private OscHelper.OscText oscRenderFps = OscHelper.textValue(OscConstants.Status.Render.FPS);
+	private OscHelper.OscText oscSkippedFrames = OscHelper.textValue(OscConstants.Status.Render.SKIPPED_FRAMES);
+	private OscHelper.OscText oscFluidQuality = OscHelper.textValue(OscConstants.Status.Render.FLUID_QUALITY);
+	private OscHelper.OscText oscAudioOverruns = OscHelper.textValue(OscConstants.Status.Audio.OVERRUNS);
+	private Map<RenderStats.Stage, OscHelper.OscText> oscStageTimes = Maps.newEnumMap(RenderStats.Stage.class);
+	private List<OscHelper.OscText> oscOutputTimes = Lists.newArrayList();
+
 	private DoorLightAnimation doorProgram = new DoorLightAnimation();
 
+	private BlockingQueue<PipelineFrame> freeFrames = new ArrayBlockingQueue<PipelineFrame>(PIPELINE_DEPTH);
+	private BlockingQueue<PipelineFrame> readyFrames = new ArrayBlockingQueue<PipelineFrame>(PIPELINE_DEPTH);
+	private PipelineFrame drawFrame;
+
+	private final Lock presentLock = new ReentrantLock();
+	private PipelineFrame presentedFrame;
+
+	private Thread outputThread;
+	private Thread previewThread;
+
+	private ExecutorService outputExecutor;
+	private List<Callable<Void>> mapTasks = Lists.newArrayList();
+	private List<Callable<Void>> sendTasks = Lists.newArrayList();
+	private volatile PipelineFrame outputtingFrame;
+
+	/** How long the output thread took to map and send the last frame. */
+	private volatile long lastOutputNanos;
+
 	public static void main(String[] args) {
 		new PrototypeController(args.length > 0 ? args[0] : "localhost").start();
 	}
@@ -92,9 +157,16 @@ public class PrototypeController implements Runnable, DomeController {
 	public PrototypeController(final String domeControllerHost) {
 		this.domeControllerHost = domeControllerHost;
 		this.fluidCanvas = new DomeFluidCanvas();
+		this.fluidGovernor = new FluidQualityGovernor(fluidCanvas);
 
-		outputs.add(new DomeOutput(GradienTeaDomeSpecs.PROTOTYPE_DOME, 0));
-		outputs.add(new DomeOutput(GradienTeaDomeSpecs.GRADIENTEA_DOME, 1));
+		outputs.add(new DomeOutput(GradienTeaDomeSpecs.PROTOTYPE_DOME, 0, PIPELINE_DEPTH));
+		outputs.add(new DomeOutput(GradienTeaDomeSpecs.GRADIENTEA_DOME, 1, PIPELINE_DEPTH));
+
+		for (int i=0; i<PIPELINE_DEPTH; i++) {
+			freeFrames.add(new PipelineFrame(i));
+		}
+
+		renderStats = new RenderStats(scheduler, outputs.size());
 
 		addProgram(new OffProgram());
 		addProgram(new DebugProgram());
@@ -106,6 +178,17 @@ public class PrototypeController implements Runnable, DomeController {
 		if (KinectInput.instance().isKinectEnabled()) {
 			addProgram(new MotionControlProgram());
 		}
+
+		for (RenderStats.Stage stage : RenderStats.Stage.values()) {
+			oscStageTimes.put(
+				stage,
+				OscHelper.textValue(OscConstants.Status.Render.STAGE_PREFIX + stage.name().toLowerCase())
+			);
+		}
+
+		for (int i=0; i<outputs.size(); i++) {
+			oscOutputTimes.add(OscHelper.textValue(OscConstants.Status.Render.OUTPUT_PREFIX + i));
+		}
 	}
 
 	private void addProgram(DomeAnimationProgram program) {
@@ -175,7 +258,16 @@ public class PrototypeController implements Runnable, DomeController {
 				} while(volatileImg.contentsLost());
 			}
 
-			private synchronized void offscreenPaint(final Graphics2D g) {
+			private void offscreenPaint(final Graphics2D g) {
+				presentLock.lock();
+				try {
+					offscreenPaint(g, presentedFrame);
+				} finally {
+					presentLock.unlock();
+				}
+			}
+
+			private void offscreenPaint(final Graphics2D g, final PipelineFrame frame) {
 				g.setRenderingHint(
 					RenderingHints.KEY_ANTIALIASING,
 					RenderingHints.VALUE_ANTIALIAS_ON
@@ -188,6 +280,8 @@ public class PrototypeController implements Runnable, DomeController {
 				g.setColor(Color.black);
 				g.fillRect(0, 0, getWidth(), getHeight());
 
+				if (frame == null) return;
+
 				int fluidCanvasWidth = fluidCanvas.getWidth();
 				int fluidCanvasHeight = fluidCanvas.getHeight();
 
@@ -198,9 +292,7 @@ public class PrototypeController implements Runnable, DomeController {
 				double pixelWidth = simDrawSize / fluidCanvasWidth;
 				double pixelHeight = simDrawSize / fluidCanvasHeight;
 
-				float[] rgb = new float[3];
-
-				Image scaledFluid = fluidCanvas.getImage();
+				Image scaledFluid = frame.hasImage ? frame.image : null;
 
 				for (int i=0; i<outputs.size(); i++) {
 					if ((i==0 && oscShowDome1Overlay.value()) || (i==1 && oscShowDome2Overlay.value())) {
@@ -218,7 +310,7 @@ public class PrototypeController implements Runnable, DomeController {
 
 						if (oscShowOutputOverlay.value()) {
 							outputs.get(i).getImageMapper().drawPanelState(
-								outputs.get(i).getCanvas(),
+								outputs.get(i).getCanvas(frame.index),
 								g,
 								0,
 								0,
@@ -231,7 +323,7 @@ public class PrototypeController implements Runnable, DomeController {
 					}
 				}
 
-				if (oscShowFluidOverlay.value()) {
+				if (oscShowFluidOverlay.value() && scaledFluid != null) {
 					try {
 						((Graphics2D) g).drawImage(
 							scaledFluid,
@@ -260,8 +352,10 @@ public class PrototypeController implements Runnable, DomeController {
 					);
 				}
 
-				// Let the current program draw if it would like
-				activeProgram().drawOverlay(g, getWidth(), getHeight());
+				// The program's overlay was drawn on the render thread, since programs aren't thread safe
+				if (frame.hasOverlay) {
+					g.drawImage(frame.overlay, 0, 0, null);
+				}
 			}
 
 			public void update(Graphics g) {
@@ -298,11 +392,30 @@ public class PrototypeController implements Runnable, DomeController {
 
 		doorProgram.init(this);
 
+		registerRenderStats();
+
+		startOutputThread();
+		startPreviewThread();
+
 		while (true) {
-			long frameStart = System.currentTimeMillis();
+			updateTargetFps();
+			updateMapperRotations();
+			scheduler.awaitNextFrame();
+			final long waitStart = System.nanoTime();
+
+			// Blocks if the output thread has fallen behind, which the scheduler then sees as a late frame
+			final PipelineFrame frame = Uninterruptibles.takeUninterruptibly(freeFrames);
+
+			final long frameStart = System.nanoTime();
+			long outputWaitNanos = frameStart - waitStart;
+			stageStart = frameStart;
 
 			synchronized (this) {
+				drawFrame = frame;
+				frame.hasImage = false;
+
 				for (DomeOutput output : outputs) {
+					output.selectDrawCanvas(frame.index);
 					output.getCanvas().clear();
 				}
 
@@ -316,13 +429,212 @@ public class PrototypeController implements Runnable, DomeController {
 				}
 			}
 
+			final long frameNanos = System.nanoTime() - frameStart;
+			renderStats.record(RenderStats.Stage.FRAME, frameNanos);
+
+			final long putStart = System.nanoTime();
+			Uninterruptibles.putUninterruptibly(readyFrames, frame);
+			outputWaitNanos += System.nanoTime() - putStart;
+
+			// Waiting on the output stage only counts as load while rendering is the slower stage. When the output stage
+			// is slower on its own, as with a slow network, a smaller fluid wouldn't help.
+			final boolean renderBound = frameNanos >= lastOutputNanos;
+
+			fluidGovernor.setEnabled(oscAutoQuality.value());
+			fluidGovernor.recordFrame(
+				renderBound ? frameNanos + outputWaitNanos : frameNanos,
+				scheduler.getPeriodNanos()
+			);
+		}
+	}
+
+	private void startOutputThread() {
+		outputExecutor = Executors.newFixedThreadPool(
+			outputs.size(),
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Dome Output Worker %d").build()
+		);
+
+		for (int i=0; i<outputs.size(); i++) {
+			final int outputIndex = i;
+			final DomeOutput output = outputs.get(i);
+
+			mapTasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					final long start = System.nanoTime();
+					final PipelineFrame frame = outputtingFrame;
+
+					output.selectOutputCanvas(frame.index);
+
+					if (frame.hasImage) {
+						output.getImageMapper().setSamplingMode(
+							oscAreaSampling.value() ? DomeImageMapper.SamplingMode.AREA : DomeImageMapper.SamplingMode.POINT
+						);
+
+						output.getImageMapper().drawImage(
+							frame.image,
+							output.getOutputCanvas()
+						);
+					}
+
+					renderStats.recordOutput(outputIndex, RenderStats.Stage.MAP, System.nanoTime() - start);
+					return null;
+				}
+			});
+
+			sendTasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					final long start = System.nanoTime();
+
+					output.send();
+
+					renderStats.recordOutput(outputIndex, RenderStats.Stage.SEND, System.nanoTime() - start);
+					return null;
+				}
+			});
+		}
+
+		outputThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					final PipelineFrame frame = Uninterruptibles.takeUninterruptibly(readyFrames);
+
+					try {
+						outputFrame(frame);
+					} catch (Exception e) {
+						System.err.println("Failed to send frame; " + e.getClass().getSimpleName() + ": " + e.getMessage());
+						e.printStackTrace();
+					}
+
+					presentFrame(frame);
+				}
+			}
+		}, "Dome Output");
+		outputThread.setDaemon(true);
+		outputThread.start();
+	}
+
+	private void startPreviewThread() {
+		previewThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					// Woken by the output thread whenever a new frame is presented
+					LockSupport.park(this);
+
+					final long start = System.nanoTime();
+
+					statusWidget.repaint();
+
+					if (kinectWidget != null) {
+						kinectWidget.repaint();
+					}
+
+					renderStats.record(RenderStats.Stage.UI, System.nanoTime() - start);
+				}
+			}
+		}, "Dome Preview");
+		previewThread.setDaemon(true);
+		previewThread.start();
+	}
+
+	/**
+	 * Hands a sent frame to the preview thread, recycling the frame it replaces. If the preview is busy painting, the
+	 * new frame is recycled instead, so the output thread never waits on the UI.
+	 */
+	private void presentFrame(final PipelineFrame frame) {
+		PipelineFrame recycledFrame = frame;
+
+		if (presentLock.tryLock()) {
 			try {
-				final long sleepMillis = (1000 / FPS) - (System.currentTimeMillis() - frameStart);
-				Thread.sleep(Math.max(0, sleepMillis));
-			} catch (InterruptedException e) {}
+				recycledFrame = presentedFrame;
+				presentedFrame = frame;
+			} finally {
+				presentLock.unlock();
+			}
+
+			LockSupport.unpark(previewThread);
+		}
+
+		if (recycledFrame != null) {
+			freeFrames.add(recycledFrame);
+		}
+	}
+
+	private void registerRenderStats() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+				renderStats,
+				new ObjectName(RENDER_STATS_OBJECT_NAME)
+			);
+		} catch (Exception e) {
+			System.err.println("Failed to register render stats with JMX; " + e.getClass().getSimpleName() + ": " + e.getMessage());
 		}
 	}
 
+	/**
+	 * Applies frame rate changes from OSC. Only a change to the OSC value is applied, so a rate set through JMX holds
+	 * until someone moves the OSC control.
+	 */
+	private void updateTargetFps() {
+		final double oscFps = oscTargetFps.getValue();
+
+		if (oscFps != appliedOscTargetFps) {
+			appliedOscTargetFps = oscFps;
+			scheduler.setFps(oscFps);
+		}
+	}
+
+	/**
+	 * Applies rotation changes from OSC. Mappers rebuild in the background and keep mapping with their previous
+	 * rotation until the rebuild completes, so this never stalls a frame.
+	 */
+	private void updateMapperRotations() {
+		updateMapperRotation(outputs.get(0).getImageMapper(), oscDome1Rotation.getValue());
+		updateMapperRotation(outputs.get(1).getImageMapper(), oscDome2Rotation.getValue());
+	}
+
+	private static void updateMapperRotation(final DomeImageMapper mapper, final double rotationRadians) {
+		if (mapper.getRotationRadians() != rotationRadians) {
+			mapper.setRotationRadians(rotationRadians);
+		}
+	}
+
+	/**
+	 * Records the time since the end of the previous stage against the given stage.
+	 */
+	private void endStage(RenderStats.Stage stage) {
+		final long now = System.nanoTime();
+		renderStats.record(stage, now - stageStart);
+		stageStart = now;
+	}
+
+	/**
+	 * Pushes the frame rate and per-stage timings for the interval since the last call out over OSC.
+	 */
+	private void publishRenderStats() {
+		final long now = System.nanoTime();
+		final double intervalSeconds = (now - lastStatsPublished) / 1e9;
+		lastStatsPublished = now;
+
+		oscRenderFps.setValue(String.format("%.1f", renderStats.intervalFrameCount() / intervalSeconds));
+		oscSkippedFrames.setValue(String.valueOf(scheduler.getSkippedFrameCount()));
+		oscFluidQuality.setValue(fluidGovernor.describeLevel());
+		oscAudioOverruns.setValue(String.valueOf(GlobalAudioReader.getOverrunCount()));
+
+		for (Map.Entry<RenderStats.Stage, OscHelper.OscText> entry : oscStageTimes.entrySet()) {
+			entry.getValue().setValue(renderStats.intervalSummary(entry.getKey()));
+		}
+
+		for (int i=0; i<oscOutputTimes.size(); i++) {
+			oscOutputTimes.get(i).setValue(renderStats.intervalOutputSummary(i));
+		}
+
+		renderStats.resetInterval();
+	}
+
 	private void initOsc() {
 		if (STATE_FILE.exists()) {
 			OscHelper.instance().restoreState(STATE_FILE);
@@ -353,22 +665,19 @@ public class PrototypeController implements Runnable, DomeController {
 		}
 	}
 
+	/**
+	 * Sets the image for the frame being rendered. It is copied, so the caller may reuse it right away; mapping it onto
+	 * the domes happens later on the output thread.
+	 */
 	@Override
 	public void displayImage(final BufferedImage image) {
-		for (DomeOutput output : outputs) {
-			output.getImageMapper().drawImage(
-				image,
-				output.getCanvas()
-			);
-		}
-
-		if (arduinoOutput.isPresent()) {
-			arduinoOutput.get().writeImage(image);
-		}
+		drawFrame.copyImage(image);
 	}
 
 	private void heartbeat() {
-		if (frameCounter % FPS == 0) {
+		if (frameCounter % Math.max(1, Math.round(scheduler.getFps())) == 0) {
+			publishRenderStats();
+
 			oscHeartBeat.setValue(! oscHeartBeat.value());
 			OscHelper.instance().pushToKnownHosts();
 			OscHelper.instance().saveState(STATE_FILE);
@@ -380,7 +689,11 @@ public class PrototypeController implements Runnable, DomeController {
 		updatePalette();
 
 		heartbeat();
+		endStage(RenderStats.Stage.OSC);
+
 		activeProgram().update();
+		drawFrame.drawOverlay(activeProgram(), statusWidget.getWidth(), statusWidget.getHeight());
+		endStage(RenderStats.Stage.PROGRAM);
 
 		if (oscBrightnessPalette.value()) {
 			fluidCanvas.update((float) oscOverallFluidIntensity.getValue(), currentPalette);
@@ -389,39 +702,64 @@ public class PrototypeController implements Runnable, DomeController {
 			fluidCanvas.update((float) oscOverallFluidIntensity.getValue());
 		}
 
+		if (activeProgramId.isFluidBased()) {
+			drawFrame.copyImage(fluidCanvas.getImage());
+		}
+		endStage(RenderStats.Stage.FLUID);
+
 		if (KinectInput.instance().isKinectEnabled()) {
 			kinectWidget.updateDepth();
-			kinectWidget.repaint();
 		}
 
-		sendFrame();
+		// Run the door program after the panels have been calculated so it can use the rendered data
+		drawFrame.runDoorProgram = activeProgramId != DomeAnimationProgram.ProgramId.DEBUG;
+	}
 
-		// Update the status widget after sending the frame so we can display the current state of all the panels
-		statusWidget.repaint();
+	/**
+	 * Maps and sends a rendered frame. Runs on the output thread. The outputs are mapped in parallel, and only once
+	 * they have all been mapped are they sent in parallel, so every dome shows the same frame.
+	 */
+	private void outputFrame(final PipelineFrame frame) {
+		final long mapStart = System.nanoTime();
+		outputtingFrame = frame;
 
-		// Send data to arduino if possible
-		if (arduinoOutput.isPresent() && activeProgramId.isFluidBased()) {
-			arduinoOutput.get().writeImage(fluidCanvas.getImage());
-		}
-	}
+		runOutputTasks(mapTasks);
 
-	private void sendFrame() {
-		for (DomeOutput output : outputs) {
-			if (activeProgram().getProgramId().isFluidBased()) {
-				output.getImageMapper().drawImage(
-					fluidCanvas.getImage(),
-					output.getCanvas()
-				);
-			}
-		}
+		final long mapEnd = System.nanoTime();
+		renderStats.record(RenderStats.Stage.MAP, mapEnd - mapStart);
 
-		if (activeProgramId != DomeAnimationProgram.ProgramId.DEBUG) {
-			// Run the door program after the panels have been calculated so it can use the rendered data
+		if (frame.runDoorProgram) {
 			doorProgram.update();
 		}
 
-		for (DomeOutput output : outputs) {
-			output.send();
+		runOutputTasks(sendTasks);
+
+		// Send data to arduino if possible
+		if (arduinoOutput.isPresent() && frame.hasImage) {
+			arduinoOutput.get().writeImage(frame.image);
+		}
+
+		final long sendEnd = System.nanoTime();
+		renderStats.record(RenderStats.Stage.SEND, sendEnd - mapEnd);
+
+		lastOutputNanos = sendEnd - mapStart;
+	}
+
+	/**
+	 * Runs one task per output on the output worker pool and waits for all of them to finish.
+	 */
+	private void runOutputTasks(final List<Callable<Void>> tasks) {
+		try {
+			for (Future<Void> future : outputExecutor.invokeAll(tasks)) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					System.err.println("Output task failed; " + e.getCause().getClass().getSimpleName() + ": " + e.getCause().getMessage());
+					e.getCause().printStackTrace();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
@@ -446,6 +784,11 @@ public class PrototypeController implements Runnable, DomeController {
 		return fluidCanvas;
 	}
 
+	@Override
+	public BeatTracker getBeatTracker() {
+		return GlobalAudioReader.getBeatTracker();
+	}
+
 
 	private void updatePalette() {
 		DomeColorManager.DomePaletteSpec newSpec = DomeColorManager.instance().specFor(
@@ -469,6 +812,68 @@ public class PrototypeController implements Runnable, DomeController {
 		return currentPalette.getColor(color);
 	}
 
+	/**
+	 * The state of one frame as it passes through the render pipeline. The index selects the canvas used for this
+	 * frame on each {@link DomeOutput}.
+	 */
+	protected static class PipelineFrame {
+		final int index;
+		BufferedImage image;
+		boolean hasImage;
+		boolean runDoorProgram;
+
+		/** The program's preview overlay, drawn on the render thread so the preview never has to touch the program. */
+		BufferedImage overlay;
+		boolean hasOverlay;
+
+		PipelineFrame(final int index) {
+			this.index = index;
+		}
+
+		void copyImage(final BufferedImage source) {
+			final int width = source.getWidth();
+			final int height = source.getHeight();
+
+			if (image == null || image.getWidth() != width || image.getHeight() != height) {
+				image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			}
+
+			if (source.getType() == BufferedImage.TYPE_INT_ARGB) {
+				System.arraycopy(
+					((DataBufferInt) source.getRaster().getDataBuffer()).getData(), 0,
+					((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0,
+					width * height
+				);
+			} else {
+				final Graphics2D g = image.createGraphics();
+				g.setComposite(AlphaComposite.Src);
+				g.drawImage(source, 0, 0, null);
+				g.dispose();
+			}
+
+			hasImage = true;
+		}
+
+		void drawOverlay(final DomeAnimationProgram program, final int width, final int height) {
+			hasOverlay = width > 0 && height > 0;
+			if (! hasOverlay) return;
+
+			if (overlay == null || overlay.getWidth() != width || overlay.getHeight() != height) {
+				overlay = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			} else {
+				Arrays.fill(((DataBufferInt) overlay.getRaster().getDataBuffer()).getData(), 0);
+			}
+
+			final Graphics2D g = overlay.createGraphics();
+			try {
+				g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+				program.drawOverlay(g, width, height);
+			} finally {
+				g.dispose();
+			}
+		}
+	}
+
 	protected class ProgramEntry {
 		DomeAnimationProgram program;
 		OscHelper.OscBoolean oscStatus;
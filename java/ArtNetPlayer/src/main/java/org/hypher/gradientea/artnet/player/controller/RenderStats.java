@@ -0,0 +1,215 @@
+package org.hypher.gradientea.artnet.player.controller;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timing statistics for the stages of the render loop. Each stage keeps a histogram covering the whole run, which is
+ * exposed over JMX, and one covering the current reporting interval, which is summarized over OSC and then reset.
+ * The {@link Stage#MAP} and {@link Stage#SEND} stages are also timed separately for each output.
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class RenderStats implements RenderStatsMBean {
+	public enum Stage {
+		PROGRAM,
+		FLUID,
+		MAP,
+		SEND,
+		UI,
+		OSC,
+		FRAME
+	}
+
+	private final FrameScheduler scheduler;
+
+	private final Map<Stage, LatencyHistogram> totalHistograms = Maps.newEnumMap(Stage.class);
+	private final Map<Stage, LatencyHistogram> intervalHistograms = Maps.newEnumMap(Stage.class);
+
+	private final List<Map<Stage, LatencyHistogram>> outputTotalHistograms = Lists.newArrayList();
+	private final List<Map<Stage, LatencyHistogram>> outputIntervalHistograms = Lists.newArrayList();
+
+	public RenderStats(final FrameScheduler scheduler, final int outputCount) {
+		this.scheduler = scheduler;
+
+		for (Stage stage : Stage.values()) {
+			totalHistograms.put(stage, new LatencyHistogram());
+			intervalHistograms.put(stage, new LatencyHistogram());
+		}
+
+		for (int i=0; i<outputCount; i++) {
+			outputTotalHistograms.add(outputHistograms());
+			outputIntervalHistograms.add(outputHistograms());
+		}
+	}
+
+	private static Map<Stage, LatencyHistogram> outputHistograms() {
+		final Map<Stage, LatencyHistogram> histograms = Maps.newEnumMap(Stage.class);
+		histograms.put(Stage.MAP, new LatencyHistogram());
+		histograms.put(Stage.SEND, new LatencyHistogram());
+		return histograms;
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	public void record(final Stage stage, final long nanos) {
+		totalHistograms.get(stage).record(nanos);
+		intervalHistograms.get(stage).record(nanos);
+	}
+
+	/**
+	 * Records the time one output spent in the {@link Stage#MAP} or {@link Stage#SEND} stage.
+	 */
+	public void recordOutput(final int outputIndex, final Stage stage, final long nanos) {
+		outputTotalHistograms.get(outputIndex).get(stage).record(nanos);
+		outputIntervalHistograms.get(outputIndex).get(stage).record(nanos);
+	}
+
+	public int getOutputCount() {
+		return outputTotalHistograms.size();
+	}
+
+	/**
+	 * Summarizes a stage over the current interval as "p50/p99/max" in milliseconds.
+	 */
+	public String intervalSummary(final Stage stage) {
+		return summarize(intervalHistograms.get(stage));
+	}
+
+	/**
+	 * Summarizes one output over the current interval as "map p50/p99/max, send p50/p99/max" in milliseconds.
+	 */
+	public String intervalOutputSummary(final int outputIndex) {
+		final Map<Stage, LatencyHistogram> histograms = outputIntervalHistograms.get(outputIndex);
+
+		return "map " + summarize(histograms.get(Stage.MAP)) + ", send " + summarize(histograms.get(Stage.SEND));
+	}
+
+	private static String summarize(final LatencyHistogram histogram) {
+		return String.format(
+			"%.1f/%.1f/%.1f",
+			histogram.percentileNanos(50) / 1e6,
+			histogram.percentileNanos(99) / 1e6,
+			histogram.maxNanos() / 1e6
+		);
+	}
+
+	/**
+	 * @return The number of frames recorded in the current interval.
+	 */
+	public long intervalFrameCount() {
+		return intervalHistograms.get(Stage.FRAME).count();
+	}
+
+	public void resetInterval() {
+		for (LatencyHistogram histogram : intervalHistograms.values()) {
+			histogram.reset();
+		}
+
+		for (Map<Stage, LatencyHistogram> histograms : outputIntervalHistograms) {
+			for (LatencyHistogram histogram : histograms.values()) {
+				histogram.reset();
+			}
+		}
+	}
+
+	@Override
+	public double percentileMillis(final String stage, final double percentile) {
+		return totalHistograms.get(Stage.valueOf(stage.toUpperCase())).percentileNanos(percentile) / 1e6;
+	}
+
+	@Override
+	public void reset() {
+		for (LatencyHistogram histogram : totalHistograms.values()) {
+			histogram.reset();
+		}
+
+		for (Map<Stage, LatencyHistogram> histograms : outputTotalHistograms) {
+			for (LatencyHistogram histogram : histograms.values()) {
+				histogram.reset();
+			}
+		}
+	}
+
+	@Override
+	public String getSummary() {
+		final StringBuilder builder = new StringBuilder();
+
+		for (Stage stage : Stage.values()) {
+			appendSummaryLine(builder, stage.name().toLowerCase(), totalHistograms.get(stage));
+		}
+
+		return builder.toString();
+	}
+
+	@Override
+	public String getOutputSummary() {
+		final StringBuilder builder = new StringBuilder();
+
+		for (int i=0; i<outputTotalHistograms.size(); i++) {
+			for (Map.Entry<Stage, LatencyHistogram> entry : outputTotalHistograms.get(i).entrySet()) {
+				appendSummaryLine(builder, i + "/" + entry.getKey().name().toLowerCase(), entry.getValue());
+			}
+		}
+
+		return builder.toString();
+	}
+
+	private static void appendSummaryLine(
+		final StringBuilder builder,
+		final String name,
+		final LatencyHistogram histogram
+	) {
+		builder.append(String.format(
+			"%-8s mean=%6.2f p50=%6.2f p90=%6.2f p99=%6.2f p99.9=%6.2f max=%6.2f ms%n",
+			name,
+			histogram.meanNanos() / 1e6,
+			histogram.percentileNanos(50) / 1e6,
+			histogram.percentileNanos(90) / 1e6,
+			histogram.percentileNanos(99) / 1e6,
+			histogram.percentileNanos(99.9) / 1e6,
+			histogram.maxNanos() / 1e6
+		));
+	}
+
+	@Override
+	public double getTargetFps() {
+		return scheduler.getFps();
+	}
+
+	@Override
+	public void setTargetFps(final double fps) {
+		scheduler.setFps(fps);
+	}
+
+	@Override
+	public String getLatePolicy() {
+		return scheduler.getLatePolicy().name();
+	}
+
+	@Override
+	public void setLatePolicy(final String policy) {
+		scheduler.setLatePolicy(FrameScheduler.LatePolicy.valueOf(policy.toUpperCase()));
+	}
+
+	@Override
+	public long getFrameCount() {
+		return scheduler.getFrameCount();
+	}
+
+	@Override
+	public long getLateFrameCount() {
+		return scheduler.getLateFrameCount();
+	}
+
+	@Override
+	public long getSkippedFrameCount() {
+		return scheduler.getSkippedFrameCount();
+	}
+
+	//endregion
+}
@@ -0,0 +1,40 @@
+package org.hypher.gradientea.artnet.player.controller;
+
+/**
+ * JMX view of {@link RenderStats}, registered as {@code org.hypher.gradientea:type=RenderStats}.
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public interface RenderStatsMBean {
+	/**
+	 * @return A table of timing percentiles for every render stage since the last reset.
+	 */
+	String getSummary();
+
+	/**
+	 * @return A table of map and send timing percentiles for each output since the last reset.
+	 */
+	String getOutputSummary();
+
+	/**
+	 * @param stage The name of a {@link RenderStats.Stage}, case-insensitive.
+	 * @param percentile A percentile between 0 and 100.
+	 */
+	double percentileMillis(String stage, double percentile);
+
+	void reset();
+
+	double getTargetFps();
+
+	/**
+	 * Sets the target frame rate. It holds until the OSC frame rate control is next changed.
+	 */
+	void setTargetFps(double fps);
+
+	String getLatePolicy();
+	void setLatePolicy(String policy);
+
+	long getFrameCount();
+	long getLateFrameCount();
+	long getSkippedFrameCount();
+}
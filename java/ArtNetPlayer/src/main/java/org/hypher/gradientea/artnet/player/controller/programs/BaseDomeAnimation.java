@@ -2,6 +2,7 @@ package org.hypher.gradientea.artnet.player.controller.programs;
 
 import org.hypher.gradientea.artnet.player.controller.DomeController;
 import org.hypher.gradientea.artnet.player.controller.DomeFluidCanvas;
+import org.hypher.gradientea.artnet.player.io.audio.BeatTracker;
 
 import java.awt.Graphics2D;
 
@@ -28,6 +29,10 @@ public abstract class BaseDomeAnimation implements DomeAnimation {
 		return controller.getFluidCanvas();
 	}
 
+	protected BeatTracker beatTracker() {
+		return controller.getBeatTracker();
+	}
+
 	protected long now() {
 		return System.currentTimeMillis();
 	}
@@ -1,10 +1,9 @@
 package org.hypher.gradientea.artnet.player.controller.programs;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 import org.hypher.gradientea.animation.shared.color.HsbColor;
 import org.hypher.gradientea.animation.shared.color.PixelColor;
-import org.hypher.gradientea.animation.shared.color.RgbColor;
+import org.hypher.gradientea.artnet.player.animations.DomePixelCanvas;
 import org.hypher.gradientea.artnet.player.controller.DomeOutput;
 import org.hypher.gradientea.artnet.player.controller.OscConstants;
 import org.hypher.gradientea.artnet.player.io.osc.OscHelper;
@@ -13,7 +12,7 @@ import java.util.List;
 
 /**
  * An auxiliary program that provides illumination for the door lights by assigning it's color to the brightest
- * color on the dome.
+ * color on the dome. Runs on the output side of the render pipeline, so it works with each output's output canvas.
  *
  * @author Yona Appletree (yona@concentricsky.com)
  */
@@ -88,16 +87,11 @@ public class DoorLightAnimation extends BaseDomeAnimation {
 				OscHelper.instance().pushToKnownHosts();
 			}
 
-			domeOutput.getCanvas().draw(
-				Iterables.get(
-					domeOutput.getGeometry().getLightedFaces(),
-					index
-				),
-				new RgbColor(
-					currentColor[0]*.25,
-					currentColor[2]*.25,
-					currentColor[1]*.25
-				)
+			domeOutput.getOutputCanvas().drawFace(
+				index,
+				(float) (currentColor[0]*.25),
+				(float) (currentColor[2]*.25),
+				(float) (currentColor[1]*.25)
 			);
 		}
 
@@ -108,26 +102,42 @@ public class DoorLightAnimation extends BaseDomeAnimation {
 		}
 
 		private void updateTargetColor() {
+			final DomePixelCanvas canvas = domeOutput.getOutputCanvas();
+
 			double highestBrightness = 0;
 			PixelColor brightestColor = null;
 
-			for (PixelColor color :
-				Iterables.concat(
-					domeOutput.getCanvas().getFaceColorMap().values(),
-					domeOutput.getCanvas().getVertexColorMap().values()
-				)
-				) {
-				HsbColor hsbColor = HsbColor.hsbColor(color);
-				if (hsbColor.getBrightness() > highestBrightness) {
-					brightestColor = hsbColor;
-					highestBrightness = hsbColor.getBrightness();
+			for (int i=0; i<canvas.getFaceCount(); i++) {
+				if (canvas.isFaceDrawn(i)) {
+					final double brightness = brightness(canvas.getFaceRed(i), canvas.getFaceGreen(i), canvas.getFaceBlue(i));
+					if (brightness > highestBrightness) {
+						brightestColor = canvas.getFaceColor(i);
+						highestBrightness = brightness;
+					}
+				}
+			}
+
+			for (int i=0; i<canvas.getVertexCount(); i++) {
+				if (canvas.isVertexDrawn(i)) {
+					final double brightness = brightness(canvas.getVertexRed(i), canvas.getVertexGreen(i), canvas.getVertexBlue(i));
+					if (brightness > highestBrightness) {
+						brightestColor = canvas.getVertexColor(i);
+						highestBrightness = brightness;
+					}
 				}
 			}
 
 			if (highestBrightness > 0.5) {
-				targetColor = brightestColor.asRgb();
+				targetColor = HsbColor.hsbColor(brightestColor).asRgb();
 			}
 		}
+
+		/**
+		 * The HSB brightness of a color, computed directly from its components.
+		 */
+		private double brightness(final float red, final float green, final float blue) {
+			return Math.min(1, Math.max((int) red, Math.max((int) green, (int) blue)) / 255.0);
+		}
 	}
 
 	@Override
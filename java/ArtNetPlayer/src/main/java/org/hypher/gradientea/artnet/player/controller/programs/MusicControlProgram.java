@@ -1,17 +1,15 @@
 package org.hypher.gradientea.artnet.player.controller.programs;
 
-import com.google.common.base.Optional;
-import ddf.minim.AudioInput;
-import ddf.minim.Sound;
-import ddf.minim.analysis.BeatDetect;
-import ddf.minim.analysis.FFT;
 import org.hypher.gradientea.artnet.player.controller.DomeFluidCanvas;
 import org.hypher.gradientea.artnet.player.controller.OscConstants;
+import org.hypher.gradientea.artnet.player.io.GlobalAudioReader;
+import org.hypher.gradientea.artnet.player.io.audio.BeatTracker;
+import org.hypher.gradientea.artnet.player.io.audio.OnsetDetector;
+import org.hypher.gradientea.artnet.player.io.audio.SpectrumAnalyzer;
+import org.hypher.gradientea.artnet.player.io.audio.SpectrumBands;
 import org.hypher.gradientea.artnet.player.io.osc.OscHelper;
 import org.hypher.gradientea.geometry.shared.math.DomeMath;
 
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Mixer;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 
@@ -78,6 +76,18 @@ public class MusicControlProgram extends BaseDomeProgram {
 	private OscHelper.OscBoolean oscShowEmitters = OscHelper.booleanValue(OscConstants.Control.Music.SHOW_EMITTERS, true);
 	private OscHelper.OscBoolean oscShowHistogram = OscHelper.booleanValue(OscConstants.Control.Music.SHOW_HISTOGRAM, true);
 
+	private OscHelper.OscBoolean oscBeatSync = OscHelper.booleanValue(OscConstants.Control.Music.BEAT_SYNC, true);
+
+	/**
+	 * How many milliseconds ahead of the tracked beat to pulse the emitters, to make up for the time it takes a frame to
+	 * reach the lights.
+	 */
+	private OscHelper.OscDouble oscBeatLookaheadMs = OscHelper.doubleValue(
+		OscConstants.Control.Music.BEAT_LOOKAHEAD, 0, 200, 50
+	);
+
+	private long lastBeatCheckNanos;
+
 
 	public MusicControlProgram() {
 		super(ProgramId.MUSIC);
@@ -86,6 +96,7 @@ public class MusicControlProgram extends BaseDomeProgram {
 	@Override
 	protected void initialize() {
 		audioAnalyzer = new AudioAnalyzer();
+		lastBeatCheckNanos = System.nanoTime();
 	}
 
 	@Override
@@ -102,13 +113,29 @@ public class MusicControlProgram extends BaseDomeProgram {
 		final AudioAnalysisInfo analysisInfo = audioAnalyzer.analyze();
 
 		int highestChannel = analysisInfo.highestChannel();
+		boolean beat = isPredictedBeat();
 
 		for (Emitter emitter : emitters) {
-			emitter.update(analysisInfo.bandIntensities[emitter.freqIndex], emitter.freqIndex == highestChannel);
+			emitter.update(analysisInfo.bandIntensities[emitter.freqIndex], emitter.freqIndex == highestChannel || beat);
 			emitter.draw(fluidCanvas());
 		}
 	}
 
+	/**
+	 * @return Whether the tracked beat, brought forward by the lookahead, fell since the previous frame.
+	 */
+	private boolean isPredictedBeat() {
+		final long nowNanos = System.nanoTime();
+		final long lookaheadNanos = (long) (oscBeatLookaheadMs.getValue() * 1000000);
+		final long lastCheckNanos = lastBeatCheckNanos;
+		lastBeatCheckNanos = nowNanos;
+
+		if (! oscBeatSync.value()) return false;
+
+		final BeatTracker.BeatState beatState = beatTracker().getState();
+		return beatState.isLocked() && beatState.isBeatBetween(lastCheckNanos + lookaheadNanos, nowNanos + lookaheadNanos);
+	}
+
 	private void setBands(
 		final double newBandsFraction,
 		final double newFreqLowFraction,
@@ -123,9 +150,9 @@ public class MusicControlProgram extends BaseDomeProgram {
 			currentFreqLowFraction = newFreqLowFraction;
 			currentFreqHighFraction = newFreqHighFraction;
 
-			audioAnalyzer.fft.logAverages(10, (int) (1 + newBandsFraction*3));
+			audioAnalyzer.setLogBands(10, (int) (1 + newBandsFraction*3));
 
-			int freqCount = audioAnalyzer.fft.avgSize();
+			int freqCount = audioAnalyzer.getBandCount();
 			int emitterStart = (int) (freqCount * currentFreqLowFraction) + 1;
 			int emitterEnd = (int) (freqCount * currentFreqHighFraction);
 
@@ -327,71 +354,64 @@ public class MusicControlProgram extends BaseDomeProgram {
 	}
 
 
+	/**
+	 * Takes band intensities from the shared {@link SpectrumAnalyzer} rather than from an FFT of its own, and detects
+	 * kicks, snares and hats with an {@link OnsetDetector} on each of their frequency ranges, which see every hop of the
+	 * analyzer as it happens.
+	 */
 	public static class AudioAnalyzer {
-		final Sound sound;
-		final AudioInput lineIn;
-		final AccessibleFFT fft;
-		final BeatDetect beatDetect;
+		final SpectrumAnalyzer spectrumAnalyzer = GlobalAudioReader.getSpectrumAnalyzer();
+		final float[] magnitudes = new float[spectrumAnalyzer.getBinCount()];
 
-		{
-			sound = new Sound();
-			final Optional<Mixer> desiredInputMixer = getDesiredInputMixer();
-			if (desiredInputMixer.isPresent()) {
-				System.out.println("Using Audio Mixer: " + desiredInputMixer.get().getMixerInfo());
-				sound.setInputMixer(desiredInputMixer.get());
-			} else {
-				System.out.println("Using Default Audio Mixer");
-			}
+		final OnsetDetector kickDetector = GlobalAudioReader.createOnsetDetector(40, 150);
+		final OnsetDetector snareDetector = GlobalAudioReader.createOnsetDetector(150, 2500);
+		final OnsetDetector hatDetector = GlobalAudioReader.createOnsetDetector(5000, 16000);
+
+		SpectrumBands bands;
+		float[] bandIntensities;
+
+		/**
+		 * The onset counts at the last analysis, so that no onsets are missed between frames.
+		 */
+		long kickCount, snareCount, hatCount;
 
-			lineIn = sound.getLineIn(Sound.MONO);
-			fft = new AccessibleFFT(1024, lineIn.sampleRate());
-			beatDetect = new BeatDetect(1024, lineIn.sampleRate());
-			fft.logAverages(30, 1);
+		{
+			setLogBands(30, 1);
 		}
 
 		/**
-		 * @return The desired mixer for dome audio input. {@link Optional#absent()} indicates no particular preference
-		 * in mixer, allowing the implementation to use the default.
+		 * Groups the spectrum into bands in the same way as Minim's {@code FFT.logAverages()}.
 		 */
-		public static Optional<Mixer> getDesiredInputMixer() {
-			String[] DESIRED_MIXERS = new String[]{
-				"fast", // FastTrack USB Audio
-				"display audio", // Display Input
-				"usb" // Any other USB audio device
-			};
-
-			for (String desiredMixerName : DESIRED_MIXERS) {
-				for (Mixer.Info mixerInfo :  AudioSystem.getMixerInfo()) {
-					if (mixerInfo.toString().toLowerCase().contains(desiredMixerName)) {
-						return Optional.of(AudioSystem.getMixer(mixerInfo));
-					}
-				}
-			}
+		public void setLogBands(final int minBandwidth, final int bandsPerOctave) {
+			bands = spectrumAnalyzer.logBands(minBandwidth, bandsPerOctave);
+			bandIntensities = new float[bands.getBandCount()];
+		}
 
-			return Optional.absent();
+		public int getBandCount() {
+			return bands.getBandCount();
 		}
 
 		public AudioAnalysisInfo analyze() {
-			beatDetect.detect(lineIn.mix);
-			fft.forward(lineIn.mix);
+			if (spectrumAnalyzer.copyMagnitudes(magnitudes) >= 0) {
+				bands.apply(magnitudes, bandIntensities);
+			}
 
-			return new AudioAnalysisInfo(
-				beatDetect.isHat(),
-				beatDetect.isSnare(),
-				beatDetect.isKick(),
+			final long newKickCount = kickDetector.getOnsetCount();
+			final long newSnareCount = snareDetector.getOnsetCount();
+			final long newHatCount = hatDetector.getOnsetCount();
 
-				fft.getAverages()
+			final AudioAnalysisInfo info = new AudioAnalysisInfo(
+				newHatCount != hatCount,
+				newSnareCount != snareCount,
+				newKickCount != kickCount,
+				bandIntensities
 			);
-		}
 
-		private class AccessibleFFT extends FFT {
-			public AccessibleFFT(final int timeSize, final float sampleRate) {
-				super(timeSize, sampleRate);
-			}
+			kickCount = newKickCount;
+			snareCount = newSnareCount;
+			hatCount = newHatCount;
 
-			public float[] getAverages() {
-				return averages;
-			}
+			return info;
 		}
 	}
 
@@ -1,5 +1,7 @@
 package org.hypher.gradientea.artnet.player.e131;
 
+import org.hypher.gradientea.artnet.player.DmxChangeFilter;
+
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -22,6 +24,7 @@ public class E131Socket {
 	private static volatile int sequenceNumber = 0;
 
 	private DatagramSocket socket;
+	private DmxChangeFilter changeFilter = new DmxChangeFilter();
 
 	public void connect(String host) throws SocketException, UnknownHostException {
 		connect(host, E131_PORT);
@@ -33,6 +36,12 @@ public class E131Socket {
 	}
 
 	public void sendDmx(int universe, byte[] dmxData) {
+		final int length = Math.min(512, dmxData.length);
+
+		if (! changeFilter.shouldSend(universe, dmxData, 0, length)) {
+			return;
+		}
+
 		try {
 			socket.send(new DatagramPacket(
 				assembleBasicE131Packet(
@@ -40,12 +49,21 @@ public class E131Socket {
 				),
 				E131_PACKET_LEN
 			));
+
+			changeFilter.markSent(universe, dmxData, 0, length);
 		} catch (IOException e) {
 			System.err.println("Failed to send E131 packet to " + socket.getInetAddress() + " on port " + socket.getPort());
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * @return The filter used to skip universes that haven't changed since they were last sent.
+	 */
+	public DmxChangeFilter getChangeFilter() {
+		return changeFilter;
+	}
+
 	protected static byte[] assembleBasicE131Packet(
 		int universe,
 		byte[] dmxData
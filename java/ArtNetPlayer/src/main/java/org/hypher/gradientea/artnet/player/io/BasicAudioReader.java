@@ -1,203 +1,124 @@
 package org.hypher.gradientea.artnet.player.io;
 
-import com.google.common.collect.Maps;
 import jnt.FFT.RealFloatFFT;
 import jnt.FFT.RealFloatFFT_Radix2;
-
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Line;
-import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.Mixer;
-import javax.sound.sampled.TargetDataLine;
-import java.nio.ByteBuffer;
-import java.nio.ShortBuffer;
-import java.util.Map;
+import org.hypher.gradientea.artnet.player.io.audio.AudioCaptureService;
+import org.hypher.gradientea.artnet.player.io.audio.AudioSubscriber;
 
 /**
+ * Keeps the recent history of an {@link AudioCaptureService} in a ring of fixed-size sample blocks that any thread can
+ * read.
+ *
+ * <p>The reader's subscriber thread is the only writer. It fills the slot after the newest block and then publishes
+ * that block's sequence number. Readers find a block from the published sequence number, and can tell from the block's
+ * own sequence number whether it has been overwritten since. Each slot has a lock that the writer holds only while
+ * filling it and {@link #copyTimeDomainData(int, float[])} holds while copying it, so copies are never torn; the
+ * writer only ever waits for a copy of the one slot it is about to overwrite, which is {@link #GUARD_BUFFERS} blocks
+ * old. The ring holds that many more blocks than can be asked for, so a block handed out by {@link #getBuffer(int)}
+ * stays intact for about half a second after it was the newest, though reading it directly isn't checked.</p>
+ *
+ * <p>Spectra come from the shared {@link GlobalAudioReader#getSpectrumAnalyzer() spectrum analyzer} rather than from
+ * transforming these blocks.</p>
+ *
  * @author Yona Appletree (yona@concentricsky.com)
  */
 public class BasicAudioReader {
-	public static String[] DESIRED_MIXERS = new String[]{
-		//"fast",
-		"display audio",
-		"built-in micro"
-	};
-
-	public static AudioFormat DESIRED_FORMAT = new AudioFormat(
-		48000, 16, 1, true, true
-	);
-
-	private Thread thread;
-	private boolean running = false;
+	/**
+	 * Slots beyond the requested history that readers can't ask for, so the slot being written is never one that was
+	 * handed out recently.
+	 */
+	public static final int GUARD_BUFFERS = 24;
 
-	private TargetDataLine inputLine;
+	private final AudioCaptureService captureService;
+	private AudioCaptureService.Subscription subscription;
 
 	private AudioBuffer[] buffers;
-	private int currentBufferIndex = -1;
-	private int buffersUsed = 0;
 
-	private byte sampleSizeInBytes;
+	/**
+	 * The sequence number of the newest complete block, or -1 before the first one. Written only by the subscriber
+	 * thread.
+	 */
+	private volatile long publishedSequence = -1;
+
+	private float sampleRate;
 	private int bufferSizeInSamples;
 	private int buffersToHold;
-	public static final long DESIRED_FRAME_MS = 1000/30;
 
-	public BasicAudioReader(float historyLengthSeconds) {
-		this.inputLine = selectDesiredInput();
+	public BasicAudioReader(final AudioCaptureService captureService, float historyLengthSeconds) {
+		this.captureService = captureService;
 
-		this.sampleSizeInBytes = (byte) (DESIRED_FORMAT.getSampleSizeInBits() / 8);
-		this.bufferSizeInSamples = 1024;
+		this.sampleRate = captureService.getSampleRate();
+		this.bufferSizeInSamples = captureService.getBlockSize();
 
-		this.buffersToHold = (int) ((DESIRED_FORMAT.getSampleRate() * historyLengthSeconds) / bufferSizeInSamples);
+		this.buffersToHold = (int) ((sampleRate * historyLengthSeconds) / bufferSizeInSamples);
 
 		allocateBuffers();
 	}
 
 	private void allocateBuffers() {
-		buffers = new AudioBuffer[buffersToHold];
+		buffers = new AudioBuffer[buffersToHold + GUARD_BUFFERS];
 		for (int i=0; i<buffers.length; i++) {
 			buffers[i] = new AudioBuffer(bufferSizeInSamples);
 		}
 	}
 
-	public void start() {
-		if (running) return;
-		running = true;
-
-		thread = new Thread(new Runnable() {
-			byte[] byteBuffer = new byte[bufferSizeInSamples * sampleSizeInBytes];
-			ShortBuffer shortBuffer = ByteBuffer.wrap(byteBuffer).asShortBuffer();
-
-			protected void readSample(AudioBuffer audioBuffer) {
-				// Read a sample
-				synchronized (buffers) {
-					for (int read = 0; read < byteBuffer.length;) {
-						read += inputLine.read(byteBuffer, read, byteBuffer.length-read);
-					}
-					inputLine.flush();
-				}
-
-				// Convert the data into its normalized format
-				float[] normalizedBuffer = audioBuffer.timeDomainData;
-				for (int i=0; i<normalizedBuffer.length; i++) {
-					normalizedBuffer[i] = (float)shortBuffer.get(i) / Short.MAX_VALUE;
-				}
-			}
+	public synchronized void start() {
+		if (subscription != null) return;
 
+		subscription = captureService.subscribe("Audio Reader", new AudioSubscriber() {
 			@Override
-			public void run() {
-				try {
-					inputLine.open(DESIRED_FORMAT, byteBuffer.length*2);
-					inputLine.start();
-
-					while (running) {
-						long start = System.currentTimeMillis();
-						AudioBuffer normalizedBuffer = buffers[
-							currentBufferIndex == buffers.length - 1
-								? 0
-								: (currentBufferIndex + 1)
-						];
-
-						if (buffersUsed < buffers.length)
-							buffersUsed ++;
-
-						normalizedBuffer.reset();
-						readSample(normalizedBuffer);
-
-						if (currentBufferIndex == buffers.length - 1) {
-							currentBufferIndex = 0;
-						} else {
-							currentBufferIndex ++;
-						}
-
-						Thread.sleep(Math.max(0, DESIRED_FRAME_MS - (System.currentTimeMillis() - start)));
-					}
-				} catch (Exception e) {
-					System.err.println("Audio Capture Failed!");
-					e.printStackTrace();
-				} finally {
-					inputLine.close();
-				}
-			}
-		});
+			public void processBlock(final float[] samples, final long blockSequence) {
+				final long sequence = publishedSequence + 1;
+				final AudioBuffer audioBuffer = buffers[slotIndex(sequence)];
 
-		thread.setDaemon(true);
-		thread.start();
-	}
+				final float rms = volumeRMS(samples, 0, bufferSizeInSamples);
 
-	public static TargetDataLine selectDesiredInput() {
-		Map<String, TargetDataLine> mixerNameLineMap = Maps.newLinkedHashMap();
+				synchronized (audioBuffer.dataLock) {
+					audioBuffer.sequence = -1;
 
-		try {
-			for (Mixer.Info mixer :  AudioSystem.getMixerInfo()) {
-				Line.Info[] targetLines = AudioSystem.getMixer(mixer).getTargetLineInfo();
-				if (targetLines.length > 0) {
-					Line line = AudioSystem.getLine(targetLines[0]);
+					System.arraycopy(samples, 0, audioBuffer.timeDomainData, 0, bufferSizeInSamples);
+					audioBuffer.rms = rms;
 
-					if (line instanceof TargetDataLine) {
-						mixerNameLineMap.put(mixer.toString().toLowerCase(), (TargetDataLine) line);
-					}
+					audioBuffer.sequence = sequence;
 				}
-			}
-		} catch (LineUnavailableException e) {
-			throw new RuntimeException(e);
-		}
 
-		TargetDataLine selectedLine = null;
-
-		for (String desiredName: DESIRED_MIXERS) {
-			for (Map.Entry<String, TargetDataLine> entry : mixerNameLineMap.entrySet()) {
-				if (entry.getKey().contains(desiredName.toLowerCase())) {
-					System.out.println("Reading Audio From Desired Input: " + entry.getKey());
-					return entry.getValue();
-				}
+				publishedSequence = sequence;
 			}
-		}
-
-		if (mixerNameLineMap.isEmpty()) {
-			throw new RuntimeException("No Mixers Available for Input");
-		}
+		});
+	}
 
-		System.out.println("Reading Audio From First Device: " + mixerNameLineMap.keySet().iterator().next());
-		return mixerNameLineMap.values().iterator().next();
+	/**
+	 * @param relativeIndex How many blocks back to go, where 0 is the newest block.
+	 * @return The block, which stays intact for {@link #GUARD_BUFFERS} blocks after this call. Callers that hold on to
+	 * it for longer can check {@link AudioBuffer#getSequence()} against {@link #getPublishedSequence()}, or use
+	 * {@link #copyTimeDomainData(int, float[])} instead.
+	 */
+	public AudioBuffer getBuffer(int relativeIndex) {
+		return buffers[slotIndex(publishedSequence - checkRelativeIndex(relativeIndex))];
 	}
 
-	public static void printMixerInfo() {
-		try {
-			Mixer.Info[] mixerInfos = AudioSystem.getMixerInfo();
-			for (Mixer.Info mixerInfo: mixerInfos){
-				Mixer m = AudioSystem.getMixer(mixerInfo);
-				Line.Info[] lineInfos = m.getSourceLineInfo();
-				System.out.println ("Mixer: " + mixerInfo);
-				for (Line.Info lineInfo:lineInfos){
-					System.out.println("\tLineInfo" + lineInfo);
-
-					Line line = m.getLine(lineInfo);
-					System.out.println("\t\tLine: "+line);
-				}
+	/**
+	 * Copies the samples of a block while holding its lock, so the subscriber thread can't overwrite it during the copy.
+	 *
+	 * @param relativeIndex How many blocks back to go, where 0 is the newest block.
+	 * @return The sequence number of the block that was copied, or -1 if no block has been captured at that index.
+	 */
+	public long copyTimeDomainData(int relativeIndex, float[] target) {
+		checkRelativeIndex(relativeIndex);
 
-				lineInfos = m.getTargetLineInfo();
-				for (Line.Info lineInfo:lineInfos){
-					final Line line = m.getLine(lineInfo);
-					if (line instanceof TargetDataLine) {
-						TargetDataLine targetDataLine = (TargetDataLine) line;
-						System.out.println("\tTargetDataLine:" + lineInfo + " -- " + targetDataLine.getFormat());
-					}
-				}
-			}
-		} catch (LineUnavailableException e) {
-			e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
-		}
-	}
+		while (true) {
+			final long sequence = publishedSequence - relativeIndex;
+			if (sequence < 0) return -1;
 
-	public AudioBuffer getBuffer(int relativeIndex) {
-		synchronized (buffers) {
-			relativeIndex = currentBufferIndex - relativeIndex;
-			if (relativeIndex < 0) {
-				relativeIndex += buffers.length;
-			}
+			final AudioBuffer buffer = buffers[slotIndex(sequence)];
 
-			return buffers[relativeIndex];
+			synchronized (buffer.dataLock) {
+				// Otherwise the slot moved on since the sequence was read, so look again
+				if (buffer.sequence == sequence) {
+					System.arraycopy(buffer.timeDomainData, 0, target, 0, bufferSizeInSamples);
+					return sequence;
+				}
+			}
 		}
 	}
 
@@ -206,8 +127,12 @@ public class BasicAudioReader {
 	}
 
 	public LevelAverage getRMSMean(float offsetInSeconds, float sizeInSeconds) {
-		int offsetInBuffers = (int) Math.ceil((offsetInSeconds * DESIRED_FORMAT.getSampleRate()) / bufferSizeInSamples);
-		int sizeInBuffers = (int) Math.ceil((sizeInSeconds * DESIRED_FORMAT.getSampleRate()) / bufferSizeInSamples);
+		int offsetInBuffers = (int) Math.ceil((offsetInSeconds * sampleRate) / bufferSizeInSamples);
+		int sizeInBuffers = (int) Math.ceil((sizeInSeconds * sampleRate) / bufferSizeInSamples);
+
+		// Read every block relative to the same newest block, even if another one is published meanwhile
+		final long newestSequence = publishedSequence;
+		final int buffersUsed = availableBuffers(newestSequence);
 
 		if (offsetInBuffers + sizeInBuffers > buffersUsed) {
 			sizeInBuffers = buffersUsed - offsetInBuffers;
@@ -218,7 +143,7 @@ public class BasicAudioReader {
 		float max = Float.MIN_VALUE;
 
 		for (int i=offsetInBuffers; i<offsetInBuffers + sizeInBuffers; i++) {
-			float v = getBufferRMS(i);
+			float v = buffers[slotIndex(newestSequence - i)].getRms();
 
 			if (v > max) max = v;
 			if (v < min) min = v;
@@ -233,11 +158,36 @@ public class BasicAudioReader {
 	}
 
 	public int getAvailableBuffers() {
-		return buffersUsed;
+		return availableBuffers(publishedSequence);
+	}
+
+	/**
+	 * @return The sequence number of the newest complete block, or -1 if none has been captured yet. It goes up by one
+	 * for every block, so the difference between two calls is the number of blocks received in between.
+	 */
+	public long getPublishedSequence() {
+		return publishedSequence;
 	}
 
 	public float getBufferLengthInSeconds() {
-		return bufferSizeInSamples / DESIRED_FORMAT.getSampleRate();
+		return bufferSizeInSamples / sampleRate;
+	}
+
+	private int availableBuffers(final long newestSequence) {
+		return (int) Math.min(newestSequence + 1, buffersToHold);
+	}
+
+	private int slotIndex(final long sequence) {
+		// Before the first block is published the sequence can be negative; those slots are still empty
+		return (int) (((sequence % buffers.length) + buffers.length) % buffers.length);
+	}
+
+	private int checkRelativeIndex(final int relativeIndex) {
+		if (relativeIndex < 0 || relativeIndex >= buffersToHold) {
+			throw new IndexOutOfBoundsException("Only " + buffersToHold + " buffers are held, not " + relativeIndex);
+		}
+
+		return relativeIndex;
 	}
 
 	/**
@@ -303,10 +253,10 @@ public class BasicAudioReader {
 		}
 	}
 
-	public void stop() {
-		if (running) {
-			running = false;
-			inputLine.close();
+	public synchronized void stop() {
+		if (subscription != null) {
+			subscription.cancel();
+			subscription = null;
 		}
 	}
 
@@ -353,15 +303,28 @@ public class BasicAudioReader {
 		}
 	}
 
+	/**
+	 * A block of samples in the ring. Its samples and RMS are written by the subscriber thread before the block is
+	 * published; its raw, unwindowed transform is computed the first time it is asked for.
+	 */
 	public class AudioBuffer {
 		private float[] timeDomainData;
 		private float[] freqDomainData;
 
 		private RealFloatFFT fft;
-		private boolean fftComputed = false;
 
-		private float rms;
-		private boolean rmsComputed = false;
+		/**
+		 * Held by the subscriber thread while it fills the block, and by readers while they copy it.
+		 */
+		private final Object dataLock = new Object();
+
+		/**
+		 * The sequence number of the block this slot holds, or -1 while the subscriber thread is writing it.
+		 */
+		private volatile long sequence = -1;
+		private long fftSequence = -1;
+
+		private volatile float rms;
 
 		protected AudioBuffer(int size) {
 			this.timeDomainData = new float[size];
@@ -369,27 +332,37 @@ public class BasicAudioReader {
 			this.fft = new RealFloatFFT_Radix2(size);
 		}
 
-		public void reset() {
-			fftComputed = false;
-			rmsComputed = false;
+		/**
+		 * Forgets the computed spectrum, so it is recomputed the next time it is asked for.
+		 */
+		public synchronized void reset() {
+			fftSequence = -1;
 		}
 
 		public float getRms() {
-			if (! rmsComputed) {
-				rms = volumeRMS(timeDomainData, 0, timeDomainData.length);
-				rmsComputed = true;
-			}
-
 			return rms;
 		}
 
+		/**
+		 * @return The sequence number of the block in this slot, or -1 if it is being overwritten.
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
 		public float[] getTimeDomainData() {
 			return timeDomainData;
 		}
 
-		public float[] getFreqDomainData() {
-			if (!fftComputed) {
-				fftComputed = true;
+		/**
+		 * Computes the spectrum of the block if it hasn't been already. The block's own lock is only shared with other
+		 * readers of the same block; the subscriber thread only waits for the samples to be copied.
+		 */
+		public synchronized float[] getFreqDomainData() {
+			final long currentSequence = sequence;
+
+			if (fftSequence != currentSequence) {
+				fftSequence = currentSequence;
 
 				fft();
 			}
@@ -398,7 +371,10 @@ public class BasicAudioReader {
 		}
 
 		private void fft() {
-			System.arraycopy(timeDomainData, 0, freqDomainData, 0, timeDomainData.length);
+			synchronized (dataLock) {
+				System.arraycopy(timeDomainData, 0, freqDomainData, 0, timeDomainData.length);
+			}
+
 			fft.transform(freqDomainData);
 		}
 	}
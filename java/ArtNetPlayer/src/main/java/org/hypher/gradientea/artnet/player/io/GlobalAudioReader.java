@@ -1,25 +1,130 @@
 package org.hypher.gradientea.artnet.player.io;
 
-import org.hypher.gradientea.artnet.player.io.BasicAudioReader;
+import org.hypher.gradientea.artnet.player.io.audio.AudioCaptureService;
+import org.hypher.gradientea.artnet.player.io.audio.AudioSource;
+import org.hypher.gradientea.artnet.player.io.audio.AudioSubscriber;
+import org.hypher.gradientea.artnet.player.io.audio.BeatTracker;
+import org.hypher.gradientea.artnet.player.io.audio.FileAudioSource;
+import org.hypher.gradientea.artnet.player.io.audio.LineAudioSource;
+import org.hypher.gradientea.artnet.player.io.audio.OnsetDetector;
+import org.hypher.gradientea.artnet.player.io.audio.SpectrumAnalyzer;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
+ * The audio input shared by everything in the process: one {@link AudioCaptureService} that owns the device, and the
+ * reader, spectrum analyzer and beat tracker that listen to it.
+ *
+ * <p>Setting the {@value #AUDIO_FILE_PROPERTY} system property to the path of a WAV file plays that file on a loop, in
+ * real time, instead of capturing from the line-in.</p>
+ *
  * @author Yona Appletree (yona@concentricsky.com)
  */
 public class GlobalAudioReader {
+	public static final String AUDIO_FILE_PROPERTY = "gradientea.audioFile";
+
+	private static AudioCaptureService captureService;
 	private static BasicAudioReader reader;
+	private static SpectrumAnalyzer spectrumAnalyzer;
+	private static BeatTracker beatTracker;
+
+	public static synchronized AudioCaptureService getCaptureService() {
+		if (captureService == null) {
+			captureService = new AudioCaptureService(createSource());
+		}
 
-	public static BasicAudioReader getReader() {
+		captureService.start();
+		return captureService;
+	}
+
+	public static synchronized BasicAudioReader getReader() {
 		if (reader == null) {
-			reader = new BasicAudioReader(5.0f);
+			reader = new BasicAudioReader(getCaptureService(), 5.0f);
 		}
 
 		reader.start();
 		return reader;
 	}
 
-	public static void stopReader() {
+	/**
+	 * @return The analyzer that computes overlapping, windowed spectra of the captured audio.
+	 */
+	public static synchronized SpectrumAnalyzer getSpectrumAnalyzer() {
+		if (spectrumAnalyzer == null) {
+			final SpectrumAnalyzer analyzer = new SpectrumAnalyzer(getCaptureService().getSampleRate());
+
+			getCaptureService().subscribe("Spectrum Analyzer", new AudioSubscriber() {
+				@Override
+				public void processBlock(final float[] samples, final long sequence) {
+					analyzer.process(samples, 0, samples.length);
+				}
+			});
+
+			spectrumAnalyzer = analyzer;
+		}
+
+		return spectrumAnalyzer;
+	}
+
+	/**
+	 * @return A new detector for onsets between two frequencies, already listening to the shared analyzer.
+	 */
+	public static synchronized OnsetDetector createOnsetDetector(final float lowFrequency, final float highFrequency) {
+		final SpectrumAnalyzer analyzer = getSpectrumAnalyzer();
+		final OnsetDetector detector = new OnsetDetector(analyzer, lowFrequency, highFrequency);
+
+		analyzer.addListener(detector);
+		return detector;
+	}
+
+	/**
+	 * @return The tracker that follows the beat of the captured audio, from onsets across the whole spectrum.
+	 */
+	public static synchronized BeatTracker getBeatTracker() {
+		if (beatTracker == null) {
+			final SpectrumAnalyzer analyzer = getSpectrumAnalyzer();
+			final OnsetDetector detector = OnsetDetector.broadband(analyzer);
+			final BeatTracker tracker = new BeatTracker(detector);
+
+			detector.addListener(tracker);
+			analyzer.addListener(detector);
+
+			beatTracker = tracker;
+		}
+
+		return beatTracker;
+	}
+
+	/**
+	 * @return The number of overruns reported by the capture service, or 0 if audio isn't being captured.
+	 */
+	public static synchronized long getOverrunCount() {
+		return captureService == null ? 0 : captureService.getOverrunCount();
+	}
+
+	public static synchronized void stopReader() {
 		if (reader != null) {
 			reader.stop();
 		}
+
+		if (captureService != null) {
+			captureService.stop();
+		}
+	}
+
+	private static AudioSource createSource() {
+		final String audioFile = System.getProperty(AUDIO_FILE_PROPERTY);
+
+		if (audioFile != null) {
+			try {
+				System.out.println("Reading Audio From File: " + audioFile);
+				return new FileAudioSource(new File(audioFile), true, true);
+			} catch (IOException e) {
+				throw new RuntimeException("Could not read audio file " + audioFile, e);
+			}
+		}
+
+		return new LineAudioSource();
 	}
 }
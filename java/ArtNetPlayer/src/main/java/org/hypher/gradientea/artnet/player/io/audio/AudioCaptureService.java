@@ -0,0 +1,319 @@
+package org.hypher.gradientea.artnet.player.io.audio;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Owns the audio input and shares it. A single capture thread reads blocks from an {@link AudioSource} and hands a
+ * copy of each to every {@link AudioSubscriber}, so the device is only opened once no matter how many things listen
+ * to it.
+ *
+ * <p>Every subscription has its own thread and a fixed number of block buffers. The capture thread copies each block
+ * into a free buffer and queues it; if the subscriber has fallen so far behind that none are free, the block is
+ * dropped for that subscriber alone and counted as an overrun. The capture thread never waits on a subscriber, and no
+ * blocks are allocated once the subscriptions are made.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class AudioCaptureService {
+	public static final int DEFAULT_BLOCK_SIZE = 1024;
+	public static final int DEFAULT_QUEUE_BLOCKS = 16;
+
+	/**
+	 * The least time between overrun warnings.
+	 */
+	private static final long OVERRUN_REPORT_NANOS = 5000000000L;
+
+	private final AudioSource source;
+	private final int blockSize;
+
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+	private Thread thread;
+	private volatile boolean running = false;
+	private volatile long blocksCaptured = 0;
+
+	private long lastOverrunReport;
+	private long lastSourceOverrunCount = 0;
+
+	public AudioCaptureService(final AudioSource source) {
+		this(source, DEFAULT_BLOCK_SIZE);
+	}
+
+	public AudioCaptureService(final AudioSource source, final int blockSize) {
+		Preconditions.checkArgument(blockSize > 0, "Block size must be positive");
+
+		this.source = source;
+		this.blockSize = blockSize;
+		this.lastOverrunReport = System.nanoTime() - OVERRUN_REPORT_NANOS;
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	public synchronized void start() {
+		if (running) return;
+		running = true;
+
+		thread = new Thread(new Runnable() {
+			final float[] samples = new float[blockSize];
+
+			@Override
+			public void run() {
+				try {
+					source.open(blockSize);
+
+					while (running && source.read(samples)) {
+						final long sequence = blocksCaptured;
+
+						for (Subscription subscription : subscriptions) {
+							subscription.offer(samples, sequence);
+						}
+
+						blocksCaptured = sequence + 1;
+						reportOverruns();
+					}
+				} catch (Exception e) {
+					System.err.println("Audio Capture Failed!");
+					e.printStackTrace();
+				} finally {
+					running = false;
+					source.close();
+				}
+			}
+		});
+
+		thread.setName("Audio Capture");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		if (running) {
+			running = false;
+			source.close();
+		}
+	}
+
+	public Subscription subscribe(final String name, final AudioSubscriber subscriber) {
+		return subscribe(name, subscriber, DEFAULT_QUEUE_BLOCKS);
+	}
+
+	/**
+	 * Starts delivering blocks to a subscriber on a new thread.
+	 *
+	 * @param name Used to name the thread and in overrun warnings.
+	 * @param queueBlocks How many blocks can be waiting for the subscriber before blocks start being dropped.
+	 */
+	public Subscription subscribe(final String name, final AudioSubscriber subscriber, final int queueBlocks) {
+		Preconditions.checkArgument(queueBlocks > 0, "Queue must hold at least one block");
+
+		final Subscription subscription = new Subscription(name, subscriber, queueBlocks);
+		subscriptions.add(subscription);
+		subscription.thread.start();
+
+		return subscription;
+	}
+
+	/**
+	 * @return The number of blocks dropped by every subscription, plus the number of times the source overran.
+	 */
+	public long getOverrunCount() {
+		long count = source.getOverrunCount();
+
+		for (Subscription subscription : subscriptions) {
+			count += subscription.getOverrunCount();
+		}
+
+		return count;
+	}
+
+	//endregion
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	/**
+	 * Warns about subscribers that are dropping blocks and a source that is losing audio, at most every
+	 * {@link #OVERRUN_REPORT_NANOS}. Called on the capture thread.
+	 */
+	private void reportOverruns() {
+		final long now = System.nanoTime();
+		if (now - lastOverrunReport < OVERRUN_REPORT_NANOS) return;
+
+		boolean reported = false;
+
+		for (Subscription subscription : subscriptions) {
+			final long overruns = subscription.overrunCount;
+
+			if (overruns != subscription.lastReportedOverrunCount) {
+				System.err.println(
+					"Audio subscriber \"" + subscription.name + "\" is falling behind: "
+						+ (overruns - subscription.lastReportedOverrunCount) + " blocks dropped, "
+						+ overruns + " in total"
+				);
+
+				subscription.lastReportedOverrunCount = overruns;
+				reported = true;
+			}
+		}
+
+		final long sourceOverruns = source.getOverrunCount();
+		if (sourceOverruns != lastSourceOverrunCount) {
+			System.err.println("Audio capture is falling behind its source: " + sourceOverruns + " overruns in total");
+
+			lastSourceOverrunCount = sourceOverruns;
+			reported = true;
+		}
+
+		if (reported) {
+			lastOverrunReport = now;
+		}
+	}
+
+	//endregion
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	public AudioSource getSource() {
+		return source;
+	}
+
+	public float getSampleRate() {
+		return source.getSampleRate();
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public float getBlockLengthInSeconds() {
+		return blockSize / source.getSampleRate();
+	}
+
+	public long getBlocksCaptured() {
+		return blocksCaptured;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	//endregion
+
+	/**
+	 * A subscriber's queue of blocks and the thread that delivers them.
+	 */
+	public class Subscription {
+		private final String name;
+		private final AudioSubscriber subscriber;
+		private final Thread thread;
+
+		private final BlockingQueue<Block> freeBlocks;
+		private final BlockingQueue<Block> queuedBlocks;
+
+		/** Only written by the capture thread. */
+		private volatile long overrunCount = 0;
+		private long lastReportedOverrunCount = 0;
+
+		private volatile boolean cancelled = false;
+
+		private Subscription(final String name, final AudioSubscriber subscriber, final int queueBlocks) {
+			this.name = name;
+			this.subscriber = subscriber;
+
+			this.freeBlocks = new ArrayBlockingQueue<Block>(queueBlocks);
+			this.queuedBlocks = new ArrayBlockingQueue<Block>(queueBlocks);
+			for (int i=0; i<queueBlocks; i++) {
+				freeBlocks.add(new Block(blockSize));
+			}
+
+			this.thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					deliver();
+				}
+			});
+			this.thread.setName("Audio Subscriber: " + name);
+			this.thread.setDaemon(true);
+		}
+
+		/**
+		 * Stops delivering blocks. The subscriber may still be given the block it is currently being given.
+		 */
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+			thread.interrupt();
+		}
+
+		/**
+		 * Queues a copy of a block, or drops it if none of the subscription's buffers are free. Called on the capture
+		 * thread.
+		 */
+		private void offer(final float[] samples, final long sequence) {
+			final Block block = freeBlocks.poll();
+
+			if (block == null) {
+				overrunCount ++;
+				return;
+			}
+
+			System.arraycopy(samples, 0, block.samples, 0, samples.length);
+			block.sequence = sequence;
+			queuedBlocks.add(block);
+		}
+
+		private void deliver() {
+			while (! cancelled) {
+				final Block block;
+				try {
+					block = queuedBlocks.take();
+				} catch (InterruptedException e) {
+					continue;
+				}
+
+				try {
+					subscriber.processBlock(block.samples, block.sequence);
+				} catch (Exception e) {
+					System.err.println("Audio subscriber \"" + name + "\" failed to process a block");
+					e.printStackTrace();
+				} finally {
+					freeBlocks.add(block);
+				}
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return How many blocks have been dropped because the subscriber fell behind.
+		 */
+		public long getOverrunCount() {
+			return overrunCount;
+		}
+
+		/**
+		 * @return How many blocks are waiting to be delivered.
+		 */
+		public int getQueuedBlockCount() {
+			return queuedBlocks.size();
+		}
+	}
+
+	private static class Block {
+		private final float[] samples;
+		private long sequence;
+
+		private Block(final int size) {
+			this.samples = new float[size];
+		}
+	}
+}
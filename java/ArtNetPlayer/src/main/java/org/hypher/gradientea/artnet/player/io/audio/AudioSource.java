@@ -0,0 +1,32 @@
+package org.hypher.gradientea.artnet.player.io.audio;
+
+import java.io.IOException;
+
+/**
+ * Where an {@link AudioCaptureService} gets its samples from: mono samples normalized to -1..1, read a block at a time
+ * by the service's capture thread.
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public interface AudioSource {
+	/**
+	 * Opens the source, getting it ready to be read in blocks of the given number of samples.
+	 */
+	void open(int blockSize) throws IOException;
+
+	/**
+	 * Fills the array, which holds one block, with the next samples, blocking until there are enough.
+	 *
+	 * @return False if the source has ended, in which case the contents of the array are undefined.
+	 */
+	boolean read(float[] samples) throws IOException;
+
+	void close();
+
+	float getSampleRate();
+
+	/**
+	 * @return How many times the source lost audio because it wasn't read quickly enough.
+	 */
+	long getOverrunCount();
+}
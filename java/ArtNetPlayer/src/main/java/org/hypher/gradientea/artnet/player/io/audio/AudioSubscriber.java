@@ -0,0 +1,16 @@
+package org.hypher.gradientea.artnet.player.io.audio;
+
+/**
+ * Receives the blocks captured by an {@link AudioCaptureService}, in order, on a thread of its own.
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public interface AudioSubscriber {
+	/**
+	 * Handles a block of samples. The array is reused once this returns, so it must be copied to be kept.
+	 *
+	 * @param sequence The number of the block since capture started. Blocks dropped because the subscriber fell behind
+	 * leave gaps in the sequence.
+	 */
+	void processBlock(float[] samples, long sequence);
+}
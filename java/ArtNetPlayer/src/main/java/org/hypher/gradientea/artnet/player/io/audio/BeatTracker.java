@@ -0,0 +1,386 @@
+package org.hypher.gradientea.artnet.player.io.audio;
+
+/**
+ * Follows the tempo and phase of the beat from the hops of an {@link OnsetDetector}, so that programs can act on a beat
+ * when it happens rather than a frame after it was heard.
+ *
+ * <p>The tempo comes from the autocorrelation of the recent onset novelty: every half second the lag between
+ * {@link #MIN_BPM} and {@link #MAX_BPM} at which the novelty best matches itself is taken as the beat period, with a
+ * gentle preference for tempos near {@link #PREFERRED_BPM} to settle between half and double time. The phase is kept
+ * by a simple phase-locked loop: an onset close to a predicted beat pulls the beat part of the way towards it, and
+ * onsets between beats are ignored.</p>
+ *
+ * <p>Positions in the audio stream are mapped to {@link System#nanoTime()} by watching when hops arrive, allowing for
+ * the detector's latency, so {@link BeatState#getPhase(long)} can be asked about any moment, including ones in the
+ * near future. The tracker runs on the analyzer's thread and publishes an immutable {@link BeatState} whenever
+ * something changes, which any thread can read.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class BeatTracker implements OnsetDetector.Listener {
+	public static final float MIN_BPM = 60;
+	public static final float MAX_BPM = 180;
+	public static final float PREFERRED_BPM = 120;
+
+	/**
+	 * The confidence below which the beat is not considered {@link BeatState#isLocked() locked}.
+	 */
+	public static final float MIN_CONFIDENCE = 0.3f;
+
+	/** How much novelty the tempo is estimated from. */
+	private static final float ENVELOPE_SECONDS = 6;
+	private static final float TEMPO_UPDATE_SECONDS = 0.5f;
+
+	/** The width, in octaves, of the preference for tempos near {@link #PREFERRED_BPM}. */
+	private static final double TEMPO_PREFERENCE_OCTAVES = 1.0;
+
+	/** How far each new estimate moves the period, when it agrees with the current one. */
+	private static final double PERIOD_SMOOTHING = 0.25;
+
+	/** How different, as a fraction, two periods can be and still agree. */
+	private static final double PERIOD_TOLERANCE = 0.08;
+
+	/** How close, as a fraction of the period, an onset has to be to a beat to move it, and by how much it does. */
+	private static final double PHASE_WINDOW = 0.2;
+	private static final double PHASE_GAIN = 0.2;
+
+	/** How many beats can pass without an onset near one before the phase is taken from the next onset. */
+	private static final int BEATS_BEFORE_RESYNC = 4;
+
+	/** How far the stream clock drifts up towards later arrivals each hop; earlier arrivals are taken immediately. */
+	private static final double CLOCK_RISE = 0.001;
+
+	/** How much the stream clock must move to publish a new state. */
+	private static final long CLOCK_PUBLISH_NANOS = 1000000;
+
+	private final float sampleRate;
+	private final int hopSize;
+	private final int latencySamples;
+
+	private final float[] envelope;
+	private final float[] unrolledEnvelope;
+	private int envelopePosition = 0;
+	private int envelopeCount = 0;
+	private int hopsSinceTempoUpdate = 0;
+	private final int tempoUpdateHops;
+
+	private final int minLag;
+	private final int maxLag;
+	private final float[] lagPreference;
+
+	private double periodSamples = 0;
+	private double pendingPeriodSamples = 0;
+	private double beatSample = 0;
+	private boolean beatAnchored = false;
+	private float confidence = 0;
+	private long lastMatchedSample = 0;
+	private long lastOnsetSample = Long.MIN_VALUE;
+
+	private boolean clockSet = false;
+	private double clockOffsetNanos;
+
+	private volatile BeatState state;
+
+	public BeatTracker(final OnsetDetector detector) {
+		this.sampleRate = detector.getSampleRate();
+		this.hopSize = detector.getHopSize();
+		this.latencySamples = detector.getLatencySamples();
+
+		final float hopsPerSecond = sampleRate / hopSize;
+
+		this.envelope = new float[(int) (ENVELOPE_SECONDS * hopsPerSecond)];
+		this.unrolledEnvelope = new float[envelope.length];
+		this.tempoUpdateHops = (int) (TEMPO_UPDATE_SECONDS * hopsPerSecond);
+
+		this.minLag = (int) Math.floor(60 / MAX_BPM * hopsPerSecond);
+		this.maxLag = (int) Math.ceil(60 / MIN_BPM * hopsPerSecond);
+
+		this.lagPreference = new float[maxLag + 2];
+		for (int lag=1; lag<lagPreference.length; lag++) {
+			final double octaves = Math.log(60 * hopsPerSecond / lag / PREFERRED_BPM) / Math.log(2);
+			lagPreference[lag] = (float) Math.exp(-0.5 * Math.pow(octaves / TEMPO_PREFERENCE_OCTAVES, 2));
+		}
+
+		this.state = new BeatState(sampleRate, 0, 0, 0, 0, Long.MIN_VALUE);
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	@Override
+	public void hopAnalyzed(final long sample, final float novelty, final boolean onset) {
+		boolean changed = updateClock(sample);
+
+		envelope[envelopePosition] = novelty;
+		envelopePosition = (envelopePosition + 1) % envelope.length;
+		if (envelopeCount < envelope.length) envelopeCount ++;
+
+		if (++ hopsSinceTempoUpdate >= tempoUpdateHops) {
+			hopsSinceTempoUpdate = 0;
+			changed |= updateTempo();
+		}
+
+		if (onset) {
+			lastOnsetSample = sample;
+			updatePhase(sample);
+			changed = true;
+		}
+
+		if (changed) {
+			state = new BeatState(
+				sampleRate,
+				periodSamples,
+				beatSample,
+				(long) clockOffsetNanos,
+				confidence,
+				lastOnsetSample == Long.MIN_VALUE ? Long.MIN_VALUE : sampleToNanos(lastOnsetSample)
+			);
+		}
+	}
+
+	//endregion
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	/**
+	 * Updates the mapping from stream positions to {@link System#nanoTime()}. Hops come in bursts, one block at a
+	 * time, so the ones that arrive soonest after their samples are the most accurate.
+	 *
+	 * @return Whether the clock moved enough to publish.
+	 */
+	private boolean updateClock(final long sample) {
+		final double offset = System.nanoTime() - (sample + latencySamples) * 1e9 / sampleRate;
+
+		if (! clockSet || offset < clockOffsetNanos) {
+			clockOffsetNanos = offset;
+			clockSet = true;
+		} else {
+			clockOffsetNanos += (offset - clockOffsetNanos) * CLOCK_RISE;
+		}
+
+		return Math.abs(clockOffsetNanos - state.clockOffsetNanos) > CLOCK_PUBLISH_NANOS;
+	}
+
+	/**
+	 * Estimates the beat period from the autocorrelation of the novelty.
+	 *
+	 * @return Whether the estimate changed.
+	 */
+	private boolean updateTempo() {
+		final int count = envelopeCount;
+		if (count < maxLag * 2) return false;
+
+		// Oldest first, less the mean so that only the repetition is correlated
+		final float[] values = unrolledEnvelope;
+		float mean = 0;
+		for (int i=0; i<count; i++) {
+			values[i] = envelope[(envelopePosition - count + i + envelope.length) % envelope.length];
+			mean += values[i];
+		}
+
+		mean /= count;
+		for (int i=0; i<count; i++) {
+			values[i] -= mean;
+		}
+
+		float energy = 0;
+		for (int i=0; i<count; i++) {
+			energy += values[i] * values[i];
+		}
+		if (energy <= 0) return false;
+		energy /= count;
+
+		int bestLag = 0;
+		float bestScore = 0;
+		float bestCorrelation = 0;
+		float bestBefore = 0, bestAfter = 0;
+		float before = autocorrelation(values, count, minLag - 1);
+		float current = autocorrelation(values, count, minLag);
+
+		for (int lag=minLag; lag<=maxLag; lag++) {
+			final float after = autocorrelation(values, count, lag + 1);
+			final float score = current * lagPreference[lag];
+
+			if (score > bestScore) {
+				bestScore = score;
+				bestLag = lag;
+				bestCorrelation = current;
+				bestBefore = before;
+				bestAfter = after;
+			}
+
+			before = current;
+			current = after;
+		}
+
+		if (bestLag == 0) return false;
+
+		// Refine the lag between hops with a parabola through the peak and its neighbours
+		double lag = bestLag;
+		final float curvature = bestBefore - 2 * bestCorrelation + bestAfter;
+		if (curvature < 0) {
+			lag += 0.5 * (bestBefore - bestAfter) / curvature;
+		}
+
+		confidence = Math.min(1, bestCorrelation / energy);
+		final double estimate = lag * hopSize;
+
+		if (periodSamples == 0 || agrees(estimate, pendingPeriodSamples)) {
+			// First estimate, or the same new tempo twice in a row
+			periodSamples = estimate;
+		} else if (agrees(estimate, periodSamples)) {
+			periodSamples += (estimate - periodSamples) * PERIOD_SMOOTHING;
+		}
+
+		pendingPeriodSamples = estimate;
+		return true;
+	}
+
+	private static float autocorrelation(final float[] values, final int count, final int lag) {
+		float sum = 0;
+		for (int i=lag; i<count; i++) {
+			sum += values[i] * values[i - lag];
+		}
+
+		return sum / (count - lag);
+	}
+
+	private static boolean agrees(final double period, final double other) {
+		return other > 0 && Math.abs(period / other - 1) < PERIOD_TOLERANCE;
+	}
+
+	/**
+	 * Pulls the nearest beat towards an onset, or starts the beat from it if the beat has been lost.
+	 */
+	private void updatePhase(final long sample) {
+		if (periodSamples == 0) return;
+
+		if (! beatAnchored || sample - lastMatchedSample > BEATS_BEFORE_RESYNC * periodSamples) {
+			beatSample = sample;
+			beatAnchored = true;
+			lastMatchedSample = sample;
+			return;
+		}
+
+		final double predicted = beatSample + Math.round((sample - beatSample) / periodSamples) * periodSamples;
+		final double error = sample - predicted;
+
+		if (Math.abs(error) < PHASE_WINDOW * periodSamples) {
+			beatSample = predicted + error * PHASE_GAIN;
+			lastMatchedSample = sample;
+		}
+	}
+
+	private long sampleToNanos(final long sample) {
+		return (long) (clockOffsetNanos + sample * 1e9 / sampleRate);
+	}
+
+	//endregion
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	/**
+	 * @return The latest estimate of the beat.
+	 */
+	public BeatState getState() {
+		return state;
+	}
+
+	//endregion
+
+	/**
+	 * An estimate of the beat: its tempo, and where its beats fall in {@link System#nanoTime()}.
+	 */
+	public static class BeatState {
+		private final float sampleRate;
+		private final double periodSamples;
+		private final double beatSample;
+		private final long clockOffsetNanos;
+		private final float confidence;
+		private final long lastOnsetNanos;
+
+		private BeatState(
+			final float sampleRate,
+			final double periodSamples,
+			final double beatSample,
+			final long clockOffsetNanos,
+			final float confidence,
+			final long lastOnsetNanos
+		) {
+			this.sampleRate = sampleRate;
+			this.periodSamples = periodSamples;
+			this.beatSample = beatSample;
+			this.clockOffsetNanos = clockOffsetNanos;
+			this.confidence = confidence;
+			this.lastOnsetNanos = lastOnsetNanos;
+		}
+
+		/**
+		 * @return Whether there is a tempo, and the music matches it well enough to be worth following.
+		 */
+		public boolean isLocked() {
+			return periodSamples > 0 && confidence >= MIN_CONFIDENCE;
+		}
+
+		/**
+		 * @return How far through the beat the given moment is, from 0 at a beat up to 1 at the next, or 0 if there is
+		 * no tempo yet.
+		 */
+		public double getPhase(final long nanoTime) {
+			if (periodSamples <= 0) return 0;
+
+			final double beats = (nanosToSample(nanoTime) - beatSample) / periodSamples;
+			return beats - Math.floor(beats);
+		}
+
+		/**
+		 * @return Whether a beat falls after {@code fromNanos} and at or before {@code toNanos}.
+		 */
+		public boolean isBeatBetween(final long fromNanos, final long toNanos) {
+			if (periodSamples <= 0 || toNanos <= fromNanos) return false;
+
+			final double fromBeats = (nanosToSample(fromNanos) - beatSample) / periodSamples;
+			final double toBeats = (nanosToSample(toNanos) - beatSample) / periodSamples;
+
+			return Math.floor(toBeats) > Math.floor(fromBeats);
+		}
+
+		/**
+		 * @return The time of the first beat after the given moment, or {@link Long#MAX_VALUE} if there is no tempo.
+		 */
+		public long getNextBeatNanos(final long nanoTime) {
+			if (periodSamples <= 0) return Long.MAX_VALUE;
+
+			final double beats = Math.floor((nanosToSample(nanoTime) - beatSample) / periodSamples) + 1;
+			return (long) (clockOffsetNanos + (beatSample + beats * periodSamples) * 1e9 / sampleRate);
+		}
+
+		public float getBeatsPerMinute() {
+			return periodSamples <= 0 ? 0 : (float) (60 * sampleRate / periodSamples);
+		}
+
+		public long getPeriodNanos() {
+			return (long) (periodSamples * 1e9 / sampleRate);
+		}
+
+		/**
+		 * @return How strongly the music repeats at the tracked tempo, from 0 to 1.
+		 */
+		public float getConfidence() {
+			return confidence;
+		}
+
+		/**
+		 * @return When the latest onset happened, or {@link Long#MIN_VALUE} if there hasn't been one.
+		 */
+		public long getLastOnsetNanos() {
+			return lastOnsetNanos;
+		}
+
+		private double nanosToSample(final long nanoTime) {
+			return (nanoTime - clockOffsetNanos) * sampleRate / 1e9;
+		}
+	}
+}
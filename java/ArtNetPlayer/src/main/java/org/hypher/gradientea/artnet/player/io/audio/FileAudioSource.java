@@ -0,0 +1,163 @@
+package org.hypher.gradientea.artnet.player.io.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads audio from a WAV, AIFF or AU file instead of a line-in, so the audio programs can be run and tested without a
+ * sound card. The channels are mixed down to mono. In real time the source delivers samples no faster than the file's
+ * sample rate, like a line-in would; otherwise it delivers them as fast as they are read.
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class FileAudioSource implements AudioSource {
+	private final File file;
+	private final boolean loop;
+	private final boolean realTime;
+
+	private final AudioFormat fileFormat;
+
+	private AudioInputStream stream;
+	private byte[] byteBuffer;
+
+	private long startNanos;
+	private long samplesRead;
+
+	public FileAudioSource(final File file, final boolean loop, final boolean realTime) throws IOException {
+		this.file = file;
+		this.loop = loop;
+		this.realTime = realTime;
+
+		try {
+			this.fileFormat = AudioSystem.getAudioFileFormat(file).getFormat();
+		} catch (UnsupportedAudioFileException e) {
+			throw new IOException("Unsupported audio file " + file, e);
+		}
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	@Override
+	public void open(final int blockSize) throws IOException {
+		openStream();
+
+		byteBuffer = new byte[blockSize * stream.getFormat().getFrameSize()];
+		startNanos = System.nanoTime();
+		samplesRead = 0;
+	}
+
+	@Override
+	public boolean read(final float[] samples) throws IOException {
+		boolean rewound = false;
+
+		for (int read = 0; read < byteBuffer.length;) {
+			final int count = stream.read(byteBuffer, read, byteBuffer.length - read);
+
+			if (count < 0) {
+				// Give up at the end unless looping, or if the file turned out to be empty
+				if (! loop || rewound) return false;
+
+				stream.close();
+				openStream();
+				rewound = true;
+			} else if (count > 0) {
+				read += count;
+				rewound = false;
+			}
+		}
+
+		final int channels = stream.getFormat().getChannels();
+		for (int i=0; i<samples.length; i++) {
+			float sum = 0;
+
+			for (int c=0; c<channels; c++) {
+				final int offset = (i * channels + c) * 2;
+				sum += (short) ((byteBuffer[offset] << 8) | (byteBuffer[offset + 1] & 0xff));
+			}
+
+			samples[i] = sum / channels / Short.MAX_VALUE;
+		}
+
+		samplesRead += samples.length;
+
+		if (realTime) {
+			waitUntilDue();
+		}
+
+		return true;
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (stream != null) {
+				stream.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Failed to close audio file " + file);
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public float getSampleRate() {
+		return fileFormat.getSampleRate();
+	}
+
+	@Override
+	public long getOverrunCount() {
+		return 0;
+	}
+
+	//endregion
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	/**
+	 * Opens the file as 16-bit big-endian samples in its own sample rate and channel count.
+	 */
+	private void openStream() throws IOException {
+		try {
+			stream = AudioSystem.getAudioInputStream(
+				new AudioFormat(fileFormat.getSampleRate(), 16, fileFormat.getChannels(), true, true),
+				AudioSystem.getAudioInputStream(file)
+			);
+		} catch (UnsupportedAudioFileException e) {
+			throw new IOException("Unsupported audio file " + file, e);
+		}
+	}
+
+	/**
+	 * Sleeps until the samples read so far would have been captured by a line-in.
+	 */
+	private void waitUntilDue() throws IOException {
+		final long dueNanos = startNanos + (long) (samplesRead * 1e9 / fileFormat.getSampleRate());
+		final long waitNanos = dueNanos - System.nanoTime();
+
+		if (waitNanos > 0) {
+			try {
+				Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading " + file, e);
+			}
+		}
+	}
+
+	//endregion
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	public File getFile() {
+		return file;
+	}
+
+	//endregion
+}
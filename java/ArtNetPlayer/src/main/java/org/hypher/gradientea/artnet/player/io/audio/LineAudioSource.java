@@ -0,0 +1,168 @@
+package org.hypher.gradientea.artnet.player.io.audio;
+
+import com.google.common.collect.Maps;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.TargetDataLine;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Reads audio from a line-in, by default the first one whose mixer matches {@link #DESIRED_MIXERS}.
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class LineAudioSource implements AudioSource {
+	/**
+	 * Parts of mixer names to look for, most preferred first.
+	 */
+	public static String[] DESIRED_MIXERS = new String[]{
+		"fast", // FastTrack USB Audio
+		"display audio", // Display Input
+		"usb", // Any other USB audio device
+		"built-in micro"
+	};
+
+	public static AudioFormat DESIRED_FORMAT = new AudioFormat(
+		48000, 16, 1, true, true
+	);
+
+	/**
+	 * How many blocks the line itself buffers, so the capture thread can fall behind briefly without losing audio.
+	 */
+	private static final int LINE_BUFFER_BLOCKS = 8;
+
+	private final TargetDataLine inputLine;
+
+	private byte[] byteBuffer;
+	private long overrunCount = 0;
+
+	public LineAudioSource() {
+		this(selectDesiredInput());
+	}
+
+	public LineAudioSource(final TargetDataLine inputLine) {
+		this.inputLine = inputLine;
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	@Override
+	public void open(final int blockSize) throws IOException {
+		byteBuffer = new byte[blockSize * DESIRED_FORMAT.getFrameSize()];
+
+		try {
+			inputLine.open(DESIRED_FORMAT, byteBuffer.length * LINE_BUFFER_BLOCKS);
+		} catch (LineUnavailableException e) {
+			throw new IOException("Could not open audio input " + inputLine.getLineInfo(), e);
+		}
+
+		inputLine.start();
+	}
+
+	@Override
+	public boolean read(final float[] samples) throws IOException {
+		for (int read = 0; read < byteBuffer.length;) {
+			final int count = inputLine.read(byteBuffer, read, byteBuffer.length - read);
+			if (count <= 0 && ! inputLine.isOpen()) return false;
+
+			read += count;
+		}
+
+		if (inputLine.available() >= inputLine.getBufferSize()) {
+			// The line's buffer filled up while we were away, so it has probably thrown some audio away
+			overrunCount ++;
+		}
+
+		for (int i=0; i<samples.length; i++) {
+			samples[i] = (float) (short) ((byteBuffer[i*2] << 8) | (byteBuffer[i*2 + 1] & 0xff)) / Short.MAX_VALUE;
+		}
+
+		return true;
+	}
+
+	@Override
+	public void close() {
+		inputLine.close();
+	}
+
+	@Override
+	public float getSampleRate() {
+		return DESIRED_FORMAT.getSampleRate();
+	}
+
+	@Override
+	public long getOverrunCount() {
+		return overrunCount;
+	}
+
+	public static TargetDataLine selectDesiredInput() {
+		Map<String, TargetDataLine> mixerNameLineMap = Maps.newLinkedHashMap();
+
+		try {
+			for (Mixer.Info mixer :  AudioSystem.getMixerInfo()) {
+				Line.Info[] targetLines = AudioSystem.getMixer(mixer).getTargetLineInfo();
+				if (targetLines.length > 0) {
+					Line line = AudioSystem.getLine(targetLines[0]);
+
+					if (line instanceof TargetDataLine) {
+						mixerNameLineMap.put(mixer.toString().toLowerCase(), (TargetDataLine) line);
+					}
+				}
+			}
+		} catch (LineUnavailableException e) {
+			throw new RuntimeException(e);
+		}
+
+		for (String desiredName: DESIRED_MIXERS) {
+			for (Map.Entry<String, TargetDataLine> entry : mixerNameLineMap.entrySet()) {
+				if (entry.getKey().contains(desiredName.toLowerCase())) {
+					System.out.println("Reading Audio From Desired Input: " + entry.getKey());
+					return entry.getValue();
+				}
+			}
+		}
+
+		if (mixerNameLineMap.isEmpty()) {
+			throw new RuntimeException("No Mixers Available for Input");
+		}
+
+		System.out.println("Reading Audio From First Device: " + mixerNameLineMap.keySet().iterator().next());
+		return mixerNameLineMap.values().iterator().next();
+	}
+
+	public static void printMixerInfo() {
+		try {
+			Mixer.Info[] mixerInfos = AudioSystem.getMixerInfo();
+			for (Mixer.Info mixerInfo: mixerInfos){
+				Mixer m = AudioSystem.getMixer(mixerInfo);
+				Line.Info[] lineInfos = m.getSourceLineInfo();
+				System.out.println ("Mixer: " + mixerInfo);
+				for (Line.Info lineInfo:lineInfos){
+					System.out.println("\tLineInfo" + lineInfo);
+
+					Line line = m.getLine(lineInfo);
+					System.out.println("\t\tLine: "+line);
+				}
+
+				lineInfos = m.getTargetLineInfo();
+				for (Line.Info lineInfo:lineInfos){
+					final Line line = m.getLine(lineInfo);
+					if (line instanceof TargetDataLine) {
+						TargetDataLine targetDataLine = (TargetDataLine) line;
+						System.out.println("\tTargetDataLine:" + lineInfo + " -- " + targetDataLine.getFormat());
+					}
+				}
+			}
+		} catch (LineUnavailableException e) {
+			e.printStackTrace();
+		}
+	}
+
+	//endregion
+}
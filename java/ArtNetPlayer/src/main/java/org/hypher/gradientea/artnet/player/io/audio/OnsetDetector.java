@@ -0,0 +1,196 @@
+package org.hypher.gradientea.artnet.player.io.audio;
+
+import org.hypher.gradientea.artnet.player.io.stats.WindowStats;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Finds the starts of notes and drum hits in the spectra of a {@link SpectrumAnalyzer}, using spectral flux: the total
+ * amount by which the (log-compressed) magnitude of each bin in a frequency range went up since the previous spectrum.
+ *
+ * <p>A hop is an onset when its flux is a local peak and rises above an adaptive threshold, some number of standard
+ * deviations above the mean flux of the last {@value #STATS_SECONDS} seconds, so the detector follows the dynamics of
+ * the music instead of needing a fixed level. Deciding on a peak needs the following hop, so onsets are reported one hop
+ * late. Each hop costs a pass over the bins in the range; the {@link WindowStats} are constant time.</p>
+ *
+ * <p>Runs on the analyzer's thread. The onset count and sensitivity can be used from any thread.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class OnsetDetector implements SpectrumAnalyzer.Listener {
+	/**
+	 * How many standard deviations above its recent mean the flux has to go to be an onset.
+	 */
+	public static final float DEFAULT_SENSITIVITY = 1.5f;
+
+	/** How much of the recent flux the threshold is based on. */
+	private static final float STATS_SECONDS = 1.5f;
+
+	/** The shortest time between onsets. */
+	private static final float MIN_INTERVAL_SECONDS = 0.08f;
+
+	/** The least flux per bin that can be an onset, so that noise in silence isn't. */
+	private static final float MIN_FLUX_PER_BIN = 0.01f;
+
+	private final float sampleRate;
+	private final int hopSize;
+	private final int halfWindow;
+	private final int latencySamples;
+	private final int firstBin;
+	private final int lastBin;
+
+	private final float[] previousLogMagnitudes;
+	private boolean primed = false;
+
+	private final WindowStats fluxStats;
+	private final float minFlux;
+	private final int minIntervalSamples;
+	private volatile float sensitivity = DEFAULT_SENSITIVITY;
+
+	/** The previous hop, which is decided once the current one is known, and the one before it. */
+	private float previousFlux, olderFlux;
+	private float previousThreshold;
+	private float previousMean;
+	private long previousSample;
+
+	private long lastOnsetSample = Long.MIN_VALUE / 2;
+	private volatile long onsetCount = 0;
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	/**
+	 * Creates a detector that watches the bins between two frequencies. It still has to be added to the analyzer as a
+	 * listener.
+	 */
+	public OnsetDetector(final SpectrumAnalyzer analyzer, final float lowFrequency, final float highFrequency) {
+		this.sampleRate = analyzer.getSampleRate();
+		this.firstBin = analyzer.binOfFrequency(lowFrequency);
+		this.lastBin = Math.max(firstBin, analyzer.binOfFrequency(highFrequency));
+
+		// Hops are dated by the middle of their window, and are decided a hop after they are analyzed
+		this.hopSize = analyzer.getHopSize();
+		this.halfWindow = analyzer.getFftSize() / 2;
+		this.latencySamples = halfWindow + analyzer.getHopSize();
+
+		this.previousLogMagnitudes = new float[analyzer.getBinCount()];
+		this.fluxStats = new WindowStats(Math.max(2, Math.round(STATS_SECONDS * sampleRate / analyzer.getHopSize())));
+		this.minFlux = MIN_FLUX_PER_BIN * (lastBin - firstBin + 1);
+		this.minIntervalSamples = (int) (MIN_INTERVAL_SECONDS * sampleRate);
+	}
+
+	/**
+	 * @return A detector that watches the whole spectrum.
+	 */
+	public static OnsetDetector broadband(final SpectrumAnalyzer analyzer) {
+		return new OnsetDetector(analyzer, 0, analyzer.getSampleRate() / 2);
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	@Override
+	public void spectrumPublished(final SpectrumAnalyzer.Spectrum spectrum) {
+		final float[] magnitudes = spectrum.getMagnitudes();
+		final float[] previous = previousLogMagnitudes;
+
+		float flux = 0;
+		for (int bin=firstBin; bin<=lastBin; bin++) {
+			final float logMagnitude = (float) Math.log(1 + magnitudes[bin]);
+			final float rise = logMagnitude - previous[bin];
+
+			if (rise > 0) flux += rise;
+			previous[bin] = logMagnitude;
+		}
+
+		if (! primed) {
+			// The first spectrum has nothing to rise from
+			primed = true;
+			return;
+		}
+
+		final long sample = spectrum.getEndSample() - halfWindow;
+		final float mean = fluxStats.mean();
+		final float threshold = Math.max(minFlux, mean + sensitivity * fluxStats.standardDeviation());
+
+		final boolean onset = previousFlux > previousThreshold
+			&& previousFlux >= flux
+			&& previousFlux > olderFlux
+			&& previousSample - lastOnsetSample >= minIntervalSamples;
+
+		if (onset) {
+			lastOnsetSample = previousSample;
+			onsetCount ++;
+		}
+
+		for (Listener listener : listeners) {
+			listener.hopAnalyzed(previousSample, Math.max(0, previousFlux - previousMean), onset);
+		}
+
+		fluxStats.add(flux);
+
+		olderFlux = previousFlux;
+		previousFlux = flux;
+		previousThreshold = threshold;
+		previousMean = mean;
+		previousSample = sample;
+	}
+
+	public void addListener(final Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(final Listener listener) {
+		listeners.remove(listener);
+	}
+
+	//endregion
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	/**
+	 * @return How many onsets have been detected. Comparing it with an earlier value tells whether there have been
+	 * any since.
+	 */
+	public long getOnsetCount() {
+		return onsetCount;
+	}
+
+	public float getSensitivity() {
+		return sensitivity;
+	}
+
+	public void setSensitivity(final float sensitivity) {
+		this.sensitivity = sensitivity;
+	}
+
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getHopSize() {
+		return hopSize;
+	}
+
+	/**
+	 * @return How many samples after a hop's date it is reported to the listeners.
+	 */
+	public int getLatencySamples() {
+		return latencySamples;
+	}
+
+	//endregion
+
+	/**
+	 * Is told about every hop on the analyzer's thread, a hop after it was analyzed.
+	 */
+	public interface Listener {
+		/**
+		 * @param sample The position in the stream of the middle of the hop's window.
+		 * @param novelty How far the hop's flux rose above its recent mean; never negative.
+		 * @param onset Whether the hop is an onset.
+		 */
+		void hopAnalyzed(long sample, float novelty, boolean onset);
+	}
+}
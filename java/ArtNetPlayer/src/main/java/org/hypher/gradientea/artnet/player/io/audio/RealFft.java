@@ -0,0 +1,149 @@
+package org.hypher.gradientea.artnet.player.io.audio;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A fast Fourier transform of real samples for one power-of-two size. The twiddle factors and bit-reversal order are
+ * computed once in the constructor, and the work buffers are reused, so a transform doesn't allocate.
+ *
+ * <p>The samples are packed into a complex sequence of half the length, with even samples as the real parts and odd
+ * samples as the imaginary parts, transformed with an iterative radix-2 FFT, and then unpacked into the spectrum of the
+ * original samples. That is about half the work of a complex transform of the full length.</p>
+ *
+ * <p>Instances are not thread safe.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class RealFft {
+	private final int size;
+	private final int halfSize;
+
+	/** The bit-reversed position of each index of the half-size transform. */
+	private final int[] bitReversed;
+
+	/** Twiddle factors of the half-size transform, {@code e^(-2 pi i k / halfSize)} for k below halfSize / 2. */
+	private final float[] cosTable;
+	private final float[] sinTable;
+
+	/** Twiddle factors for unpacking, {@code e^(-2 pi i k / size)} for k below halfSize. */
+	private final float[] unpackCosTable;
+	private final float[] unpackSinTable;
+
+	private final float[] real;
+	private final float[] imag;
+
+	public RealFft(final int size) {
+		Preconditions.checkArgument(size >= 4 && Integer.bitCount(size) == 1, "Size must be a power of two of at least 4");
+
+		this.size = size;
+		this.halfSize = size / 2;
+
+		this.bitReversed = new int[halfSize];
+		final int bits = Integer.numberOfTrailingZeros(halfSize);
+		for (int i=0; i<halfSize; i++) {
+			bitReversed[i] = Integer.reverse(i) >>> (32 - bits);
+		}
+
+		this.cosTable = new float[halfSize / 2];
+		this.sinTable = new float[halfSize / 2];
+		for (int k=0; k<cosTable.length; k++) {
+			final double angle = -2 * Math.PI * k / halfSize;
+			cosTable[k] = (float) Math.cos(angle);
+			sinTable[k] = (float) Math.sin(angle);
+		}
+
+		this.unpackCosTable = new float[halfSize];
+		this.unpackSinTable = new float[halfSize];
+		for (int k=0; k<halfSize; k++) {
+			final double angle = -2 * Math.PI * k / size;
+			unpackCosTable[k] = (float) Math.cos(angle);
+			unpackSinTable[k] = (float) Math.sin(angle);
+		}
+
+		this.real = new float[halfSize];
+		this.imag = new float[halfSize];
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	/**
+	 * Transforms {@link #getSize()} samples, writing the magnitude of each of the {@link #getBinCount()} frequency bins
+	 * from 0 Hz to the Nyquist frequency. The magnitudes are not normalized, so a full-scale sine wave centered on a
+	 * bin has a magnitude of {@code size / 2} there.
+	 */
+	public void magnitudes(final float[] samples, final int offset, final float[] magnitudes) {
+		transform(samples, offset);
+
+		// Bins 0 and halfSize are both purely real and come from the first packed value
+		magnitudes[0] = Math.abs(real[0] + imag[0]);
+		magnitudes[halfSize] = Math.abs(real[0] - imag[0]);
+
+		for (int k=1; k<halfSize; k++) {
+			final float zr = real[k], zi = imag[k];
+			final float cr = real[halfSize - k], ci = - imag[halfSize - k];
+
+			// The spectra of the even and odd samples, and the odd one shifted by the unpacking twiddle
+			final float evenR = (zr + cr) * 0.5f, evenI = (zi + ci) * 0.5f;
+			final float oddR = (zi - ci) * 0.5f, oddI = (cr - zr) * 0.5f;
+
+			final float wr = unpackCosTable[k], wi = unpackSinTable[k];
+			final float xr = evenR + wr * oddR - wi * oddI;
+			final float xi = evenI + wr * oddI + wi * oddR;
+
+			magnitudes[k] = (float) Math.sqrt(xr * xr + xi * xi);
+		}
+	}
+
+	//endregion
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	/**
+	 * Packs the samples into {@link #real} and {@link #imag} in bit-reversed order and runs the half-size transform.
+	 */
+	private void transform(final float[] samples, final int offset) {
+		for (int i=0; i<halfSize; i++) {
+			final int j = bitReversed[i];
+			real[j] = samples[offset + 2*i];
+			imag[j] = samples[offset + 2*i + 1];
+		}
+
+		for (int span = 1, twiddleStep = halfSize / 2; span < halfSize; span *= 2, twiddleStep /= 2) {
+			for (int start = 0; start < halfSize; start += span * 2) {
+				for (int k = 0, twiddle = 0; k < span; k++, twiddle += twiddleStep) {
+					final int a = start + k;
+					final int b = a + span;
+
+					final float wr = cosTable[twiddle], wi = sinTable[twiddle];
+					final float br = real[b] * wr - imag[b] * wi;
+					final float bi = real[b] * wi + imag[b] * wr;
+
+					real[b] = real[a] - br;
+					imag[b] = imag[a] - bi;
+					real[a] += br;
+					imag[a] += bi;
+				}
+			}
+		}
+	}
+
+	//endregion
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The number of frequency bins, {@code size / 2 + 1}.
+	 */
+	public int getBinCount() {
+		return halfSize + 1;
+	}
+
+	//endregion
+}
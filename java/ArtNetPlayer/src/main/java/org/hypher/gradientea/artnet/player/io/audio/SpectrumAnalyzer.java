@@ -0,0 +1,293 @@
+package org.hypher.gradientea.artnet.player.io.audio;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Turns a stream of samples into a stream of spectra, shared by everything that needs one. A spectrum of the last
+ * {@code fftSize} samples is computed every {@code hopSize} samples, so successive spectra overlap and a change in the
+ * music shows up within a hop rather than a whole block. Each frame is shaped with a Hann window, scaled so that a
+ * sine wave has the same magnitude as it would without one.
+ *
+ * <p>Samples come from a single thread through {@link #process(float[], int, int)}; any number of threads can read the
+ * results. Spectra are kept in a small ring, and each one carries the sequence number it was published
+ * with, in the same way as the blocks of {@link org.hypher.gradientea.artnet.player.io.BasicAudioReader}. The ring
+ * holds {@link #PUBLISHED_SPECTRA} spectra, so the one returned by {@link #getSpectrum()} stays intact for that many
+ * hops, though reading it directly isn't checked; {@link #copyMagnitudes(float[])} copies the newest one while
+ * holding a lock that the processing thread takes only while it writes that same spectrum, so copies are never torn.
+ * Consumers that need every spectrum rather than the newest, such as onset detection, can be added as
+ * {@link Listener}s instead.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class SpectrumAnalyzer {
+	public static final int DEFAULT_FFT_SIZE = 1024;
+
+	/**
+	 * The default hop, giving 75% overlap between successive spectra.
+	 */
+	public static final int DEFAULT_HOP_DIVISOR = 4;
+
+	public static final int PUBLISHED_SPECTRA = 8;
+
+	private final float sampleRate;
+	private final int fftSize;
+	private final int hopSize;
+
+	private final RealFft fft;
+	private final float[] window;
+	private final float[] windowed;
+
+	/** The last fftSize samples, oldest at {@link #historyPosition}. */
+	private final float[] history;
+	private int historyPosition = 0;
+	private int samplesSinceSpectrum = 0;
+	private long samplesProcessed = 0;
+
+	private final Spectrum[] spectra;
+	private volatile long publishedSequence = -1;
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	public SpectrumAnalyzer(final float sampleRate) {
+		this(sampleRate, DEFAULT_FFT_SIZE, DEFAULT_FFT_SIZE / DEFAULT_HOP_DIVISOR);
+	}
+
+	public SpectrumAnalyzer(final float sampleRate, final int fftSize, final int hopSize) {
+		Preconditions.checkArgument(hopSize > 0 && hopSize <= fftSize, "Hop size must be between 1 and the FFT size");
+
+		this.sampleRate = sampleRate;
+		this.fftSize = fftSize;
+		this.hopSize = hopSize;
+
+		this.fft = new RealFft(fftSize);
+		this.windowed = new float[fftSize];
+		this.history = new float[fftSize];
+
+		// A Hann window, doubled to make up for halving the amplitude of a centered sine wave
+		this.window = new float[fftSize];
+		for (int i=0; i<fftSize; i++) {
+			window[i] = (float) (1 - Math.cos(2 * Math.PI * i / fftSize));
+		}
+
+		this.spectra = new Spectrum[PUBLISHED_SPECTRA];
+		for (int i=0; i<spectra.length; i++) {
+			spectra[i] = new Spectrum(fft.getBinCount());
+		}
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	/**
+	 * Adds samples to the stream, publishing a spectrum every {@link #getHopSize()} samples. Must only be called from
+	 * one thread.
+	 */
+	public void process(final float[] samples, final int offset, final int length) {
+		for (int i=offset, end=offset+length; i<end;) {
+			final int count = Math.min(
+				end - i,
+				Math.min(hopSize - samplesSinceSpectrum, fftSize - historyPosition)
+			);
+
+			System.arraycopy(samples, i, history, historyPosition, count);
+
+			i += count;
+			historyPosition = (historyPosition + count) % fftSize;
+			samplesSinceSpectrum += count;
+			samplesProcessed += count;
+
+			if (samplesSinceSpectrum == hopSize) {
+				samplesSinceSpectrum = 0;
+				publishSpectrum();
+			}
+		}
+	}
+
+	/**
+	 * @return The newest spectrum, or null if none has been computed yet. It stays intact for
+	 * {@link #PUBLISHED_SPECTRA} hops after this call.
+	 */
+	public Spectrum getSpectrum() {
+		final long sequence = publishedSequence;
+		return sequence < 0 ? null : spectra[slotIndex(sequence)];
+	}
+
+	/**
+	 * Copies the magnitudes of the newest spectrum, holding its lock so that it can't be overwritten during the copy.
+	 *
+	 * @return The sequence number of the spectrum that was copied, or -1 if none has been computed yet.
+	 */
+	public long copyMagnitudes(final float[] target) {
+		while (true) {
+			final long sequence = publishedSequence;
+			if (sequence < 0) return -1;
+
+			final Spectrum spectrum = spectra[slotIndex(sequence)];
+
+			synchronized (spectrum.lock) {
+				// Otherwise the slot moved on since the sequence was read, so look again
+				if (spectrum.sequence == sequence) {
+					System.arraycopy(spectrum.magnitudes, 0, target, 0, spectrum.magnitudes.length);
+					return sequence;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a listener to be given every spectrum as it is published.
+	 */
+	public void addListener(final Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(final Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return Bands like Minim's {@code FFT.logAverages()} for this analyzer's spectra.
+	 */
+	public SpectrumBands logBands(final int minBandwidth, final int bandsPerOctave) {
+		return SpectrumBands.logAverages(fftSize, sampleRate, minBandwidth, bandsPerOctave);
+	}
+
+	/**
+	 * @return Mel-spaced bands for this analyzer's spectra.
+	 */
+	public SpectrumBands melBands(final int bandCount, final float lowFrequency, final float highFrequency) {
+		return SpectrumBands.mel(fftSize, sampleRate, bandCount, lowFrequency, highFrequency);
+	}
+
+	public float frequencyOfBin(final int bin) {
+		return bin * sampleRate / fftSize;
+	}
+
+	/**
+	 * @return The bin nearest the frequency, limited to the bins that exist.
+	 */
+	public int binOfFrequency(final float frequency) {
+		return Math.max(0, Math.min(getBinCount() - 1, Math.round(frequency * fftSize / sampleRate)));
+	}
+
+	//endregion
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	private void publishSpectrum() {
+		final long sequence = publishedSequence + 1;
+		final Spectrum spectrum = spectra[slotIndex(sequence)];
+
+		// Unroll the history, oldest sample first, applying the window as it goes
+		final int tail = fftSize - historyPosition;
+		for (int i=0; i<tail; i++) {
+			windowed[i] = history[historyPosition + i] * window[i];
+		}
+		for (int i=tail; i<fftSize; i++) {
+			windowed[i] = history[i - tail] * window[i];
+		}
+
+		synchronized (spectrum.lock) {
+			spectrum.sequence = -1;
+
+			fft.magnitudes(windowed, 0, spectrum.magnitudes);
+			spectrum.endSample = samplesProcessed;
+
+			spectrum.sequence = sequence;
+		}
+
+		publishedSequence = sequence;
+
+		for (Listener listener : listeners) {
+			listener.spectrumPublished(spectrum);
+		}
+	}
+
+	private int slotIndex(final long sequence) {
+		return (int) (sequence % spectra.length);
+	}
+
+	//endregion
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getFftSize() {
+		return fftSize;
+	}
+
+	public int getHopSize() {
+		return hopSize;
+	}
+
+	public int getBinCount() {
+		return fft.getBinCount();
+	}
+
+	/**
+	 * @return The sequence number of the newest spectrum, or -1 if none has been computed yet. It goes up by one every
+	 * hop.
+	 */
+	public long getPublishedSequence() {
+		return publishedSequence;
+	}
+
+	//endregion
+
+	/**
+	 * Is given each spectrum on the thread that calls {@link #process(float[], int, int)}, so it must keep up with the
+	 * audio.
+	 */
+	public interface Listener {
+		/**
+		 * @param spectrum Only valid until this returns.
+		 */
+		void spectrumPublished(Spectrum spectrum);
+	}
+
+	/**
+	 * The magnitude of each frequency bin over one window of samples.
+	 */
+	public static class Spectrum {
+		private final float[] magnitudes;
+
+		/** Held while the spectrum is written, and while {@link #copyMagnitudes(float[])} copies it. */
+		private final Object lock = new Object();
+
+		private volatile long sequence = -1;
+		private long endSample;
+
+		private Spectrum(final int binCount) {
+			this.magnitudes = new float[binCount];
+		}
+
+		/**
+		 * @return The magnitudes, which are overwritten when this spectrum's slot is reused.
+		 */
+		public float[] getMagnitudes() {
+			return magnitudes;
+		}
+
+		/**
+		 * @return The sequence number the spectrum was published with, or -1 if it is being overwritten.
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return How many samples had been processed when the spectrum was computed, which dates its last sample.
+		 */
+		public long getEndSample() {
+			return endSample;
+		}
+	}
+}
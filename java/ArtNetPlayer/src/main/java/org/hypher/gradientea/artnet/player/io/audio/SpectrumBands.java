@@ -0,0 +1,164 @@
+package org.hypher.gradientea.artnet.player.io.audio;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Groups the bins of a spectrum into frequency bands. Each band is the mean magnitude of an inclusive range of bins,
+ * and the ranges are worked out once when the bands are created, so applying them is a single pass over the bins.
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class SpectrumBands {
+	private final int[] firstBins;
+	private final int[] lastBins;
+
+	private final float[] lowFrequencies;
+	private final float[] highFrequencies;
+
+	private SpectrumBands(final int bandCount) {
+		this.firstBins = new int[bandCount];
+		this.lastBins = new int[bandCount];
+		this.lowFrequencies = new float[bandCount];
+		this.highFrequencies = new float[bandCount];
+	}
+
+	/**
+	 * Bands spaced evenly within octaves, the same as Minim's {@code FFT.logAverages()}: the spectrum is halved from the
+	 * Nyquist frequency down until an octave would be narrower than {@code minBandwidth}, the lowest octave reaches
+	 * down to 0 Hz, and each octave is split into {@code bandsPerOctave} bands of equal width.
+	 */
+	public static SpectrumBands logAverages(
+		final int fftSize,
+		final float sampleRate,
+		final int minBandwidth,
+		final int bandsPerOctave
+	) {
+		Preconditions.checkArgument(minBandwidth > 0 && bandsPerOctave > 0, "Bandwidth and bands per octave must be positive");
+
+		final float nyquist = sampleRate / 2;
+
+		int octaves = 1;
+		for (float width = nyquist / 2; width > minBandwidth; width /= 2) {
+			octaves ++;
+		}
+
+		final SpectrumBands bands = new SpectrumBands(octaves * bandsPerOctave);
+
+		for (int octave=0; octave<octaves; octave++) {
+			final float low = octave == 0 ? 0 : nyquist / (float) Math.pow(2, octaves - octave);
+			final float high = nyquist / (float) Math.pow(2, octaves - octave - 1);
+			final float step = (high - low) / bandsPerOctave;
+
+			float frequency = low;
+			for (int i=0; i<bandsPerOctave; i++) {
+				bands.setBand(octave * bandsPerOctave + i, frequency, frequency + step, fftSize, sampleRate);
+				frequency += step;
+			}
+		}
+
+		return bands;
+	}
+
+	/**
+	 * Bands spaced evenly on the mel scale between two frequencies, which follows how far apart pitches sound rather
+	 * than octaves. Narrow bands at the low end still cover at least one bin.
+	 */
+	public static SpectrumBands mel(
+		final int fftSize,
+		final float sampleRate,
+		final int bandCount,
+		final float lowFrequency,
+		final float highFrequency
+	) {
+		Preconditions.checkArgument(bandCount > 0, "Band count must be positive");
+		Preconditions.checkArgument(lowFrequency >= 0 && highFrequency > lowFrequency, "Invalid frequency range");
+
+		final SpectrumBands bands = new SpectrumBands(bandCount);
+		final double lowMel = toMel(lowFrequency);
+		final double melStep = (toMel(Math.min(highFrequency, sampleRate / 2)) - lowMel) / bandCount;
+
+		for (int i=0; i<bandCount; i++) {
+			bands.setBand(
+				i,
+				(float) fromMel(lowMel + i * melStep),
+				(float) fromMel(lowMel + (i + 1) * melStep),
+				fftSize,
+				sampleRate
+			);
+		}
+
+		return bands;
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	/**
+	 * Writes the mean magnitude of each band into {@code bands}, which must hold at least {@link #getBandCount()}
+	 * values.
+	 */
+	public void apply(final float[] magnitudes, final float[] bands) {
+		for (int band=0; band<firstBins.length; band++) {
+			final int first = firstBins[band];
+			final int last = lastBins[band];
+
+			float sum = 0;
+			for (int bin=first; bin<=last; bin++) {
+				sum += magnitudes[bin];
+			}
+
+			bands[band] = sum / (last - first + 1);
+		}
+	}
+
+	//endregion
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	private void setBand(final int band, final float low, final float high, final int fftSize, final float sampleRate) {
+		lowFrequencies[band] = low;
+		highFrequencies[band] = high;
+		firstBins[band] = binOf(low, fftSize, sampleRate);
+		lastBins[band] = Math.max(firstBins[band], binOf(high, fftSize, sampleRate));
+	}
+
+	/**
+	 * @return The bin whose center is nearest the frequency.
+	 */
+	private static int binOf(final float frequency, final int fftSize, final float sampleRate) {
+		final float binWidth = sampleRate / fftSize;
+
+		if (frequency < binWidth / 2) return 0;
+		if (frequency > sampleRate / 2 - binWidth / 2) return fftSize / 2;
+
+		return Math.round(fftSize * (frequency / sampleRate));
+	}
+
+	private static double toMel(final double frequency) {
+		return 2595 * Math.log10(1 + frequency / 700);
+	}
+
+	private static double fromMel(final double mel) {
+		return 700 * (Math.pow(10, mel / 2595) - 1);
+	}
+
+	//endregion
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	public int getBandCount() {
+		return firstBins.length;
+	}
+
+	public float getLowFrequency(final int band) {
+		return lowFrequencies[band];
+	}
+
+	public float getHighFrequency(final int band) {
+		return highFrequencies[band];
+	}
+
+	//endregion
+}
@@ -0,0 +1,219 @@
+package org.hypher.gradientea.artnet.player.io.stats;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The last {@code capacity} values of a stream, kept in a ring of primitive floats. Subclasses keep statistics of the
+ * window up to date as values enter and leave it, so reading them doesn't have to go over the whole window.
+ *
+ * <p>Values are added and cleared from a single thread. Any thread can read without locking: writes bump a version
+ * number before and after, and reads that saw it change are retried, in the manner of a seqlock. For that to hold under
+ * the Java memory model, everything a reader looks at is volatile, or an element of an atomic array, so its reads and
+ * the writer's stores can't be reordered around the version checks. Subclasses read through {@link #beginRead()} and
+ * {@link #isReadValid(long)}, and must keep the state they read between them in the same kind of fields.</p>
+ *
+ * <p>Infinite and NaN values are ignored.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public abstract class SlidingWindow {
+	/** The values, stored as {@link Float#floatToRawIntBits(float) raw bits}. */
+	private final AtomicIntegerArray values;
+	private final int capacity;
+
+	/** Where the next value goes, which is also the oldest value once the window is full. */
+	private volatile int position = 0;
+	private volatile int size = 0;
+
+	/** Only used by the writing thread. */
+	private long addedCount = 0;
+
+	/** Odd while a write is in progress. */
+	private volatile long version = 0;
+
+	protected SlidingWindow(final int capacity) {
+		Preconditions.checkArgument(capacity > 0, "Capacity must be a positive integer");
+
+		this.capacity = capacity;
+		this.values = new AtomicIntegerArray(capacity);
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	/**
+	 * Adds a value, pushing the oldest one out of the window if it is full. Must only be called from the writing thread.
+	 */
+	public void add(final float value) {
+		if (Float.isInfinite(value) || Float.isNaN(value)) return;
+
+		final long writeVersion = version + 1;
+		version = writeVersion;
+
+		final int writePosition = position;
+		final int currentSize = size;
+
+		if (currentSize == capacity) {
+			valueRemoved(valueAt(writePosition), addedCount - currentSize);
+		} else {
+			size = currentSize + 1;
+		}
+
+		values.set(writePosition, Float.floatToRawIntBits(value));
+		position = (writePosition + 1) % capacity;
+
+		valueAdded(value, addedCount);
+		addedCount ++;
+
+		version = writeVersion + 1;
+	}
+
+	/**
+	 * Empties the window. Must only be called from the writing thread.
+	 */
+	public void clear() {
+		final long writeVersion = version + 1;
+		version = writeVersion;
+
+		position = 0;
+		size = 0;
+		cleared();
+
+		version = writeVersion + 1;
+	}
+
+	/**
+	 * @param age 0 for the newest value, up to {@code size() - 1} for the oldest.
+	 */
+	public float get(final int age) {
+		while (true) {
+			final long readVersion = beginRead();
+			final int currentSize = size;
+			final float value = age >= 0 && age < currentSize ? valueAt(slotIndex(position - 1 - age)) : 0;
+
+			if (isReadValid(readVersion)) {
+				Preconditions.checkElementIndex(age, currentSize, "Age");
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Copies the window into the target, oldest value first.
+	 *
+	 * @return How many values were copied, which is the size of the window, or the length of the target if it is
+	 * smaller, in which case the newest values are copied.
+	 */
+	public int copyTo(final float[] target) {
+		while (true) {
+			final long readVersion = beginRead();
+			final int count = copyValues(target);
+
+			if (isReadValid(readVersion)) return count;
+		}
+	}
+
+	//endregion
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	/**
+	 * Called on the writing thread when a value enters the window.
+	 *
+	 * @param index How many values were added before this one, which orders the values.
+	 */
+	protected abstract void valueAdded(float value, long index);
+
+	/**
+	 * Called on the writing thread when the oldest value leaves the window, before the value replacing it is added.
+	 */
+	protected abstract void valueRemoved(float value, long index);
+
+	/**
+	 * Called on the writing thread when the window is emptied.
+	 */
+	protected abstract void cleared();
+
+	/**
+	 * Copies the window like {@link #copyTo(float[])} without checking for writes, for use by the writing thread.
+	 */
+	protected final int copyValues(final float[] target) {
+		final int count = Math.min(size, target.length);
+		final int start = slotIndex(position - count);
+
+		for (int i=0; i<count; i++) {
+			target[i] = valueAt((start + i) % capacity);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Starts reading the window's state, waiting for any write in progress to finish.
+	 *
+	 * @return The version to pass to {@link #isReadValid(long)} once the state has been read.
+	 */
+	protected final long beginRead() {
+		long readVersion;
+		while (((readVersion = version) & 1) != 0) {
+			Thread.yield();
+		}
+
+		return readVersion;
+	}
+
+	/**
+	 * @return Whether nothing was written since {@link #beginRead()} returned the version, so that what was read in
+	 * between is consistent. Otherwise the read has to be repeated, and anything decided from it ignored.
+	 */
+	protected final boolean isReadValid(final long readVersion) {
+		return version == readVersion;
+	}
+
+	/**
+	 * @return The number of values in the window, for reading between {@link #beginRead()} and
+	 * {@link #isReadValid(long)}.
+	 */
+	protected final int currentSize() {
+		return size;
+	}
+
+	private float valueAt(final int slot) {
+		return Float.intBitsToFloat(values.get(slot));
+	}
+
+	private int slotIndex(final int position) {
+		return (position + capacity) % capacity;
+	}
+
+	//endregion
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int size() {
+		while (true) {
+			final long readVersion = beginRead();
+			final int currentSize = size;
+
+			if (isReadValid(readVersion)) return currentSize;
+		}
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public boolean isFull() {
+		return size() == capacity;
+	}
+
+	//endregion
+}
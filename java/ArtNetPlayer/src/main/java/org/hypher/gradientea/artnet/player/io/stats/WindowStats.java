@@ -0,0 +1,235 @@
+package org.hypher.gradientea.artnet.player.io.stats;
+
+/**
+ * The mean, variance and range of the last {@code capacity} values of a stream. Adding a value takes constant time, or
+ * amortized constant time for the range, and reading any of them takes constant time, without allocating.
+ *
+ * <p>The mean and variance come from running sums that are recomputed from the window once per {@code capacity} values,
+ * so rounding errors can't build up. The lowest and highest values are kept in monotonic deques: each value is pushed
+ * once and popped at most once, either when it leaves the window or when a newer value makes it irrelevant.</p>
+ *
+ * <p>Statistics of an empty window are 0. See {@link SlidingWindow} for threading; the sums and deques belong to the
+ * writing thread, which publishes what readers need in volatile fields at the end of each write.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class WindowStats extends SlidingWindow {
+	/** Kept by the writing thread. */
+	private double runningSum;
+	private double runningSumOfSquares;
+	private int valuesSinceResum = 0;
+	private final float[] resumBuffer;
+
+	private final MonotonicDeque lowest;
+	private final MonotonicDeque highest;
+
+	/** Published for readers. */
+	private volatile double sum;
+	private volatile double sumOfSquares;
+	private volatile float lowestValue;
+	private volatile float highestValue;
+
+	public WindowStats(final int capacity) {
+		super(capacity);
+
+		this.resumBuffer = new float[capacity];
+		this.lowest = new MonotonicDeque(capacity, false);
+		this.highest = new MonotonicDeque(capacity, true);
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	public float mean() {
+		while (true) {
+			final long readVersion = beginRead();
+			final int size = currentSize();
+			final double currentSum = sum;
+
+			if (isReadValid(readVersion)) {
+				return size == 0 ? 0 : (float) (currentSum / size);
+			}
+		}
+	}
+
+	/**
+	 * @return The population variance of the window.
+	 */
+	public float variance() {
+		while (true) {
+			final long readVersion = beginRead();
+			final int size = currentSize();
+			final double currentSum = sum;
+			final double currentSumOfSquares = sumOfSquares;
+
+			if (isReadValid(readVersion)) {
+				if (size == 0) return 0;
+
+				final double mean = currentSum / size;
+				return (float) Math.max(0, currentSumOfSquares / size - mean * mean);
+			}
+		}
+	}
+
+	public float standardDeviation() {
+		return (float) Math.sqrt(variance());
+	}
+
+	public float lowest() {
+		while (true) {
+			final long readVersion = beginRead();
+			final float value = currentSize() == 0 ? 0 : lowestValue;
+
+			if (isReadValid(readVersion)) return value;
+		}
+	}
+
+	public float highest() {
+		while (true) {
+			final long readVersion = beginRead();
+			final float value = currentSize() == 0 ? 0 : highestValue;
+
+			if (isReadValid(readVersion)) return value;
+		}
+	}
+
+	/**
+	 * @return Where the value falls in the range of the window, from 0 at or below the lowest value to 1 at or above the
+	 * highest, or 0 if the window is empty.
+	 */
+	public float scale(final float value) {
+		while (true) {
+			final long readVersion = beginRead();
+			final int size = currentSize();
+			final float low = size == 0 ? 0 : lowestValue;
+			final float high = size == 0 ? 0 : highestValue;
+
+			if (isReadValid(readVersion)) {
+				if (size == 0 || value <= low) return 0;
+				if (value >= high) return 1;
+
+				return (value - low) / (high - low);
+			}
+		}
+	}
+
+	//endregion
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	@Override
+	protected void valueAdded(final float value, final long index) {
+		if (++ valuesSinceResum >= resumBuffer.length) {
+			resum();
+		} else {
+			runningSum += value;
+			runningSumOfSquares += (double) value * value;
+		}
+
+		lowest.push(value, index);
+		highest.push(value, index);
+
+		sum = runningSum;
+		sumOfSquares = runningSumOfSquares;
+		lowestValue = lowest.first();
+		highestValue = highest.first();
+	}
+
+	@Override
+	protected void valueRemoved(final float value, final long index) {
+		runningSum -= value;
+		runningSumOfSquares -= (double) value * value;
+
+		lowest.expire(index);
+		highest.expire(index);
+	}
+
+	@Override
+	protected void cleared() {
+		runningSum = 0;
+		runningSumOfSquares = 0;
+		valuesSinceResum = 0;
+
+		lowest.clear();
+		highest.clear();
+
+		sum = 0;
+		sumOfSquares = 0;
+		lowestValue = 0;
+		highestValue = 0;
+	}
+
+	/**
+	 * Recomputes the running sums from the values in the window, which includes the one just added.
+	 */
+	private void resum() {
+		final int count = copyValues(resumBuffer);
+
+		double newSum = 0;
+		double newSumOfSquares = 0;
+		for (int i=0; i<count; i++) {
+			newSum += resumBuffer[i];
+			newSumOfSquares += (double) resumBuffer[i] * resumBuffer[i];
+		}
+
+		runningSum = newSum;
+		runningSumOfSquares = newSumOfSquares;
+		valuesSinceResum = 0;
+	}
+
+	//endregion
+
+	/**
+	 * The values of the window that could still become its lowest (or highest), oldest first. A value is dropped once a
+	 * newer value is at least as low (or high), since it will leave the window first.
+	 */
+	private static class MonotonicDeque {
+		private final float[] values;
+		private final long[] indices;
+		private final boolean keepHighest;
+
+		private int head = 0;
+		private int size = 0;
+
+		MonotonicDeque(final int capacity, final boolean keepHighest) {
+			this.values = new float[capacity];
+			this.indices = new long[capacity];
+			this.keepHighest = keepHighest;
+		}
+
+		void push(final float value, final long index) {
+			while (size > 0) {
+				final float last = values[slot(head + size - 1)];
+				if (keepHighest ? last > value : last < value) break;
+
+				size --;
+			}
+
+			final int tail = slot(head + size);
+			values[tail] = value;
+			indices[tail] = index;
+			size ++;
+		}
+
+		void expire(final long index) {
+			if (size > 0 && indices[head] == index) {
+				head = slot(head + 1);
+				size --;
+			}
+		}
+
+		float first() {
+			return values[head];
+		}
+
+		void clear() {
+			head = 0;
+			size = 0;
+		}
+
+		private int slot(final int position) {
+			return position % values.length;
+		}
+	}
+}
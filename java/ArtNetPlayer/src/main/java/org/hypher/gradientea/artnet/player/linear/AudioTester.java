@@ -2,6 +2,7 @@ package org.hypher.gradientea.artnet.player.linear;
 
 import org.hypher.gradientea.artnet.player.io.BasicAudioReader;
 import org.hypher.gradientea.artnet.player.io.GlobalAudioReader;
+import org.hypher.gradientea.artnet.player.io.audio.LineAudioSource;
 
 /**
  * Class for testing and playing with audio input.
@@ -17,7 +18,7 @@ public class AudioTester implements Runnable {
 	}
 
 	public void run() {
-		BasicAudioReader.printMixerInfo();
+		LineAudioSource.printMixerInfo();
 
 		printLabel("Short Avg");
 		printLabel("Long Avg");
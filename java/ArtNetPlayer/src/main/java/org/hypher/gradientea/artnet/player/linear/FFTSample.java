@@ -2,18 +2,21 @@ package org.hypher.gradientea.artnet.player.linear;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
-import org.apache.commons.math.complex.Complex;
-import org.apache.commons.math.transform.FastFourierTransformer;
+import org.hypher.gradientea.artnet.player.io.audio.RealFft;
 
 import java.util.Comparator;
 import java.util.Map;
 
 /**
- * Helper class for dealing with transformed samples.
+ * Helper class for dealing with transformed samples. The magnitudes cover the whole transform, mirrored above the
+ * Nyquist frequency. Transforms of each size are shared between samples, so the twiddle tables and work buffers are
+ * only allocated once.
  *
  * @author Yona Appletree (yona@concentricsky.com)
  */
 public class FFTSample {
+	private static final Map<Integer, RealFft> transforms = Maps.newHashMap();
+
 	private final double sampleRate;
 	private final double[] transformed;
 
@@ -21,10 +24,33 @@ public class FFTSample {
 		this.sampleRate = sampleRate;
 		this.transformed = new double[data.length];
 
-		int i=0;
-		for (Complex complex : new FastFourierTransformer().transform(data)) {
-			transformed[i++] = complex.abs();
+		final float[] samples = new float[data.length];
+		for (int i=0; i<data.length; i++) {
+			samples[i] = (float) data[i];
+		}
+
+		final RealFft fft = transformFor(data.length);
+		final float[] magnitudes = new float[fft.getBinCount()];
+		synchronized (fft) {
+			fft.magnitudes(samples, 0, magnitudes);
+		}
+
+		for (int i=0; i<magnitudes.length; i++) {
+			transformed[i] = magnitudes[i];
 		}
+		for (int i=magnitudes.length; i<transformed.length; i++) {
+			transformed[i] = transformed[transformed.length - i];
+		}
+	}
+
+	private static synchronized RealFft transformFor(int size) {
+		RealFft fft = transforms.get(size);
+		if (fft == null) {
+			fft = new RealFft(size);
+			transforms.put(size, fft);
+		}
+
+		return fft;
 	}
 
 	public double frequencyFor(int index) {
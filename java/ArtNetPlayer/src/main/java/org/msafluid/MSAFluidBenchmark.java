@@ -0,0 +1,64 @@
+package org.msafluid;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Times {@link MSAFluidSolver2D#update()} for the serial solver and {@link ParallelMSAFluidSolver2D} at a range of grid
+ * sizes, printing the mean milliseconds per update. Each solver is warmed up before it is timed, and is driven with the
+ * same forces and dye every frame so the runs are comparable.
+ *
+ * <p>Usage: {@code MSAFluidBenchmark [parallelism [size...]]}, defaulting to every available processor and sizes of
+ * 40, 80, 160 and 320.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class MSAFluidBenchmark {
+	private static final int[] DEFAULT_SIZES = {40, 80, 160, 320};
+
+	/**
+	 * Roughly how long to spend warming up and timing each solver.
+	 */
+	private static final long WARMUP_NANOS = 2000000000L;
+	private static final long MEASURE_NANOS = 3000000000L;
+
+	public static void main(String[] args) {
+		final int parallelism = args.length > 0
+			? Integer.parseInt(args[0])
+			: Runtime.getRuntime().availableProcessors();
+
+		int[] sizes = DEFAULT_SIZES;
+		if (args.length > 1) {
+			sizes = new int[args.length - 1];
+			for (int i=1; i<args.length; i++) {
+				sizes[i-1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		final ExecutorService executor = ParallelMSAFluidSolver2D.newExecutor(parallelism);
+
+		System.out.println(String.format("%6s %12s %12s %8s", "size", "serial ms", "parallel ms", "speedup"));
+
+		for (int size : sizes) {
+			final double serialMillis = MSAFluidTiming.measure(
+				new MSAFluidSolver2D(size, size),
+				WARMUP_NANOS,
+				MEASURE_NANOS
+			);
+			final double parallelMillis = MSAFluidTiming.measure(
+				new ParallelMSAFluidSolver2D(size, size, executor, parallelism),
+				WARMUP_NANOS,
+				MEASURE_NANOS
+			);
+
+			System.out.println(String.format(
+				"%6d %12.3f %12.3f %7.2fx",
+				size,
+				serialMillis,
+				parallelMillis,
+				serialMillis / parallelMillis
+			));
+		}
+
+		executor.shutdown();
+	}
+}
@@ -180,6 +180,10 @@ public class MSAFluidSolver2D {
 		return this;
 	}
 
+	public int getSolverIterations() {
+		return _solverIterations;
+	}
+
 	/**
 	 * (OPTIONAL SETUP) set whether solver should work with monochrome dye (default) or RGB
 	 * @param isRGB true or false
@@ -217,6 +221,31 @@ public class MSAFluidSolver2D {
 		}
 	}
 
+	/**
+	 * (OPTIONAL SETUP) replace the velocity and dye with those of another solver, bilinearly resampled to this solver's
+	 * number of cells, so the fluid carries on where it was when the resolution changes. This includes forces and dye
+	 * added since the source's last update.
+	 * @param source solver to copy from, which may have any number of cells
+	 */
+	public void resampleFrom(MSAFluidSolver2D source) {
+		resample(source, source.r, r);
+		resample(source, source.g, g);
+		resample(source, source.b, b);
+		setBoundaryRGB(0);
+
+		resample(source, source.u, u);
+		setBoundary(1, u);
+
+		resample(source, source.v, v);
+		setBoundary(2, v);
+
+		resample(source, source.rOld, rOld);
+		resample(source, source.gOld, gOld);
+		resample(source, source.bOld, bOld);
+		resample(source, source.uOld, uOld);
+		resample(source, source.vOld, vOld);
+	}
+
 	/**
 	 * destroy solver and release all memory
 	 */
@@ -486,14 +515,17 @@ public class MSAFluidSolver2D {
 //		float holdAmount = 1 - _avgDensity * _avgDensity * _fadeSpeed;	// this is how fast the density will decay depending on how full the screen currently is
 		float holdAmount = 1 - _fadeSpeed;
 
-		_avgDensity = 0;
-		_avgSpeed = 0;
-
 		float totalDeviations = 0;
 		float currentDeviation;
 		//	float uniformityMult = uniformity * 0.05f;
 
-		_avgSpeed = 0;
+		final float[] r = this.r, rOld = this.rOld;
+		final float[] u = this.u, v = this.v, uOld = this.uOld, vOld = this.vOld;
+
+		// Accumulated in locals rather than fields so the loop doesn't write to memory on every cell
+		float avgSpeed = 0;
+		float avgDensity = 0;
+
 		for (int i = 0; i < _numCells; i++) {
 			// clear old values
 			uOld[i] = vOld[i] = 0;
@@ -501,7 +533,7 @@ public class MSAFluidSolver2D {
 			//		gOld[i] = bOld[i] = 0;
 
 			// calc avg speed
-			_avgSpeed += u[i] * u[i] + v[i] * v[i];
+			avgSpeed += u[i] * u[i] + v[i] * v[i];
 
 			// calc avg density
 			r[i] = Math.min(1.0f, r[i]);
@@ -509,16 +541,17 @@ public class MSAFluidSolver2D {
 			//		b[i] = Math.min(1.0f, b[i]);
 			//		float density = Math.max(r[i], Math.max(g[i], b[i]));
 			float density = r[i];
-			_avgDensity += density;	// add it up
+			avgDensity += density;	// add it up
 
 			// calc deviation (for uniformity)
-			currentDeviation = density - _avgDensity;
+			currentDeviation = density - avgDensity;
 			totalDeviations += currentDeviation * currentDeviation;
 
 			// fade out old
 			r[i] *= holdAmount;
 		}
-		_avgDensity *= _invNumCells;
+		_avgSpeed = avgSpeed;
+		_avgDensity = avgDensity * _invNumCells;
 		//	_avgSpeed *= _invNumCells;
 
 		//	println("%.3f\n", _avgSpeed);
@@ -531,14 +564,17 @@ public class MSAFluidSolver2D {
 //		float holdAmount = 1 - _avgDensity * _avgDensity * _fadeSpeed;	// this is how fast the density will decay depending on how full the screen currently is
 		float holdAmount = 1 - _fadeSpeed;
 
-		_avgDensity = 0;
-		_avgSpeed = 0;
-
 		float totalDeviations = 0;
 		float currentDeviation;
 		//	float uniformityMult = uniformity * 0.05f;
 
-		_avgSpeed = 0;
+		final float[] r = this.r, g = this.g, b = this.b, rOld = this.rOld, gOld = this.gOld, bOld = this.bOld;
+		final float[] u = this.u, v = this.v, uOld = this.uOld, vOld = this.vOld;
+
+		// Accumulated in locals rather than fields so the loop doesn't write to memory on every cell
+		float avgSpeed = 0;
+		float avgDensity = 0;
+
 		for (int i = 0; i < _numCells; i++) {
 			// clear old values
 			uOld[i] = vOld[i] = 0;
@@ -546,7 +582,7 @@ public class MSAFluidSolver2D {
 			gOld[i] = bOld[i] = 0;
 
 			// calc avg speed
-			_avgSpeed += u[i] * u[i] + v[i] * v[i];
+			avgSpeed += u[i] * u[i] + v[i] * v[i];
 
 			// calc avg density
 			r[i] = Math.min(1.0f, r[i]);
@@ -554,10 +590,10 @@ public class MSAFluidSolver2D {
 			b[i] = Math.min(1.0f, b[i]);
 			float density = Math.max(r[i], Math.max(g[i], b[i]));
 			//float density = r[i];
-			_avgDensity += density;	// add it up
+			avgDensity += density;	// add it up
 
 			// calc deviation (for uniformity)
-			currentDeviation = density - _avgDensity;
+			currentDeviation = density - avgDensity;
 			totalDeviations += currentDeviation * currentDeviation;
 
 			// fade out old
@@ -566,68 +602,115 @@ public class MSAFluidSolver2D {
 			b[i] *= holdAmount;
 
 		}
-		_avgDensity *= _invNumCells;
-		_avgSpeed *= _invNumCells;
+		_avgDensity = avgDensity * _invNumCells;
+		_avgSpeed = avgSpeed * _invNumCells;
 
 		//println("%.3f\n", _avgDensity);
 		uniformity = 1.0f / (1 + totalDeviations * _invNumCells);		// 0: very wide distribution, 1: very uniform
 	}
 
 
+	/**
+	 * bilinearly resamples the interior cells of one of the source's arrays into one of this solver's arrays, mapping
+	 * cell centers to cell centers
+	 */
+	protected void resample(MSAFluidSolver2D source, float[] from, float[] to) {
+		final int sourceStride = source._NX + 2;
+		final float scaleX = (float) source._NX / _NX;
+		final float scaleY = (float) source._NY / _NY;
+
+		for (int j = 1; j <= _NY; j++) {
+			float y = (j - 0.5f) * scaleY + 0.5f;
+			if (y > source._NY + 0.5) y = source._NY + 0.5f;
+			if (y < 0.5)     y = 0.5f;
+
+			final int j0 = (int) y;
+			final float t1 = y - j0;
+			final float t0 = 1 - t1;
+
+			for (int i = 1, index = FLUID_IX(1, j); i <= _NX; i++, index++) {
+				float x = (i - 0.5f) * scaleX + 0.5f;
+				if (x > source._NX + 0.5) x = source._NX + 0.5f;
+				if (x < 0.5)     x = 0.5f;
+
+				final int i0 = (int) x;
+				final float s1 = x - i0;
+				final float s0 = 1 - s1;
+
+				final int index00 = i0 + sourceStride * j0;
+				final int index01 = index00 + sourceStride;
+
+				to[index] = s0 * (t0 * from[index00] + t1 * from[index01])
+					+ s1 * (t0 * from[index00 + 1] + t1 * from[index01 + 1]);
+			}
+		}
+	}
+
 	protected void addSourceUV() {
+		final float[] u = this.u, v = this.v, uOld = this.uOld, vOld = this.vOld;
+		final float dt = _dt;
+
 		for (int i = 0; i < _numCells; i++) {
-			u[i] += _dt * uOld[i];
-			v[i] += _dt * vOld[i];
+			u[i] += dt * uOld[i];
+			v[i] += dt * vOld[i];
 		}
 	}
 
 	protected void addSourceRGB() {
+		final float[] r = this.r, g = this.g, b = this.b, rOld = this.rOld, gOld = this.gOld, bOld = this.bOld;
+		final float dt = _dt;
+
 		for (int i = 0; i < _numCells; i++) {
-			r[i] += _dt * rOld[i];
-			g[i] += _dt * gOld[i];
-			b[i] += _dt * bOld[i];
+			r[i] += dt * rOld[i];
+			g[i] += dt * gOld[i];
+			b[i] += dt * bOld[i];
 		}
 	}
 
 
 
 	protected void addSource(float[] x, float[] x0) {
+		final float dt = _dt;
+
 		for (int i = 0; i < _numCells; i++) {
-			x[i] += _dt * x0[i];
+			x[i] += dt * x0[i];
 		}
 	}
 
 
 	protected void advect(int b, float[] _d, float[] d0, float[] du, float[] dv) {
-		int i0, j0, i1, j1;
+		int i0, j0, index00, index01;
 		float x, y, s0, t0, s1, t1, dt0;
 
+		final int stride = _NX + 2;
 		dt0 = _dt * _NX;
 
-		for (int i = 1; i <= _NX; i++) {
-			for (int j = 1; j <= _NY; j++) {
-				x = i - dt0 * du[FLUID_IX(i, j)];
-				y = j - dt0 * dv[FLUID_IX(i, j)];
+		// Rows are walked in memory order, so each inner loop reads and writes consecutive cells
+		for (int j = 1; j <= _NY; j++) {
+			for (int i = 1, index = FLUID_IX(1, j); i <= _NX; i++, index++) {
+				x = i - dt0 * du[index];
+				y = j - dt0 * dv[index];
 
 				if (x > _NX + 0.5) x = _NX + 0.5f;
 				if (x < 0.5)     x = 0.5f;
 
 				i0 = (int) x;
-				i1 = i0 + 1;
 
 				if (y > _NY + 0.5) y = _NY + 0.5f;
 				if (y < 0.5)     y = 0.5f;
 
 				j0 = (int) y;
-				j1 = j0 + 1;
 
 				s1 = x - i0;
 				s0 = 1 - s1;
 				t1 = y - j0;
 				t0 = 1 - t1;
 
-				_d[FLUID_IX(i, j)] = s0 * (t0 * d0[FLUID_IX(i0, j0)] + t1 * d0[FLUID_IX(i0, j1)])
-					+ s1 * (t0 * d0[FLUID_IX(i1, j0)] + t1 * d0[FLUID_IX(i1, j1)]);
+				index00 = i0 + stride * j0;
+				index01 = index00 + stride;
+
+				_d[index] = s0 * (t0 * d0[index00] + t1 * d0[index01])
+					+ s1 * (t0 * d0[index00 + 1] + t1 * d0[index01 + 1]);
 
 			}
 		}
@@ -635,36 +718,39 @@ public class MSAFluidSolver2D {
 	}
 
 	protected void advectRGB(int bound, float[] du, float[] dv) {
-		int i0, j0, i1, j1;
+		int i0, j0, index00, index01;
 		float x, y, s0, t0, s1, t1, dt0;
 
+		final float[] r = this.r, g = this.g, b = this.b, rOld = this.rOld, gOld = this.gOld, bOld = this.bOld;
+		final int stride = _NX + 2;
 		dt0 = _dt * _NX;
 
-		for (int i = 1; i <= _NX; i++) {
-			for (int j = 1; j <= _NY; j++) {
-				x = i - dt0 * du[FLUID_IX(i, j)];
-				y = j - dt0 * dv[FLUID_IX(i, j)];
+		for (int j = 1; j <= _NY; j++) {
+			for (int i = 1, index = FLUID_IX(1, j); i <= _NX; i++, index++) {
+				x = i - dt0 * du[index];
+				y = j - dt0 * dv[index];
 
 				if (x > _NX + 0.5) x = _NX + 0.5f;
 				if (x < 0.5)     x = 0.5f;
 
 				i0 = (int) x;
-				i1 = i0 + 1;
 
 				if (y > _NY + 0.5) y = _NY + 0.5f;
 				if (y < 0.5)     y = 0.5f;
 
 				j0 = (int) y;
-				j1 = j0 + 1;
 
 				s1 = x - i0;
 				s0 = 1 - s1;
 				t1 = y - j0;
 				t0 = 1 - t1;
 
-				r[FLUID_IX(i, j)] = s0 * (t0 * rOld[FLUID_IX(i0, j0)] + t1 * rOld[FLUID_IX(i0, j1)])	+ s1 * (t0 * rOld[FLUID_IX(i1, j0)] + t1 * rOld[FLUID_IX(i1, j1)]);
-				g[FLUID_IX(i, j)] = s0 * (t0 * gOld[FLUID_IX(i0, j0)] + t1 * gOld[FLUID_IX(i0, j1)])	+ s1 * (t0 * gOld[FLUID_IX(i1, j0)] + t1 * gOld[FLUID_IX(i1, j1)]);
-				b[FLUID_IX(i, j)] = s0 * (t0 * bOld[FLUID_IX(i0, j0)] + t1 * bOld[FLUID_IX(i0, j1)])	+ s1 * (t0 * bOld[FLUID_IX(i1, j0)] + t1 * bOld[FLUID_IX(i1, j1)]);
+				index00 = i0 + stride * j0;
+				index01 = index00 + stride;
+
+				r[index] = s0 * (t0 * rOld[index00] + t1 * rOld[index01])	+ s1 * (t0 * rOld[index00 + 1] + t1 * rOld[index01 + 1]);
+				g[index] = s0 * (t0 * gOld[index00] + t1 * gOld[index01])	+ s1 * (t0 * gOld[index00 + 1] + t1 * gOld[index01 + 1]);
+				b[index] = s0 * (t0 * bOld[index00] + t1 * bOld[index01])	+ s1 * (t0 * bOld[index00 + 1] + t1 * bOld[index01 + 1]);
 			}
 		}
 		setBoundaryRGB(bound);
@@ -689,11 +775,14 @@ public class MSAFluidSolver2D {
 
 
 	protected void project(float[] x, float[] y, float[] p, float[] div)  {
-		for (int i = 1; i <= _NX; i++) {
-			for (int j = 1; j <= _NY; j++) {
-				div[FLUID_IX(i, j)] = (x[FLUID_IX(i+1, j)] - x[FLUID_IX(i-1, j)] + y[FLUID_IX(i, j+1)] - y[FLUID_IX(i, j-1)])
+		final int stride = _NX + 2;
+		final float gradientScale = 0.5f * _NX;
+
+		for (int j = 1; j <= _NY; j++) {
+			for (int index = FLUID_IX(1, j), end = index + _NX; index < end; index++) {
+				div[index] = (x[index + 1] - x[index - 1] + y[index + stride] - y[index - stride])
 					* - 0.5f / _NX;
-				p[FLUID_IX(i, j)] = 0;
+				p[index] = 0;
 			}
 		}
 
@@ -702,10 +791,10 @@ public class MSAFluidSolver2D {
 
 		linearSolver(0, p, div, 1, 4);
 
-		for (int i = 1; i <= _NX; i++) {
-			for (int j = 1; j <= _NY; j++) {
-				x[FLUID_IX(i, j)] -= 0.5f * _NX * (p[FLUID_IX(i+1, j)] - p[FLUID_IX(i-1, j)]);
-				y[FLUID_IX(i, j)] -= 0.5f * _NX * (p[FLUID_IX(i, j+1)] - p[FLUID_IX(i, j-1)]);
+		for (int j = 1; j <= _NY; j++) {
+			for (int index = FLUID_IX(1, j), end = index + _NX; index < end; index++) {
+				x[index] -= gradientScale * (p[index + 1] - p[index - 1]);
+				y[index] -= gradientScale * (p[index + stride] - p[index - stride]);
 			}
 		}
 
@@ -716,10 +805,12 @@ public class MSAFluidSolver2D {
 
 
 	protected void linearSolver(int b, float[] x, float[] x0, float a, float c) {
+		final int stride = _NX + 2;
+
 		for (int k = 0; k < _solverIterations; k++) {
-			for (int i = 1; i <= _NX; i++) {
-				for (int j = 1; j <= _NY; j++) {
-					x[FLUID_IX(i, j)] = (a * ( x[FLUID_IX(i-1, j)] + x[FLUID_IX(i+1, j)]  +   x[FLUID_IX(i, j-1)] + x[FLUID_IX(i, j+1)])  +  x0[FLUID_IX(i, j)]) / c;
+			for (int j = 1; j <= _NY; j++) {
+				for (int index = FLUID_IX(1, j), end = index + _NX; index < end; index++) {
+					x[index] = (a * ( x[index - 1] + x[index + 1]  +   x[index - stride] + x[index + stride])  +  x0[index]) / c;
 				}
 			}
 			setBoundary(b, x);
@@ -729,20 +820,15 @@ public class MSAFluidSolver2D {
 	//#define LINEAR_SOLVE_EQ	(x, x0)			(a * ( x[] + x[]  +  x[] + x[])  +  x0[]) / c;
 
 	protected void linearSolverRGB(int bound, float a, float c) {
-		int index1, index2, index3, index4, index5;
+		final float[] r = this.r, g = this.g, b = this.b, rOld = this.rOld, gOld = this.gOld, bOld = this.bOld;
+		final int stride = _NX + 2;
+
 		for (int k = 0; k < _solverIterations; k++) {		// MEMO
-			for (int i = 1; i <= _NX; i++) {
-				for (int j = 1; j <= _NY; j++) {
-					index5 = FLUID_IX(i, j);
-					index1 = index5 - 1;//FLUID_IX(i-1, j);
-					index2 = index5 + 1;//FLUID_IX(i+1, j);
-					index3 = index5 - (_NX + 2);//FLUID_IX(i, j-1);
-					index4 = index5 + (_NX + 2);//FLUID_IX(i, j+1);
-
-					r[index5] = (a * ( r[index1] + r[index2]  +  r[index3] + r[index4])  +  rOld[index5]) / c;
-					g[index5] = (a * ( g[index1] + g[index2]  +  g[index3] + g[index4])  +  gOld[index5]) / c;
-					b[index5] = (a * ( b[index1] + b[index2]  +  b[index3] + b[index4])  +  bOld[index5]) / c;
-					//				x[FLUID_IX(i, j)] = (a * ( x[FLUID_IX(i-1, j)] + x[FLUID_IX(i+1, j)]  +  x[FLUID_IX(i, j-1)] + x[FLUID_IX(i, j+1)])  +  x0[FLUID_IX(i, j)]) / c;
+			for (int j = 1; j <= _NY; j++) {
+				for (int index = FLUID_IX(1, j), end = index + _NX; index < end; index++) {
+					r[index] = (a * ( r[index - 1] + r[index + 1]  +  r[index - stride] + r[index + stride])  +  rOld[index]) / c;
+					g[index] = (a * ( g[index - 1] + g[index + 1]  +  g[index - stride] + g[index + stride])  +  gOld[index]) / c;
+					b[index] = (a * ( b[index - 1] + b[index + 1]  +  b[index - stride] + b[index + stride])  +  bOld[index]) / c;
 				}
 			}
 			setBoundaryRGB(bound);
@@ -750,19 +836,14 @@ public class MSAFluidSolver2D {
 	}
 
 	protected void linearSolverUV(int bound, float a, float c) {
-		int index1, index2, index3, index4, index5;
+		final float[] u = this.u, v = this.v, uOld = this.uOld, vOld = this.vOld;
+		final int stride = _NX + 2;
+
 		for (int k = 0; k < _solverIterations; k++) {		// MEMO
-			for (int i = 1; i <= _NX; i++) {
-				for (int j = 1; j <= _NY; j++) {
-					index5 = FLUID_IX(i, j);
-					index1 = index5 - 1;//FLUID_IX(i-1, j);
-					index2 = index5 + 1;//FLUID_IX(i+1, j);
-					index3 = index5 - (_NX + 2);//FLUID_IX(i, j-1);
-					index4 = index5 + (_NX + 2);//FLUID_IX(i, j+1);
-
-					u[index5] = (a * ( u[index1] + u[index2]  +  u[index3] + u[index4])  +  uOld[index5]) / c;
-					v[index5] = (a * ( v[index1] + v[index2]  +  v[index3] + v[index4])  +  vOld[index5]) / c;
-					//				x[FLUID_IX(i, j)] = (a * ( x[FLUID_IX(i-1, j)] + x[FLUID_IX(i+1, j)]  +  x[FLUID_IX(i, j-1)] + x[FLUID_IX(i, j+1)])  +  x0[FLUID_IX(i, j)]) / c;
+			for (int j = 1; j <= _NY; j++) {
+				for (int index = FLUID_IX(1, j), end = index + _NX; index < end; index++) {
+					u[index] = (a * ( u[index - 1] + u[index + 1]  +  u[index - stride] + u[index + stride])  +  uOld[index]) / c;
+					v[index] = (a * ( v[index - 1] + v[index + 1]  +  v[index - stride] + v[index + stride])  +  vOld[index]) / c;
 				}
 			}
 			setBoundaryRGB(bound);
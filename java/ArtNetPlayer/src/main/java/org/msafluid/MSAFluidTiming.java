@@ -0,0 +1,61 @@
+package org.msafluid;
+
+/**
+ * Times {@link MSAFluidSolver2D#update()} under a load like the dome programs put on it. Used by
+ * {@link MSAFluidBenchmark} and to choose between the serial and parallel solvers at runtime.
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class MSAFluidTiming {
+	private MSAFluidTiming() { }
+
+	/**
+	 * Warms up and then times the given solver with the settings used on the dome.
+	 *
+	 * @return The mean milliseconds per update.
+	 */
+	public static double measure(final MSAFluidSolver2D solver, final long warmupNanos, final long measureNanos) {
+		solver
+			.enableRGB(true)
+			.setVisc(0.00023f)
+			.setDeltaT(0.8f)
+			.setFadeSpeed(0.015f);
+
+		run(solver, warmupNanos);
+		return run(solver, measureNanos) / 1e6;
+	}
+
+	/**
+	 * Updates the solver repeatedly for about the given time.
+	 *
+	 * @return The mean nanoseconds per update.
+	 */
+	private static double run(final MSAFluidSolver2D solver, final long nanos) {
+		final long start = System.nanoTime();
+		long elapsed;
+		int frames = 0;
+
+		do {
+			stir(solver, frames);
+			solver.update();
+			frames ++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < nanos);
+
+		return (double) elapsed / frames;
+	}
+
+	/**
+	 * Adds dye and a swirling force around a circle, as the dome programs do.
+	 */
+	private static void stir(final MSAFluidSolver2D solver, final int frame) {
+		for (int i=0; i<8; i++) {
+			final double angle = (frame * 0.05) + i * Math.PI / 4;
+			final float x = (float) (0.5 + Math.cos(angle) * 0.3);
+			final float y = (float) (0.5 + Math.sin(angle) * 0.3);
+
+			solver.addColorAtPos(x, y, 0.5f, (i & 1) * 0.5f, (i & 2) * 0.25f);
+			solver.addForceAtPos(x, y, (float) -Math.sin(angle) * 0.002f, (float) Math.cos(angle) * 0.002f);
+		}
+	}
+}
@@ -0,0 +1,342 @@
+package org.msafluid;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link MSAFluidSolver2D} that splits the grid into bands of rows and solves them on several threads. Advection and
+ * projection are computed cell by cell, so they give exactly the same results as the serial solver. The linear solvers
+ * use red-black ordering: each sweep updates the cells where {@code i+j} is even, then the cells where it is odd, and
+ * since a cell of one color only reads cells of the other color the result doesn't depend on how the rows are split up
+ * or on the number of threads. It does differ slightly from the serial solver, which updates cells in scan order.
+ *
+ * <p>The calling thread solves one band itself, so an executor with {@code parallelism - 1} threads is enough. The
+ * executor can be shared between solvers as long as they aren't updated at the same time.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class ParallelMSAFluidSolver2D extends MSAFluidSolver2D {
+	private final ExecutorService executor;
+	private final int parallelism;
+
+	public ParallelMSAFluidSolver2D(final int NX, final int NY, final ExecutorService executor, final int parallelism) {
+		super(NX, NY);
+
+		this.executor = executor;
+		this.parallelism = Math.max(1, Math.min(parallelism, NY));
+	}
+
+	/**
+	 * Creates an executor suitable for a solver with the given parallelism, whose threads won't keep the JVM alive.
+	 */
+	public static ExecutorService newExecutor(final int parallelism) {
+		return Executors.newFixedThreadPool(
+			Math.max(1, parallelism - 1),
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Fluid Solver Worker %d").build()
+		);
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Solver Methods
+
+	@Override
+	protected void advect(final int bound, final float[] _d, final float[] d0, final float[] du, final float[] dv) {
+		runRows(new RowTask() {
+			@Override
+			void run(final int firstRow, final int lastRow) {
+				final int stride = _NX + 2;
+				final float dt0 = _dt * _NX;
+
+				for (int j = firstRow; j <= lastRow; j++) {
+					for (int i = 1, index = 1 + stride * j; i <= _NX; i++, index++) {
+						float x = i - dt0 * du[index];
+						float y = j - dt0 * dv[index];
+
+						if (x > _NX + 0.5) x = _NX + 0.5f;
+						if (x < 0.5)     x = 0.5f;
+
+						final int i0 = (int) x;
+
+						if (y > _NY + 0.5) y = _NY + 0.5f;
+						if (y < 0.5)     y = 0.5f;
+
+						final int j0 = (int) y;
+
+						final float s1 = x - i0;
+						final float s0 = 1 - s1;
+						final float t1 = y - j0;
+						final float t0 = 1 - t1;
+
+						final int index00 = i0 + stride * j0;
+						final int index01 = index00 + stride;
+
+						_d[index] = s0 * (t0 * d0[index00] + t1 * d0[index01])
+							+ s1 * (t0 * d0[index00 + 1] + t1 * d0[index01 + 1]);
+					}
+				}
+			}
+		});
+
+		setBoundary(bound, _d);
+	}
+
+	@Override
+	protected void advectRGB(final int bound, final float[] du, final float[] dv) {
+		final float[] r = this.r, g = this.g, b = this.b;
+		final float[] rOld = this.rOld, gOld = this.gOld, bOld = this.bOld;
+
+		runRows(new RowTask() {
+			@Override
+			void run(final int firstRow, final int lastRow) {
+				final int stride = _NX + 2;
+				final float dt0 = _dt * _NX;
+
+				for (int j = firstRow; j <= lastRow; j++) {
+					for (int i = 1, index = 1 + stride * j; i <= _NX; i++, index++) {
+						float x = i - dt0 * du[index];
+						float y = j - dt0 * dv[index];
+
+						if (x > _NX + 0.5) x = _NX + 0.5f;
+						if (x < 0.5)     x = 0.5f;
+
+						final int i0 = (int) x;
+
+						if (y > _NY + 0.5) y = _NY + 0.5f;
+						if (y < 0.5)     y = 0.5f;
+
+						final int j0 = (int) y;
+
+						final float s1 = x - i0;
+						final float s0 = 1 - s1;
+						final float t1 = y - j0;
+						final float t0 = 1 - t1;
+
+						final int index00 = i0 + stride * j0;
+						final int index01 = index00 + stride;
+
+						r[index] = s0 * (t0 * rOld[index00] + t1 * rOld[index01])	+ s1 * (t0 * rOld[index00 + 1] + t1 * rOld[index01 + 1]);
+						g[index] = s0 * (t0 * gOld[index00] + t1 * gOld[index01])	+ s1 * (t0 * gOld[index00 + 1] + t1 * gOld[index01 + 1]);
+						b[index] = s0 * (t0 * bOld[index00] + t1 * bOld[index01])	+ s1 * (t0 * bOld[index00 + 1] + t1 * bOld[index01 + 1]);
+					}
+				}
+			}
+		});
+
+		setBoundaryRGB(bound);
+	}
+
+	@Override
+	protected void project(final float[] x, final float[] y, final float[] p, final float[] div) {
+		runRows(new RowTask() {
+			@Override
+			void run(final int firstRow, final int lastRow) {
+				final int stride = _NX + 2;
+
+				for (int j = firstRow; j <= lastRow; j++) {
+					for (int i = 1, index = 1 + stride * j; i <= _NX; i++, index++) {
+						div[index] = (x[index + 1] - x[index - 1] + y[index + stride] - y[index - stride])
+							* - 0.5f / _NX;
+						p[index] = 0;
+					}
+				}
+			}
+		});
+
+		setBoundary(0, div);
+		setBoundary(0, p);
+
+		linearSolver(0, p, div, 1, 4);
+
+		runRows(new RowTask() {
+			@Override
+			void run(final int firstRow, final int lastRow) {
+				final int stride = _NX + 2;
+
+				for (int j = firstRow; j <= lastRow; j++) {
+					for (int i = 1, index = 1 + stride * j; i <= _NX; i++, index++) {
+						x[index] -= 0.5f * _NX * (p[index + 1] - p[index - 1]);
+						y[index] -= 0.5f * _NX * (p[index + stride] - p[index - stride]);
+					}
+				}
+			}
+		});
+
+		setBoundary(1, x);
+		setBoundary(2, y);
+	}
+
+	@Override
+	protected void linearSolver(final int bound, final float[] x, final float[] x0, final float a, final float c) {
+		final RowTask[] sweeps = new RowTask[2];
+
+		for (int color = 0; color < 2; color++) {
+			sweeps[color] = new ColorSweep(color) {
+				@Override
+				void run(final int firstRow, final int lastRow) {
+					final int stride = _NX + 2;
+
+					for (int j = firstRow; j <= lastRow; j++) {
+						for (int index = firstIndex(j), end = stride * j + _NX; index <= end; index += 2) {
+							x[index] = (a * (x[index - 1] + x[index + 1] + x[index - stride] + x[index + stride]) + x0[index]) / c;
+						}
+					}
+				}
+			};
+		}
+
+		for (int k = 0; k < _solverIterations; k++) {
+			runRows(sweeps[0]);
+			runRows(sweeps[1]);
+			setBoundary(bound, x);
+		}
+	}
+
+	@Override
+	protected void linearSolverRGB(final int bound, final float a, final float c) {
+		final float[] r = this.r, g = this.g, b = this.b;
+		final float[] rOld = this.rOld, gOld = this.gOld, bOld = this.bOld;
+		final RowTask[] sweeps = new RowTask[2];
+
+		for (int color = 0; color < 2; color++) {
+			sweeps[color] = new ColorSweep(color) {
+				@Override
+				void run(final int firstRow, final int lastRow) {
+					final int stride = _NX + 2;
+
+					for (int j = firstRow; j <= lastRow; j++) {
+						for (int index = firstIndex(j), end = stride * j + _NX; index <= end; index += 2) {
+							r[index] = (a * (r[index - 1] + r[index + 1] + r[index - stride] + r[index + stride]) + rOld[index]) / c;
+							g[index] = (a * (g[index - 1] + g[index + 1] + g[index - stride] + g[index + stride]) + gOld[index]) / c;
+							b[index] = (a * (b[index - 1] + b[index + 1] + b[index - stride] + b[index + stride]) + bOld[index]) / c;
+						}
+					}
+				}
+			};
+		}
+
+		for (int k = 0; k < _solverIterations; k++) {
+			runRows(sweeps[0]);
+			runRows(sweeps[1]);
+			setBoundaryRGB(bound);
+		}
+	}
+
+	@Override
+	protected void linearSolverUV(final int bound, final float a, final float c) {
+		final float[] u = this.u, v = this.v;
+		final float[] uOld = this.uOld, vOld = this.vOld;
+		final RowTask[] sweeps = new RowTask[2];
+
+		for (int color = 0; color < 2; color++) {
+			sweeps[color] = new ColorSweep(color) {
+				@Override
+				void run(final int firstRow, final int lastRow) {
+					final int stride = _NX + 2;
+
+					for (int j = firstRow; j <= lastRow; j++) {
+						for (int index = firstIndex(j), end = stride * j + _NX; index <= end; index += 2) {
+							u[index] = (a * (u[index - 1] + u[index + 1] + u[index - stride] + u[index + stride]) + uOld[index]) / c;
+							v[index] = (a * (v[index - 1] + v[index + 1] + v[index - stride] + v[index + stride]) + vOld[index]) / c;
+						}
+					}
+				}
+			};
+		}
+
+		for (int k = 0; k < _solverIterations; k++) {
+			runRows(sweeps[0]);
+			runRows(sweeps[1]);
+			// Matches the serial solver, which also applies the RGB boundary here
+			setBoundaryRGB(bound);
+		}
+	}
+
+	//endregion
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	/**
+	 * Runs the task over every interior row, split into {@link #parallelism} bands, and waits for all of them.
+	 */
+	private void runRows(final RowTask task) {
+		if (parallelism == 1) {
+			task.run(1, _NY);
+			return;
+		}
+
+		final List<Future<?>> futures = Lists.newArrayListWithCapacity(parallelism - 1);
+
+		for (int band = 1; band < parallelism; band++) {
+			final int firstRow = firstRow(band);
+			final int lastRow = firstRow(band + 1) - 1;
+
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					task.run(firstRow, lastRow);
+				}
+			}));
+		}
+
+		task.run(1, firstRow(1) - 1);
+
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while solving fluid", e);
+			} catch (ExecutionException e) {
+				throw Throwables.propagate(e.getCause());
+			}
+		}
+	}
+
+	private int firstRow(final int band) {
+		return 1 + band * _NY / parallelism;
+	}
+
+	/**
+	 * Work on an inclusive range of interior rows.
+	 */
+	private static abstract class RowTask {
+		abstract void run(int firstRow, int lastRow);
+	}
+
+	/**
+	 * A Gauss-Seidel sweep over the cells of one color, where color 0 is the cells with {@code i+j} even.
+	 */
+	private abstract class ColorSweep extends RowTask {
+		private final int color;
+
+		ColorSweep(final int color) {
+			this.color = color;
+		}
+
+		/**
+		 * @return The index of the first interior cell of the sweep's color in the given row.
+		 */
+		int firstIndex(final int row) {
+			return (_NX + 2) * row + 1 + ((1 + row + color) & 1);
+		}
+	}
+
+	//endregion
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	//endregion
+}
@@ -0,0 +1,111 @@
+package org.hypher.gradientea.artnet.player.io.stats;
+
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the sliding window statistics against statistics computed directly from a list of the same values.
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class WindowStatsTest {
+	@Test
+	public void statsMatchBruteForce() {
+		final Random random = new Random(3);
+
+		for (int capacity : new int[] {1, 2, 5, 64}) {
+			final WindowStats stats = new WindowStats(capacity);
+			final LinkedList<Float> expected = new LinkedList<Float>();
+
+			for (int n=0; n<20000; n++) {
+				if (random.nextInt(500) == 0) {
+					stats.clear();
+					expected.clear();
+				}
+
+				// Plenty of repeated values, which the old TreeSet-based MovingAverage collapsed
+				final float value = random.nextInt(4) == 0
+					? 5f
+					: random.nextInt(20) == 0 ? Float.NaN : random.nextFloat() * 10;
+
+				stats.add(value);
+				if (! Float.isNaN(value)) {
+					expected.add(value);
+					if (expected.size() > capacity) expected.removeFirst();
+				}
+
+				assertMatches(expected, stats);
+			}
+		}
+	}
+
+	@Test
+	public void concurrentReadsAreConsistent() throws InterruptedException {
+		// A window of consecutive integers always has the same variance, so a torn read of the sums would show
+		final int capacity = 32;
+		final float expectedVariance = (capacity * capacity - 1) / 12f;
+
+		final WindowStats stats = new WindowStats(capacity);
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicLong inconsistentReads = new AtomicLong();
+
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				while (! done.get()) {
+					if (stats.isFull() && Math.abs(stats.variance() - expectedVariance) > 0.01) {
+						inconsistentReads.incrementAndGet();
+					}
+				}
+			}
+		};
+
+		reader.start();
+		for (int i=0; i<2000000; i++) {
+			stats.add(i);
+		}
+		done.set(true);
+		reader.join();
+
+		assertEquals(0, inconsistentReads.get());
+	}
+
+	private static void assertMatches(final List<Float> expected, final WindowStats stats) {
+		assertEquals(expected.size(), stats.size());
+
+		if (expected.isEmpty()) {
+			assertEquals(0, stats.mean(), 0);
+			return;
+		}
+
+		double sum = 0, sumOfSquares = 0;
+		float lowest = Float.MAX_VALUE, highest = -Float.MAX_VALUE;
+		for (float value : expected) {
+			sum += value;
+			sumOfSquares += value * value;
+			lowest = Math.min(lowest, value);
+			highest = Math.max(highest, value);
+		}
+
+		final double mean = sum / expected.size();
+
+		assertEquals(mean, stats.mean(), 1e-4);
+		assertEquals(sumOfSquares / expected.size() - mean * mean, stats.variance(), 1e-3);
+		assertEquals(lowest, stats.lowest(), 0);
+		assertEquals(highest, stats.highest(), 0);
+		assertEquals(expected.get(expected.size() - 1), stats.get(0), 0);
+
+		final float[] copy = new float[expected.size()];
+		stats.copyTo(copy);
+		for (int i=0; i<copy.length; i++) {
+			assertEquals(expected.get(i), copy[i], 0);
+		}
+	}
+}
@@ -39,9 +39,12 @@ public class DomeAnimationAtmosphereHandler extends AtmosphereGwtHandler {
 			final DomeAnimationTransport animationTransport = new DomeAnimationTransport() {
 				@Override
 				public void displayFrame(final DomeAnimationFrame frame) {
+					// Broadcasting is asynchronous, so it needs a copy the receiver won't reuse
+					final DomeAnimationFrame broadcastFrame = frame.copy();
+
 					for (Iterator<Broadcaster> i=broadcasters.iterator(); i.hasNext();) {
 						try {
-							i.next().broadcast(frame);
+							i.next().broadcast(broadcastFrame);
 						} catch (Exception e) {
 							i.remove();
 						}
@@ -9,6 +9,11 @@ import java.io.Serializable;
  * Holds the pixel information for a single frame of animation of the dome in a raw form. This data can be sent via an
  * {@link DomeAnimationTransport} for display on the dome.
  *
+ * <p>Frames created with a constructor are ordinary objects. Frames acquired from a {@link DomeAnimationFramePool}
+ * are reference counted: the holder of each reference calls {@link #release()} when done with it, and the last
+ * release returns the frame to its pool to be reused. Anyone wanting to keep a frame beyond the reference they were
+ * given calls {@link #retain()} first.</p>
+ *
  * @author Yona Appletree (yona@concentricsky.com)
  */
 public class DomeAnimationFrame implements Serializable {
@@ -24,6 +29,19 @@ public class DomeAnimationFrame implements Serializable {
 	 */
 	private /*final*/ byte[] vertexPixelData;
 
+	/**
+	 * The pool this frame returns to once fully released, or null if it isn't pooled.
+	 */
+	private transient DomeAnimationFramePool pool;
+	private transient int referenceCount;
+	private transient boolean released;
+
+	/**
+	 * Where the frame was released from, kept in {@link DomeAnimationFramePool#isDebugEnabled() debug mode} to explain
+	 * later use-after-release errors.
+	 */
+	private transient Throwable releaseTrace;
+
 	protected DomeAnimationFrame() { /* For Serialization Only */ }
 
 	public DomeAnimationFrame(final byte[] facePixelData, final byte[] vertexPixelData) {
@@ -38,11 +56,105 @@ public class DomeAnimationFrame implements Serializable {
 		this(facePixelData, new byte[0]);
 	}
 
+	DomeAnimationFrame(final int faceLength, final int vertexLength, final DomeAnimationFramePool pool) {
+		this(new byte[faceLength], new byte[vertexLength]);
+		this.pool = pool;
+	}
+
+	/**
+	 * Adds a reference to a pooled frame, keeping it from being reused until a matching {@link #release()}. Has no
+	 * effect on frames that aren't pooled.
+	 *
+	 * @return This frame.
+	 */
+	public synchronized DomeAnimationFrame retain() {
+		if (pool != null) {
+			checkNotReleased();
+			referenceCount ++;
+		}
+
+		return this;
+	}
+
+	/**
+	 * Gives up a reference to a pooled frame, returning it to its pool once no references remain. Has no effect on
+	 * frames that aren't pooled.
+	 */
+	public void release() {
+		final boolean recycle;
+
+		synchronized (this) {
+			if (pool == null) return;
+
+			checkNotReleased();
+			recycle = -- referenceCount == 0;
+
+			if (recycle) {
+				released = true;
+				releaseTrace = DomeAnimationFramePool.isDebugEnabled()
+					? new Throwable("Frame released here")
+					: null;
+			}
+		}
+
+		if (recycle) {
+			pool.recycle(this);
+		}
+	}
+
+	/**
+	 * @return The number of outstanding references to a pooled frame, or zero for a frame that isn't pooled.
+	 */
+	public synchronized int getReferenceCount() {
+		return referenceCount;
+	}
+
+	/**
+	 * @return A frame, not pooled, with its own copy of this frame's data.
+	 */
+	public DomeAnimationFrame copy() {
+		final byte[] faceData = getFacePixelData();
+		final byte[] vertexData = getVertexPixelData();
+
+		final byte[] faceCopy = new byte[faceData.length];
+		final byte[] vertexCopy = new byte[vertexData.length];
+
+		System.arraycopy(faceData, 0, faceCopy, 0, faceData.length);
+		System.arraycopy(vertexData, 0, vertexCopy, 0, vertexData.length);
+
+		return new DomeAnimationFrame(faceCopy, vertexCopy);
+	}
+
 	public byte[] getFacePixelData() {
+		if (released) checkNotReleased();
 		return facePixelData;
 	}
 
 	public byte[] getVertexPixelData() {
+		if (released) checkNotReleased();
 		return vertexPixelData;
 	}
+
+	int getFacePixelDataLength() {
+		return facePixelData.length;
+	}
+
+	int getVertexPixelDataLength() {
+		return vertexPixelData.length;
+	}
+
+	/**
+	 * Called by the pool as the frame is handed out again.
+	 */
+	synchronized void acquired() {
+		referenceCount = 1;
+		released = false;
+		releaseTrace = null;
+	}
+
+	private void checkNotReleased() {
+		if (released) {
+			throw new IllegalStateException("DomeAnimationFrame used after it was released", releaseTrace);
+		}
+	}
 }
@@ -0,0 +1,116 @@
+package org.hypher.gradientea.transport.shared;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recycles {@link DomeAnimationFrame}s so that producers of frames don't allocate new arrays for every frame. A frame
+ * from {@link #acquire(int, int)} starts with one reference, held by the caller, and comes back to the pool when its
+ * last reference is {@link DomeAnimationFrame#release() released}.
+ *
+ * <p>In {@link #setDebugEnabled(boolean) debug mode} released frames are never reused, and any later use of one
+ * throws an {@link IllegalStateException} that carries the stack trace of the release.</p>
+ *
+ * @author Yona Appletree (yona@concentricsky.com)
+ */
+public class DomeAnimationFramePool {
+	public static final int DEFAULT_MAX_FREE_FRAMES = 8;
+
+	private static boolean debugEnabled = false;
+
+	private final int maxFreeFrames;
+	private final List<DomeAnimationFrame> freeFrames = new ArrayList<DomeAnimationFrame>();
+
+	private long allocatedFrameCount = 0;
+
+	public DomeAnimationFramePool() {
+		this(DEFAULT_MAX_FREE_FRAMES);
+	}
+
+	/**
+	 * @param maxFreeFrames The most released frames to keep for reuse; any beyond this are left to the garbage
+	 * collector.
+	 */
+	public DomeAnimationFramePool(final int maxFreeFrames) {
+		this.maxFreeFrames = maxFreeFrames;
+	}
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Interface Methods
+
+	/**
+	 * Takes a frame with the given amount of face and vertex data from the pool, allocating one if none is free. The
+	 * contents of a reused frame are whatever its previous user left in it.
+	 */
+	public DomeAnimationFrame acquire(final int faceLength, final int vertexLength) {
+		DomeAnimationFrame frame = null;
+
+		synchronized (this) {
+			for (int i=freeFrames.size()-1; i>=0; i--) {
+				final DomeAnimationFrame candidate = freeFrames.get(i);
+
+				if (candidate.getFacePixelDataLength() == faceLength
+					&& candidate.getVertexPixelDataLength() == vertexLength) {
+					frame = freeFrames.remove(i);
+					break;
+				}
+			}
+
+			if (frame == null) {
+				allocatedFrameCount ++;
+			}
+		}
+
+		if (frame == null) {
+			frame = new DomeAnimationFrame(faceLength, vertexLength, this);
+		}
+
+		frame.acquired();
+		return frame;
+	}
+
+	//endregion
+
+	/*////////////////////////////////////////////////////////////////////////////////////////////////////////////////*/
+	//region// Internal Methods
+
+	synchronized void recycle(final DomeAnimationFrame frame) {
+		if (debugEnabled) return;
+
+		if (freeFrames.size() >= maxFreeFrames) {
+			// Keep the most recently released frames, which are the likeliest to match the next request
+			freeFrames.remove(0);
+		}
+
+		freeFrames.add(frame);
+	}
+
+	//endregion
+
+	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	//region// Getters and Setters
+
+	public static boolean isDebugEnabled() {
+		return debugEnabled;
+	}
+
+	/**
+	 * Turns use-after-release detection on or off for every pool. Meant to be set once, at startup.
+	 */
+	public static void setDebugEnabled(final boolean debugEnabled) {
+		DomeAnimationFramePool.debugEnabled = debugEnabled;
+	}
+
+	/**
+	 * @return The number of frames this pool has had to allocate.
+	 */
+	public synchronized long getAllocatedFrameCount() {
+		return allocatedFrameCount;
+	}
+
+	public synchronized int getFreeFrameCount() {
+		return freeFrames.size();
+	}
+
+	//endregion
+}
@@ -6,5 +6,11 @@ package org.hypher.gradientea.transport.shared;
  * @author Yona Appletree (yona@concentricsky.com)
  */
 public interface DomeAnimationTransport {
+	/**
+	 * Displays a frame. The frame belongs to the caller and is only valid for the duration of the call; the caller may
+	 * reuse its data as soon as this returns. A transport that needs the frame afterwards must either
+	 * {@link DomeAnimationFrame#retain() retain} it and {@link DomeAnimationFrame#release() release} it when finished,
+	 * or keep a {@link DomeAnimationFrame#copy() copy}.
+	 */
 	void displayFrame(DomeAnimationFrame frame);
 }